@@ -1,88 +1,82 @@
 package com.moksh.kontext.ai.advisor;
 
+import com.moksh.kontext.ai.service.ContextPacker;
+import com.moksh.kontext.ai.service.RagMetrics;
 import org.springframework.ai.chat.client.ChatClientRequest;
 import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.AdvisorUtils;
 import org.springframework.ai.chat.client.advisor.api.AdvisorChain;
 import org.springframework.ai.chat.client.advisor.api.BaseAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.ai.document.Document;
-import org.springframework.util.Assert;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
+/**
+ * Singleton advisor that renders the agent instruction and conversation summary into the system prompt and the
+ * retrieved knowledge, memory hits and user name into the user prompt.
+ * All per-request inputs are read from the {@link ChatClientRequest} context, so the instance is shared safely.
+ */
+@Component
 public class KontextChatAdvisor implements BaseAdvisor {
 
+    // Request context keys; the caller supplies the retrieved documents, instruction and display name per request
     public static final String RETRIEVED_DOCUMENTS = "kontext_retrieved_documents";
-    private static final PromptTemplate DEFAULT_PROMPT_TEMPLATE = new PromptTemplate("""
+    public static final String AGENT_INSTRUCTION = "kontext_agent_instruction";
+    public static final String USER_DISPLAY_NAME = "kontext_user_display_name";
+    // Owning project, used to tag the stage metrics of the advisors
+    public static final String PROJECT_ID = "kontext_project_id";
+
+    /*
+     * Prompt layout is ordered for provider prefix caching: the system message holds only the agent instruction
+     * and fixed rules, which are identical for every turn of a project, followed by the conversation summary, which
+     * only changes when older turns are folded into it; chat history follows as messages that only grow at the
+     * end; everything that changes per request (retrieved context, memory hits, user and query)
+     * is in the final user message.
+     */
+    private static final PromptTemplate DEFAULT_SYSTEM_TEMPLATE = new PromptTemplate("""
             {agent_instruction}
-            
-            User: {user_display_name}
-            Query: {query}
-            
+
+            Answer using the context information provided with each question and the conversation history,
+            not prior knowledge. If the answer is not in the context, inform the user that you can't answer
+            the question. Address the user by their name when appropriate.
+            {conversation_summary}""");
+
+    private static final PromptTemplate DEFAULT_USER_TEMPLATE = new PromptTemplate("""
             Context information is below, surrounded by ---------------------
-            
+
             ---------------------
             {question_answer_context}
             ---------------------
-            
-            Given the context and provided history information and not prior knowledge,
-            reply to the user comment. If the answer is not in the context, inform
-            the user that you can't answer the question. Address the user by their name when appropriate.
+            {memory_context}
+            User: {user_display_name}
+            Query: {query}
             """);
 
-    private final List<Document> documents;
-    private final String agentInstruction;
-    private final String userDisplayName;
-    private final PromptTemplate promptTemplate;
+    private final ContextPacker contextPacker;
+    private final RagMetrics ragMetrics;
+    private final PromptTemplate systemTemplate;
+    private final PromptTemplate userTemplate;
     private final Scheduler scheduler;
 
-    public KontextChatAdvisor(List<Document> documents, String agentInstruction, String userDisplayName) {
-        this.documents = documents;
-        this.agentInstruction = agentInstruction;
-        this.userDisplayName = userDisplayName;
-        this.promptTemplate = DEFAULT_PROMPT_TEMPLATE;
+    public KontextChatAdvisor(ContextPacker contextPacker, RagMetrics ragMetrics) {
+        this.contextPacker = contextPacker;
+        this.ragMetrics = ragMetrics;
+        this.systemTemplate = DEFAULT_SYSTEM_TEMPLATE;
+        this.userTemplate = DEFAULT_USER_TEMPLATE;
         this.scheduler = BaseAdvisor.DEFAULT_SCHEDULER;
     }
 
-    public static Builder builder(List<Document> documents) {
-        return new Builder(documents);
-    }
-
-    public static final class Builder {
-        List<Document> documents;
-        String agentInstruction;
-        String userDisplayName;
-
-        private Builder(List<Document> documents) {
-            Assert.notNull(documents, "The documents must not be null!");
-            this.documents = documents;
-        }
-
-        public Builder withAgentInstruction(String agentInstruction) {
-            this.agentInstruction = agentInstruction;
-            return this;
-        }
-
-        public Builder withUserDisplayName(String userDisplayName) {
-            this.userDisplayName = userDisplayName;
-            return this;
-        }
-
-        public KontextChatAdvisor build() {
-            return new KontextChatAdvisor(
-                    this.documents,
-                    this.agentInstruction,
-                    this.userDisplayName
-            );
-        }
-    }
-
     @Override
     public Scheduler getScheduler() {
         return this.scheduler;
@@ -90,10 +84,21 @@ public class KontextChatAdvisor implements BaseAdvisor {
 
     @Override
     public ChatClientRequest before(ChatClientRequest chatClientRequest, AdvisorChain advisorChain) {
-        Map<String, Object> context = new HashMap<>(chatClientRequest.context());
-        context.put(RETRIEVED_DOCUMENTS, documents);
-        String documentContext = documents == null ? ""
-                : documents.stream().map(Document::getText).collect(Collectors.joining(System.lineSeparator()));
+        return ragMetrics.observe("prompt_assembly", (UUID) chatClientRequest.context().get(PROJECT_ID),
+                () -> augment(chatClientRequest));
+    }
+
+    private ChatClientRequest augment(ChatClientRequest chatClientRequest) {
+        @SuppressWarnings("unchecked")
+        List<Document> documents = contextPacker.packKnowledge(
+                (List<Document>) chatClientRequest.context().get(RETRIEVED_DOCUMENTS));
+        String agentInstruction = contextPacker.packInstruction(
+                (String) chatClientRequest.context().get(AGENT_INSTRUCTION));
+        String userDisplayName = (String) chatClientRequest.context().get(USER_DISPLAY_NAME);
+
+        String documentContext = documents.stream()
+                .map(Document::getText)
+                .collect(Collectors.joining(System.lineSeparator()));
 
         UserMessage userMessage = chatClientRequest.prompt().getUserMessage();
         String agentInstructionText = agentInstruction != null && !agentInstruction.trim().isEmpty() 
@@ -102,18 +107,35 @@ public class KontextChatAdvisor implements BaseAdvisor {
         String userDisplayNameText = userDisplayName != null && !userDisplayName.trim().isEmpty()
                 ? userDisplayName
                 : "User";
-        String augmentedUserText = this.promptTemplate
+        Object memoryContext = chatClientRequest.context().get(UnifiedChatMemoryAdvisor.MEMORY_CONTEXT);
+        String memoryContextText = memoryContext != null && !memoryContext.toString().isBlank()
+                ? System.lineSeparator() + "Related earlier conversation:" + System.lineSeparator() + memoryContext
+                : "";
+
+        Object conversationSummary = chatClientRequest.context().get(UnifiedChatMemoryAdvisor.CONVERSATION_SUMMARY);
+        String conversationSummaryText = conversationSummary != null && !conversationSummary.toString().isBlank()
+                ? System.lineSeparator() + "Summary of the earlier conversation in this chat:"
+                        + System.lineSeparator() + conversationSummary + System.lineSeparator()
+                : "";
+
+        String systemText = this.systemTemplate
                 .render(Map.of(
                         "agent_instruction", agentInstructionText,
+                        "conversation_summary", conversationSummaryText
+                ));
+        String augmentedUserText = this.userTemplate
+                .render(Map.of(
+                        "question_answer_context", documentContext,
+                        "memory_context", memoryContextText,
                         "user_display_name", userDisplayNameText,
-                        "query", userMessage.getText(), 
-                        "question_answer_context", documentContext
+                        "query", userMessage.getText()
                 ));
 
-        // 4. Update ChatClientRequest with augmented prompt.
+        // 4. Update ChatClientRequest with the stable system prompt and the volatile user message.
         return chatClientRequest.mutate()
-                .prompt(chatClientRequest.prompt().augmentUserMessage(augmentedUserText))
-                .context(context)
+                .prompt(chatClientRequest.prompt()
+                        .augmentSystemMessage(systemText)
+                        .augmentUserMessage(augmentedUserText))
                 .build();
     }
 
@@ -125,13 +147,30 @@ public class KontextChatAdvisor implements BaseAdvisor {
         } else {
             chatResponseBuilder = ChatResponse.builder().from(chatClientResponse.chatResponse());
         }
-        chatResponseBuilder.metadata(RETRIEVED_DOCUMENTS, chatClientResponse.context().get(RETRIEVED_DOCUMENTS));
+        Object documents = chatClientResponse.context().get(RETRIEVED_DOCUMENTS);
+        if (documents != null) {
+            chatResponseBuilder.metadata(RETRIEVED_DOCUMENTS, documents);
+        }
         return ChatClientResponse.builder()
                 .chatResponse(chatResponseBuilder.build())
                 .context(chatClientResponse.context())
                 .build();
     }
 
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest,
+                                                 StreamAdvisorChain streamAdvisorChain) {
+        // Augment the prompt once up front and attach the retrieved documents to the final chunk,
+        // letting downstream errors propagate as-is instead of being wrapped by the default handling.
+        return Mono.just(chatClientRequest)
+                .publishOn(getScheduler())
+                .map(request -> this.before(request, streamAdvisorChain))
+                .flatMapMany(streamAdvisorChain::nextStream)
+                .map(response -> AdvisorUtils.onFinishReason().test(response)
+                        ? this.after(response, streamAdvisorChain)
+                        : response);
+    }
+
     @Override
     public int getOrder() {
         return 0;
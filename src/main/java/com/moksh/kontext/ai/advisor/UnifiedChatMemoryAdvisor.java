@@ -1,201 +1,319 @@
 package com.moksh.kontext.ai.advisor;
 
-import lombok.Builder;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClientMessageAggregator;
 import org.springframework.ai.chat.client.ChatClientRequest;
 import org.springframework.ai.chat.client.ChatClientResponse;
 import org.springframework.ai.chat.client.advisor.api.AdvisorChain;
 import org.springframework.ai.chat.client.advisor.api.BaseAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import com.moksh.kontext.ai.dto.ChatTurn;
+import com.moksh.kontext.ai.dto.QueryEmbeddingContext;
+import com.moksh.kontext.ai.service.ChatTurnWriter;
+import com.moksh.kontext.ai.service.ContextPacker;
+import com.moksh.kontext.ai.service.RagMetrics;
+import com.moksh.kontext.ai.service.VectorSearchService;
+import com.moksh.kontext.ai.service.VectorService;
 import com.moksh.kontext.chat.service.ChatMessageService;
-import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.messages.SystemMessage;
-import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.Ordered;
+import org.springframework.security.concurrent.DelegatingSecurityContextCallable;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
-import reactor.core.scheduler.Schedulers;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
 
+/**
+ * Singleton advisor that loads recent and semantically related chat history into the prompt and hands the
+ * finished turn to the {@link ChatTurnWriter}. It holds no per-request state: the conversation, user and caller
+ * security context travel in the {@link ChatClientRequest} context, so one instance serves all concurrent chats.
+ */
+@Component
 @Slf4j
 public class UnifiedChatMemoryAdvisor implements BaseAdvisor {
 
+    // Request context keys for history already loaded by the retrieval stage
+    public static final String RECENT_MESSAGES = "kontext_recent_messages";
+    public static final String SEMANTIC_CONTEXT = "kontext_semantic_context";
+    public static final String CONVERSATION_SUMMARY = "kontext_conversation_summary";
+
+    // Request context keys identifying the turn
+    public static final String CONVERSATION_ID = ChatMemory.CONVERSATION_ID;
+    public static final String USER_ID = "kontext_user_id";
+    public static final String SECURITY_CONTEXT = "kontext_security_context";
+
+    // Relevant snippets from earlier conversation, rendered into the user message by KontextChatAdvisor
+    public static final String MEMORY_CONTEXT = "kontext_memory_context";
+
+    // Raw user message captured in before() so after() can persist it
+    private static final String USER_QUERY = "kontext_user_query";
+
     private final VectorStore chatVectorStore;
+    private final VectorSearchService vectorSearchService;
     private final ChatMessageService chatMessageService;
-    private final String conversationId;
+    private final ChatTurnWriter chatTurnWriter;
+    private final ContextPacker contextPacker;
+    private final RagMetrics ragMetrics;
     private final int maxMessages;
     private final int vectorTopK;
     private final double vectorSimilarityThreshold;
     private final Scheduler scheduler;
-    private String currentUserMessage;
 
-    @Builder
+    @Autowired
     public UnifiedChatMemoryAdvisor(
-            VectorStore chatVectorStore,
+            @Qualifier("chat_vector_store") VectorStore chatVectorStore,
+            VectorSearchService vectorSearchService,
             ChatMessageService chatMessageService,
-            String conversationId,
-            Integer maxMessages,
-            Integer vectorTopK,
-            Double vectorSimilarityThreshold) {
-        
+            ChatTurnWriter chatTurnWriter,
+            ContextPacker contextPacker,
+            RagMetrics ragMetrics,
+            @Value("${kontext.ai.retrieval.memory.max-messages:10}") int maxMessages,
+            @Value("${kontext.ai.retrieval.memory.top-k:5}") int vectorTopK,
+            @Value("${kontext.ai.retrieval.memory.similarity-threshold:0.7}") double vectorSimilarityThreshold) {
+
         this.chatVectorStore = chatVectorStore;
+        this.vectorSearchService = vectorSearchService;
         this.chatMessageService = chatMessageService;
-        this.conversationId = conversationId;
-        this.maxMessages = maxMessages != null ? maxMessages : 10;
-        this.vectorTopK = vectorTopK != null ? vectorTopK : 5;
-        this.vectorSimilarityThreshold = vectorSimilarityThreshold != null ? vectorSimilarityThreshold : 0.7;
-        this.scheduler = Schedulers.boundedElastic();
+        this.chatTurnWriter = chatTurnWriter;
+        this.contextPacker = contextPacker;
+        this.ragMetrics = ragMetrics;
+        this.maxMessages = maxMessages;
+        this.vectorTopK = vectorTopK;
+        this.vectorSimilarityThreshold = vectorSimilarityThreshold;
+        this.scheduler = BaseAdvisor.DEFAULT_SCHEDULER;
     }
 
     @Override
     public ChatClientRequest before(ChatClientRequest request, AdvisorChain chain) {
+        return ragMetrics.observe("memory_load", projectId(request.context()), () -> loadMemory(request));
+    }
+
+    private ChatClientRequest loadMemory(ChatClientRequest request) {
+        String conversationId = conversationId(request.context());
         try {
             String userQuery = extractUserMessage(request);
-            if (userQuery == null || userQuery.trim().isEmpty()) {
+            if (userQuery == null || userQuery.trim().isEmpty() || conversationId == null) {
                 return request;
             }
 
-            // Store user message for later saving
-            currentUserMessage = userQuery;
-
             log.debug("Processing unified chat memory for conversation: {}", conversationId);
 
-            // 1. Get recent structured history from PostgreSQL
-            List<Message> recentMessages = getRecentMessages();
-            
-            // 2. Get semantic context from Qdrant vector store
-            List<Document> semanticContext = getSemanticContext(userQuery);
-            
-            // 3. Combine both contexts intelligently
-            List<Message> unifiedMemory = combineMemoryContext(recentMessages, semanticContext, userQuery);
-            
-            // 4. Add unified memory to request context
-            if (!unifiedMemory.isEmpty()) {
-                log.debug("Adding {} unified memory messages to conversation: {}", 
-                         unifiedMemory.size(), conversationId);
-                
-                // Add memory messages to the prompt
-                return request.mutate()
-                    .prompt(request.prompt().augmentSystemMessage(formatMemoryContext(unifiedMemory)))
-                    .build();
+            // 1. Get recent structured history from PostgreSQL (unless the retrieval stage already did)
+            @SuppressWarnings("unchecked")
+            List<Message> recentMessages = request.context().containsKey(RECENT_MESSAGES)
+                    ? (List<Message>) request.context().get(RECENT_MESSAGES)
+                    : withSecurityContext(request.context(), () -> getRecentMessages(conversationId));
+
+            // 2. Get semantic context from Qdrant vector store (unless the retrieval stage already did)
+            @SuppressWarnings("unchecked")
+            List<Document> semanticContext = request.context().containsKey(SEMANTIC_CONTEXT)
+                    ? (List<Document>) request.context().get(SEMANTIC_CONTEXT)
+                    : getSemanticContext(userQuery, conversationId, userId(request.context()),
+                            (QueryEmbeddingContext) request.context().get(QueryEmbeddingContext.CONTEXT_KEY));
+
+            // 3. Combine both contexts intelligently and fit them into the history token budget
+            List<Message> unifiedMemory = contextPacker.packHistory(
+                    combineMemoryContext(recentMessages, semanticContext, userQuery));
+
+            // Keep the user message for after(); the response carries the request context through
+            Map<String, Object> context = new HashMap<>(request.context());
+            context.put(USER_QUERY, userQuery);
+            ChatClientRequest.Builder mutated = request.mutate();
+
+            // 4. Recent history becomes real messages between the system prompt and the current user message.
+            // It only grows at the end from turn to turn, which keeps the prompt prefix cacheable. Memory hits
+            // change with every query, so they go to the volatile tail rendered by KontextChatAdvisor.
+            List<Message> history = new ArrayList<>();
+            StringBuilder memoryContext = new StringBuilder();
+            for (Message message : unifiedMemory) {
+                if (message instanceof SystemMessage) {
+                    memoryContext.append(message.getText()).append("\n");
+                } else {
+                    history.add(message);
+                }
             }
-            
+            // Recent messages are loaded newest first; the model needs them in chronological order
+            Collections.reverse(history);
+            context.put(MEMORY_CONTEXT, memoryContext.toString());
+
+            if (!history.isEmpty()) {
+                log.debug("Adding {} history messages to conversation: {}", history.size(), conversationId);
+                mutated.prompt(withHistory(request.prompt(), history));
+            }
+            return mutated.context(context).build();
+
         } catch (Exception e) {
             log.error("Error in UnifiedChatMemoryAdvisor before(): {}", e.getMessage(), e);
         }
-        
+
         return request;
     }
 
     @Override
     public ChatClientResponse after(ChatClientResponse response, AdvisorChain chain) {
+        return ragMetrics.observe("memory_persist", projectId(response.context()), () -> persistTurn(response));
+    }
+
+    private ChatClientResponse persistTurn(ChatClientResponse response) {
+        String conversationId = conversationId(response.context());
         try {
-            log.debug("Saving response to unified chat memory for conversation: {}", conversationId);
-            
-            // Extract messages from request and response
-            List<Message> messagesToSave = extractMessagesForSaving(response);
-            
-            if (!messagesToSave.isEmpty()) {
-                // Save to PostgreSQL (structured storage)
-                saveToPostgreSQL(messagesToSave);
-                
-                // Save to Qdrant (vector storage for semantic search)
-                saveToVectorStore(messagesToSave);
-                
-                log.debug("Successfully saved {} messages to unified storage for conversation: {}", 
-                         messagesToSave.size(), conversationId);
+            Object userQuery = response.context().get(USER_QUERY);
+            if (conversationId == null || userQuery == null || userQuery.toString().trim().isEmpty()) {
+                return response;
             }
-            
+
+            // Hand the turn to the write-behind pipeline so the answer is returned without waiting on
+            // the Postgres inserts and the memory embedding
+            chatTurnWriter.enqueue(new ChatTurn(
+                    UUID.fromString(conversationId),
+                    userId(response.context()),
+                    userQuery.toString(),
+                    extractAssistantMessage(response),
+                    System.currentTimeMillis(),
+                    (SecurityContext) response.context().get(SECURITY_CONTEXT)));
+            log.debug("Queued chat turn for conversation: {}", conversationId);
+
         } catch (Exception e) {
             log.error("Error in UnifiedChatMemoryAdvisor after(): {}", e.getMessage(), e);
         }
-        
+
         return response;
     }
 
-    private String formatMemoryContext(List<Message> messages) {
-        if (messages.isEmpty()) {
-            return "";
-        }
-        
-        StringBuilder context = new StringBuilder("\n--- Chat History ---\n");
-        for (Message message : messages) {
-            String role = message.getMessageType().toString().toLowerCase();
-            context.append(role).append(": ").append(message.getText()).append("\n");
-        }
-        context.append("--- End Chat History ---\n");
-        
-        return context.toString();
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest request, StreamAdvisorChain chain) {
+        // The default stream handling calls after() with the last chunk only, which would persist a
+        // truncated answer. Aggregate the streamed chunks and save the full turn once the stream completes.
+        return new ChatClientMessageAggregator().aggregateChatClientResponse(
+                Mono.just(request)
+                        .publishOn(scheduler)
+                        .map(r -> before(r, chain))
+                        .flatMapMany(chain::nextStream)
+                        .publishOn(scheduler),
+                response -> after(response, chain));
+    }
+
+    private Prompt withHistory(Prompt prompt, List<Message> history) {
+        List<Message> messages = new ArrayList<>();
+        prompt.getInstructions().stream().filter(message -> message instanceof SystemMessage).forEach(messages::add);
+        messages.addAll(history);
+        prompt.getInstructions().stream().filter(message -> !(message instanceof SystemMessage)).forEach(messages::add);
+        return new Prompt(messages, prompt.getOptions());
     }
 
     private String extractUserMessage(ChatClientRequest request) {
-        return request.prompt().getUserMessage() != null ? 
+        return request.prompt().getUserMessage() != null ?
                request.prompt().getUserMessage().getText() : null;
     }
 
-    private List<Message> getRecentMessages() {
+    private static String conversationId(Map<String, Object> context) {
+        Object conversationId = context.get(CONVERSATION_ID);
+        return conversationId != null ? conversationId.toString() : null;
+    }
+
+    private static UUID projectId(Map<String, Object> context) {
+        return (UUID) context.get(KontextChatAdvisor.PROJECT_ID);
+    }
+
+    private static UUID userId(Map<String, Object> context) {
+        return (UUID) context.get(USER_ID);
+    }
+
+    private <T> T withSecurityContext(Map<String, Object> context, Callable<T> action) throws Exception {
+        if (context.get(SECURITY_CONTEXT) instanceof SecurityContext securityContext) {
+            return new DelegatingSecurityContextCallable<>(action, securityContext).call();
+        }
+        return action.call();
+    }
+
+    private List<Message> getRecentMessages(String conversationId) {
         try {
             UUID chatId = UUID.fromString(conversationId);
-            return chatMessageService.getLastMessages(chatId, maxMessages)
-                .stream()
+            List<Message> messages = new ArrayList<>(chatTurnWriter.pendingMessages(chatId));
+            chatMessageService.getLastMessages(chatId, maxMessages).stream()
                 .map(chatMessageService::mapMessage)
-                .collect(Collectors.toList());
+                .forEach(messages::add);
+            return messages.size() > maxMessages ? messages.subList(0, maxMessages) : messages;
         } catch (Exception e) {
-            log.warn("Failed to retrieve recent messages for conversation {}: {}", 
+            log.warn("Failed to retrieve recent messages for conversation {}: {}",
                     conversationId, e.getMessage());
             return new ArrayList<>();
         }
     }
 
-    private List<Document> getSemanticContext(String userQuery) {
+    private List<Document> getSemanticContext(String userQuery, String conversationId, UUID userId,
+                                              QueryEmbeddingContext queryContext) {
         try {
-            if (chatVectorStore != null) {
-                SearchRequest searchRequest = SearchRequest.builder()
-                    .query(userQuery)
-                    .topK(vectorTopK)
-                    .similarityThreshold(vectorSimilarityThreshold)
-                    .build();
-                    
-                return chatVectorStore.similaritySearch(searchRequest);
+            // Reuse the embedding computed for the knowledge search instead of embedding the query again
+            if (queryContext != null) {
+                return vectorSearchService.searchChatMemory(queryContext, UUID.fromString(conversationId), userId,
+                        vectorTopK, vectorSimilarityThreshold);
             }
+            // The filter language has no missing-key test, so until memory stored before user_id was written
+            // has been tagged, only the conversation is matched; a chat belongs to one user
+            FilterExpressionBuilder filter = new FilterExpressionBuilder();
+            FilterExpressionBuilder.Op conversationMatch = filter.eq(VectorService.CONVERSATION_ID_KEY, conversationId);
+            SearchRequest searchRequest = SearchRequest.builder()
+                .query(userQuery)
+                .topK(vectorTopK)
+                .similarityThreshold(vectorSimilarityThreshold)
+                .filterExpression(vectorSearchService.isUserIdBackfillComplete()
+                        ? filter.and(conversationMatch,
+                                filter.eq(VectorService.USER_ID_KEY, String.valueOf(userId))).build()
+                        : conversationMatch.build())
+                .build();
+
+            return chatVectorStore.similaritySearch(searchRequest);
         } catch (Exception e) {
-            log.warn("Failed to retrieve semantic context for conversation {}: {}", 
+            log.warn("Failed to retrieve semantic context for conversation {}: {}",
                     conversationId, e.getMessage());
         }
         return new ArrayList<>();
     }
 
-    private List<Message> combineMemoryContext(List<Message> recentMessages, 
-                                             List<Document> semanticContext, 
+    private List<Message> combineMemoryContext(List<Message> recentMessages,
+                                             List<Document> semanticContext,
                                              String userQuery) {
         List<Message> unifiedMemory = new ArrayList<>();
-        
+
         // Add recent structured messages (priority to recent conversation flow)
         unifiedMemory.addAll(recentMessages);
-        
+
         // Add relevant semantic context as system messages if available and relevant
         if (!semanticContext.isEmpty()) {
             for (Document doc : semanticContext) {
                 String content = doc.getText();
                 // Only add if it's not already in recent messages (avoid duplication)
                 boolean isDuplicate = recentMessages.stream()
-                    .anyMatch(msg -> msg.getText().contains(content.substring(0, 
+                    .anyMatch(msg -> msg.getText().contains(content.substring(0,
                             Math.min(content.length(), 100))));
-                
+
                 if (!isDuplicate && isRelevantToQuery(content, userQuery)) {
-                    // Add semantic context as system context
-                    unifiedMemory.add(new SystemMessage(
-                        "Previous relevant context: " + content));
+                    // Marked as system messages so before() can route them to the volatile part of the prompt
+                    unifiedMemory.add(new SystemMessage(content));
                 }
             }
         }
-        
+
         return unifiedMemory;
     }
 
@@ -203,79 +321,27 @@ public class UnifiedChatMemoryAdvisor implements BaseAdvisor {
         // Simple relevance check - can be enhanced with more sophisticated matching
         String[] queryWords = query.toLowerCase().split("\\s+");
         String lowerContent = content.toLowerCase();
-        
+
         int matches = 0;
         for (String word : queryWords) {
             if (word.length() > 3 && lowerContent.contains(word)) {
                 matches++;
             }
         }
-        
+
         // Consider relevant if at least 30% of query words appear in content
         return matches >= Math.max(1, queryWords.length * 0.3);
     }
 
-    private List<Message> extractMessagesForSaving(ChatClientResponse response) {
-        List<Message> messagesToSave = new ArrayList<>();
-        
-        // Add the user message if stored
-        if (currentUserMessage != null && !currentUserMessage.trim().isEmpty()) {
-            messagesToSave.add(new UserMessage(currentUserMessage));
-        }
-        
-        // Add the assistant response
-        if (response.chatResponse() != null && response.chatResponse().getResult() != null && 
+    private String extractAssistantMessage(ChatClientResponse response) {
+        if (response.chatResponse() != null && response.chatResponse().getResult() != null &&
             response.chatResponse().getResult().getOutput() != null) {
             String assistantContent = response.chatResponse().getResult().getOutput().getText();
             if (assistantContent != null && !assistantContent.trim().isEmpty()) {
-                messagesToSave.add(new AssistantMessage(assistantContent));
-            }
-        }
-        
-        return messagesToSave;
-    }
-
-    private void saveToPostgreSQL(List<Message> messages) {
-        try {
-            UUID chatId = UUID.fromString(conversationId);
-            for (Message message : messages) {
-                if (message instanceof UserMessage) {
-                    chatMessageService.addUserMessage(chatId, message.getText());
-                } else if (message instanceof AssistantMessage) {
-                    chatMessageService.addAssistantMessage(chatId, message.getText());
-                }
-            }
-            log.debug("Saved {} messages to PostgreSQL for conversation: {}", 
-                     messages.size(), conversationId);
-        } catch (Exception e) {
-            log.error("Failed to save messages to PostgreSQL for conversation {}: {}", 
-                     conversationId, e.getMessage());
-        }
-    }
-
-    private void saveToVectorStore(List<Message> messages) {
-        try {
-            if (chatVectorStore != null) {
-                List<Document> documentsToAdd = messages.stream()
-                    .filter(msg -> msg.getText() != null && !msg.getText().trim().isEmpty())
-                    .map(msg -> Document.builder()
-                        .text(msg.getText())
-                        .metadata("conversation_id", conversationId)
-                        .metadata("message_type", msg.getMessageType().toString())
-                        .metadata("timestamp", String.valueOf(System.currentTimeMillis()))
-                        .build())
-                    .collect(Collectors.toList());
-                
-                if (!documentsToAdd.isEmpty()) {
-                    chatVectorStore.accept(documentsToAdd);
-                    log.debug("Saved {} messages to vector store for conversation: {}", 
-                             documentsToAdd.size(), conversationId);
-                }
+                return assistantContent;
             }
-        } catch (Exception e) {
-            log.error("Failed to save messages to vector store for conversation {}: {}", 
-                     conversationId, e.getMessage());
         }
+        return null;
     }
 
     @Override
@@ -287,26 +353,4 @@ public class UnifiedChatMemoryAdvisor implements BaseAdvisor {
     public Scheduler getScheduler() {
         return scheduler;
     }
-
-    public static class UnifiedChatMemoryAdvisorBuilder {
-        public UnifiedChatMemoryAdvisorBuilder conversationId(String conversationId) {
-            this.conversationId = conversationId;
-            return this;
-        }
-        
-        public UnifiedChatMemoryAdvisorBuilder maxMessages(int maxMessages) {
-            this.maxMessages = maxMessages;
-            return this;
-        }
-        
-        public UnifiedChatMemoryAdvisorBuilder vectorTopK(int vectorTopK) {
-            this.vectorTopK = vectorTopK;
-            return this;
-        }
-        
-        public UnifiedChatMemoryAdvisorBuilder vectorSimilarityThreshold(double threshold) {
-            this.vectorSimilarityThreshold = threshold;
-            return this;
-        }
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,79 @@
+package com.moksh.kontext.ai.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.UUID;
+
+/**
+ * Configuration and key/similarity helpers shared by the cache backends.
+ */
+public abstract class AbstractSemanticResponseCache implements SemanticResponseCache {
+
+    protected static final String KEY_PREFIX = "kontext:semantic-cache:";
+
+    @Value("${kontext.ai.cache.enabled:true}")
+    protected boolean enabled;
+
+    @Value("${kontext.ai.cache.similarity-threshold:0.95}")
+    protected double similarityThreshold;
+
+    @Value("${kontext.ai.cache.ttl-minutes:1440}")
+    protected long ttlMinutes;
+
+    @Value("${kontext.ai.cache.max-entries-per-project:100}")
+    protected int maxEntriesPerProject;
+
+    protected Clock clock = Clock.systemUTC();
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    protected Duration ttl() {
+        return Duration.ofMinutes(ttlMinutes);
+    }
+
+    protected boolean isExpired(long createdAt) {
+        return clock.millis() - createdAt > ttl().toMillis();
+    }
+
+    protected String partitionKey(UUID projectId, String agentInstruction, long knowledgeVersion) {
+        return KEY_PREFIX + projectId + ":" + instructionHash(agentInstruction) + ":v" + knowledgeVersion;
+    }
+
+    protected static String instructionHash(String agentInstruction) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((agentInstruction != null ? agentInstruction : "")
+                    .getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    protected static double cosineSimilarity(float[] a, float[] b) {
+        if (a == null || b == null || a.length != b.length || a.length == 0) {
+            return 0.0;
+        }
+        double dot = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        if (normA == 0.0 || normB == 0.0) {
+            return 0.0;
+        }
+        return dot / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+}
@@ -0,0 +1,95 @@
+package com.moksh.kontext.ai.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process semantic cache for single-instance deployments and local development.
+ * Each partition is an access-ordered map capped at {@code max-entries-per-project}, so the least recently
+ * used answer is dropped first; entries older than the TTL are skipped and removed on lookup.
+ */
+@Service
+@ConditionalOnProperty(prefix = "kontext.ai.cache", name = "backend", havingValue = "local")
+@Slf4j
+public class LocalSemanticResponseCache extends AbstractSemanticResponseCache {
+
+    private final Map<String, Map<String, Entry>> partitions = new ConcurrentHashMap<>();
+    private final Map<UUID, AtomicLong> knowledgeVersions = new ConcurrentHashMap<>();
+
+    @Override
+    public Optional<String> lookup(UUID projectId, String agentInstruction, float[] queryEmbedding) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Map<String, Entry> partition = partitions.get(partitionKey(projectId, agentInstruction,
+                knowledgeVersion(projectId)));
+        if (partition == null) {
+            return Optional.empty();
+        }
+
+        synchronized (partition) {
+            partition.values().removeIf(entry -> isExpired(entry.createdAt()));
+
+            String bestId = null;
+            double bestScore = similarityThreshold;
+            for (Map.Entry<String, Entry> candidate : partition.entrySet()) {
+                double score = cosineSimilarity(queryEmbedding, candidate.getValue().embedding());
+                if (score >= bestScore) {
+                    bestScore = score;
+                    bestId = candidate.getKey();
+                }
+            }
+            if (bestId == null) {
+                return Optional.empty();
+            }
+            // get() on an access-ordered map marks the entry as most recently used
+            log.debug("Semantic cache hit for project {} with similarity {}", projectId, bestScore);
+            return Optional.of(partition.get(bestId).response());
+        }
+    }
+
+    @Override
+    public void store(UUID projectId, String agentInstruction, String query, float[] queryEmbedding, String response) {
+        if (!enabled || response == null || response.isBlank()) {
+            return;
+        }
+        Map<String, Entry> partition = partitions.computeIfAbsent(
+                partitionKey(projectId, agentInstruction, knowledgeVersion(projectId)),
+                key -> new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                        return size() > maxEntriesPerProject;
+                    }
+                });
+
+        synchronized (partition) {
+            partition.put(UUID.randomUUID().toString(),
+                    new Entry(query, queryEmbedding, response, clock.millis()));
+        }
+    }
+
+    @Override
+    public void invalidateProject(UUID projectId) {
+        long version = knowledgeVersions.computeIfAbsent(projectId, id -> new AtomicLong()).incrementAndGet();
+        String projectPrefix = KEY_PREFIX + projectId + ":";
+        partitions.keySet().removeIf(key -> key.startsWith(projectPrefix));
+        log.debug("Semantic cache for project {} invalidated, knowledge version is now {}", projectId, version);
+    }
+
+    @Override
+    public long knowledgeVersion(UUID projectId) {
+        AtomicLong version = knowledgeVersions.get(projectId);
+        return version != null ? version.get() : 0L;
+    }
+
+    private record Entry(String query, float[] embedding, String response, long createdAt) {
+    }
+}
@@ -0,0 +1,176 @@
+package com.moksh.kontext.ai.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moksh.kontext.ai.dto.SemanticCacheEntry;
+import com.moksh.kontext.redis.service.RedisService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Redis-backed semantic cache, shared by every instance of the service.
+ * A partition is three hashes keyed by entry id: the query vectors, which a lookup reads in full, the cached
+ * entries, of which a lookup only reads the best match, and last access times for eviction. Vectors are
+ * int8-quantized, a quarter of their float32 size; cosine similarity ignores the per-vector scale, so the
+ * quantized vector is compared as is. Each hash expires after the TTL and the partition is capped at
+ * {@code max-entries-per-project}, evicting the least recently used entry on insert.
+ */
+@Service
+@ConditionalOnProperty(prefix = "kontext.ai.cache", name = "backend", havingValue = "redis", matchIfMissing = true)
+@RequiredArgsConstructor
+@Slf4j
+public class RedisSemanticResponseCache extends AbstractSemanticResponseCache {
+
+    private static final String VERSION_KEY_PREFIX = KEY_PREFIX + "version:";
+    private static final String VECTORS_SUFFIX = ":vectors";
+    private static final String ENTRIES_SUFFIX = ":entries";
+    private static final String ACCESS_SUFFIX = ":access";
+
+    private final RedisService redisService;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public Optional<String> lookup(UUID projectId, String agentInstruction, float[] queryEmbedding) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        try {
+            String key = partitionKey(projectId, agentInstruction, knowledgeVersion(projectId));
+            Map<String, String> vectors = redisService.hashEntries(key + VECTORS_SUFFIX);
+
+            String bestId = null;
+            double bestScore = similarityThreshold;
+            for (Map.Entry<String, String> raw : vectors.entrySet()) {
+                int separator = raw.getValue().indexOf(':');
+                if (isExpired(Long.parseLong(raw.getValue().substring(0, separator)))) {
+                    removeEntry(key, raw.getKey());
+                    continue;
+                }
+                byte[] vector = Base64.getDecoder().decode(raw.getValue().substring(separator + 1));
+                double score = cosineSimilarity(queryEmbedding, vector);
+                if (score >= bestScore) {
+                    bestScore = score;
+                    bestId = raw.getKey();
+                }
+            }
+            if (bestId == null) {
+                return Optional.empty();
+            }
+
+            String entry = redisService.hashGet(key + ENTRIES_SUFFIX, bestId);
+            if (entry == null) {
+                // Evicted by another instance since the vectors were read
+                return Optional.empty();
+            }
+            redisService.hashSet(key + ACCESS_SUFFIX, bestId, String.valueOf(clock.millis()));
+            log.debug("Semantic cache hit for project {} with similarity {}", projectId, bestScore);
+            return Optional.of(objectMapper.readValue(entry, SemanticCacheEntry.class).response());
+        } catch (Exception e) {
+            // A cache failure must never fail the chat turn
+            log.warn("Semantic cache lookup failed for project {}: {}", projectId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void store(UUID projectId, String agentInstruction, String query, float[] queryEmbedding, String response) {
+        if (!enabled || response == null || response.isBlank()) {
+            return;
+        }
+        try {
+            String key = partitionKey(projectId, agentInstruction, knowledgeVersion(projectId));
+            evictLeastRecentlyUsed(key);
+
+            long now = clock.millis();
+            String id = UUID.randomUUID().toString();
+            redisService.hashSet(key + ENTRIES_SUFFIX, id,
+                    objectMapper.writeValueAsString(new SemanticCacheEntry(query, response, now)));
+            redisService.hashSet(key + ACCESS_SUFFIX, id, String.valueOf(now));
+            // Written last, so a lookup never matches a vector whose entry is not there yet
+            redisService.hashSet(key + VECTORS_SUFFIX, id,
+                    now + ":" + Base64.getEncoder().encodeToString(quantize(queryEmbedding)));
+            for (String suffix : new String[]{VECTORS_SUFFIX, ENTRIES_SUFFIX, ACCESS_SUFFIX}) {
+                redisService.expire(key + suffix, ttl());
+            }
+        } catch (Exception e) {
+            log.warn("Failed to store semantic cache entry for project {}: {}", projectId, e.getMessage());
+        }
+    }
+
+    @Override
+    public void invalidateProject(UUID projectId) {
+        // Old partitions are no longer addressed once the version moves and expire on their own TTL
+        long version = redisService.increment(VERSION_KEY_PREFIX + projectId);
+        log.debug("Semantic cache for project {} invalidated, knowledge version is now {}", projectId, version);
+    }
+
+    @Override
+    public long knowledgeVersion(UUID projectId) {
+        String version = redisService.get(VERSION_KEY_PREFIX + projectId);
+        return version != null ? Long.parseLong(version) : 0L;
+    }
+
+    /**
+     * Makes room for one more entry, reading only the small access-time hash.
+     */
+    private void evictLeastRecentlyUsed(String key) {
+        Map<String, String> access = redisService.hashEntries(key + ACCESS_SUFFIX);
+        int excess = access.size() - maxEntriesPerProject + 1;
+        if (excess <= 0) {
+            return;
+        }
+        access.entrySet().stream()
+                .sorted(Comparator.comparingLong(entry -> Long.parseLong(entry.getValue())))
+                .limit(excess)
+                .forEach(entry -> removeEntry(key, entry.getKey()));
+    }
+
+    private void removeEntry(String key, String id) {
+        redisService.hashDelete(key + VECTORS_SUFFIX, id);
+        redisService.hashDelete(key + ENTRIES_SUFFIX, id);
+        redisService.hashDelete(key + ACCESS_SUFFIX, id);
+    }
+
+    /**
+     * Scales the vector so its largest component maps to 127 and rounds every component to a byte.
+     */
+    static byte[] quantize(float[] embedding) {
+        float maxAbs = 0f;
+        for (float value : embedding) {
+            maxAbs = Math.max(maxAbs, Math.abs(value));
+        }
+        byte[] quantized = new byte[embedding.length];
+        if (maxAbs == 0f) {
+            return quantized;
+        }
+        for (int i = 0; i < embedding.length; i++) {
+            quantized[i] = (byte) Math.round(embedding[i] / maxAbs * 127f);
+        }
+        return quantized;
+    }
+
+    static double cosineSimilarity(float[] a, byte[] b) {
+        if (a == null || b == null || a.length != b.length || a.length == 0) {
+            return 0.0;
+        }
+        double dot = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        if (normA == 0.0 || normB == 0.0) {
+            return 0.0;
+        }
+        return dot / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+}
@@ -0,0 +1,28 @@
+package com.moksh.kontext.ai.cache;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Answer cache for repeated questions against the same project.
+ * Entries are partitioned by project, agent instruction and knowledge-set version, and a lookup hits when a
+ * cached query embedding is at least as similar as the configured threshold to the incoming one.
+ */
+public interface SemanticResponseCache {
+
+    boolean isEnabled();
+
+    Optional<String> lookup(UUID projectId, String agentInstruction, float[] queryEmbedding);
+
+    void store(UUID projectId, String agentInstruction, String query, float[] queryEmbedding, String response);
+
+    /**
+     * Current knowledge-set version of the project; it changes whenever knowledge is added or removed.
+     */
+    long knowledgeVersion(UUID projectId);
+
+    /**
+     * Bumps the knowledge-set version of the project so every answer cached against the old version is ignored.
+     */
+    void invalidateProject(UUID projectId);
+}
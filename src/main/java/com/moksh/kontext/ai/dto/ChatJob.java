@@ -0,0 +1,53 @@
+package com.moksh.kontext.ai.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.UUID;
+
+/**
+ * State of an asynchronous chat job as stored in Redis. {@code answer} holds the text generated so far and
+ * only ever grows, so clients can resume reading from the offset they last saw.
+ */
+public record ChatJob(
+        UUID jobId,
+        UUID chatId,
+        UUID projectId,
+        UUID userId,
+        Status status,
+        String answer,
+        String error,
+        long createdAt,
+        long updatedAt
+) {
+
+    public enum Status {
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    public static ChatJob started(UUID chatId, UUID projectId, UUID userId) {
+        long now = System.currentTimeMillis();
+        return new ChatJob(UUID.randomUUID(), chatId, projectId, userId, Status.RUNNING, "", null, now, now);
+    }
+
+    public ChatJob withProgress(String partialAnswer) {
+        return new ChatJob(jobId, chatId, projectId, userId, Status.RUNNING, partialAnswer, null, createdAt,
+                System.currentTimeMillis());
+    }
+
+    public ChatJob completed(String finalAnswer) {
+        return new ChatJob(jobId, chatId, projectId, userId, Status.COMPLETED, finalAnswer, null, createdAt,
+                System.currentTimeMillis());
+    }
+
+    public ChatJob failed(String partialAnswer, String reason) {
+        return new ChatJob(jobId, chatId, projectId, userId, Status.FAILED, partialAnswer, reason, createdAt,
+                System.currentTimeMillis());
+    }
+
+    @JsonIgnore
+    public boolean isFinished() {
+        return status != Status.RUNNING;
+    }
+}
@@ -0,0 +1,19 @@
+package com.moksh.kontext.ai.dto;
+
+import org.springframework.security.core.context.SecurityContext;
+
+import java.util.UUID;
+
+/**
+ * A completed user/assistant exchange waiting to be persisted. The caller's security context is kept so the
+ * write can be audited as that user even though it runs on the writer thread.
+ */
+public record ChatTurn(
+        UUID chatId,
+        UUID userId,
+        String userMessage,
+        String assistantMessage,
+        long timestamp,
+        SecurityContext securityContext
+) {
+}
@@ -0,0 +1,10 @@
+package com.moksh.kontext.ai.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Rolling summary of a chat. It covers every message created up to and including {@code summarizedUntil};
+ * later messages are sent to the model verbatim.
+ */
+public record ConversationSummary(String summary, LocalDateTime summarizedUntil) {
+}
@@ -0,0 +1,13 @@
+package com.moksh.kontext.ai.dto;
+
+import org.springframework.ai.document.Document;
+import org.springframework.lang.Nullable;
+
+/**
+ * A knowledge chunk returned by the vector search, with its stored embedding when it was requested.
+ */
+public record KnowledgeCandidate(
+        Document document,
+        @Nullable float[] embedding
+) {
+}
@@ -0,0 +1,51 @@
+package com.moksh.kontext.ai.dto;
+
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.util.Assert;
+
+/**
+ * Per-request holder for the user query and its embedding.
+ * The embedding is computed lazily on first access and shared by every vector search of the request,
+ * so a chat turn pays for exactly one embedding call.
+ */
+public class QueryEmbeddingContext {
+
+    public static final String CONTEXT_KEY = "kontext_query_embedding";
+
+    private final String query;
+    private final EmbeddingModel embeddingModel;
+    private volatile float[] embedding;
+
+    private QueryEmbeddingContext(String query, EmbeddingModel embeddingModel) {
+        Assert.hasText(query, "The query must not be empty!");
+        Assert.notNull(embeddingModel, "The embedding model must not be null!");
+        this.query = query;
+        this.embeddingModel = embeddingModel;
+    }
+
+    public static QueryEmbeddingContext of(String query, EmbeddingModel embeddingModel) {
+        return new QueryEmbeddingContext(query, embeddingModel);
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public float[] getEmbedding() {
+        float[] result = embedding;
+        if (result == null) {
+            synchronized (this) {
+                result = embedding;
+                if (result == null) {
+                    result = embeddingModel.embed(query);
+                    embedding = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public boolean isComputed() {
+        return embedding != null;
+    }
+}
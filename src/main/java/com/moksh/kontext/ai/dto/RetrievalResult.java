@@ -0,0 +1,29 @@
+package com.moksh.kontext.ai.dto;
+
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+/**
+ * Everything a chat turn needs from the retrieval stage.
+ * Branches that failed or timed out contribute an empty value rather than failing the turn.
+ * {@code recentMessages} only holds messages newer than {@code conversationSummary}, which is {@code null}
+ * until the chat has grown past the summary trigger.
+ */
+public record RetrievalResult(
+        String agentInstruction,
+        List<Document> knowledgeDocuments,
+        List<Message> recentMessages,
+        String conversationSummary,
+        List<Document> semanticContext
+) {
+    /**
+     * Whether the turn carries anything from the conversation so far, which makes its answer specific to the chat.
+     */
+    public boolean hasConversationContext() {
+        return (recentMessages != null && !recentMessages.isEmpty())
+                || conversationSummary != null
+                || (semanticContext != null && !semanticContext.isEmpty());
+    }
+}
@@ -0,0 +1,12 @@
+package com.moksh.kontext.ai.dto;
+
+/**
+ * A cached answer as stored in Redis. Its embedding and last access time are kept in separate hashes, so a
+ * lookup only transfers and decodes the entry it returns.
+ */
+public record SemanticCacheEntry(
+        String query,
+        String response,
+        long createdAt
+) {
+}
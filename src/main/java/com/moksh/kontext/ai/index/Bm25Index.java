@@ -0,0 +1,177 @@
+package com.moksh.kontext.ai.index;
+
+import com.moksh.kontext.ai.service.VectorService;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory Okapi BM25 inverted index over knowledge chunks.
+ * Tokens are lower-cased letter/digit runs; compound tokens such as {@code ERR-4012} or {@code v2.1_beta} are
+ * indexed both whole and as their parts, so exact product codes and error ids match as well as their pieces.
+ */
+public class Bm25Index {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}\\p{N}]+(?:[-_.:/][\\p{L}\\p{N}]+)*");
+    private static final Pattern TOKEN_PART = Pattern.compile("[\\p{L}\\p{N}]+");
+
+    private final Map<String, Entry> documents = new HashMap<>();
+    private final Map<String, Map<String, Integer>> postings = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long totalLength;
+
+    private record Entry(Document document, String knowledgeId, Map<String, Integer> termFrequencies, int length) {
+    }
+
+    public void add(Document document) {
+        Map<String, Integer> termFrequencies = new HashMap<>();
+        List<String> tokens = tokenize(document.getText());
+        for (String token : tokens) {
+            termFrequencies.merge(token, 1, Integer::sum);
+        }
+        Object knowledgeId = document.getMetadata().get(VectorService.KNOWLEDGE_ID_KEY);
+        Entry entry = new Entry(document, knowledgeId != null ? knowledgeId.toString() : null,
+                termFrequencies, tokens.size());
+
+        lock.writeLock().lock();
+        try {
+            removeInternal(document.getId());
+            documents.put(document.getId(), entry);
+            totalLength += entry.length();
+            termFrequencies.forEach((term, frequency) ->
+                    postings.computeIfAbsent(term, t -> new HashMap<>()).put(document.getId(), frequency));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeKnowledge(String knowledgeId) {
+        lock.writeLock().lock();
+        try {
+            List<String> ids = documents.entrySet().stream()
+                    .filter(e -> knowledgeId.equals(e.getValue().knowledgeId()))
+                    .map(Map.Entry::getKey)
+                    .toList();
+            ids.forEach(this::removeInternal);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns up to {@code topK} chunks ordered by BM25 score, with the score set on each returned document.
+     */
+    public List<Document> search(String query, int topK) {
+        Set<String> queryTerms = new HashSet<>(tokenize(query));
+        if (queryTerms.isEmpty() || topK <= 0) {
+            return List.of();
+        }
+
+        lock.readLock().lock();
+        try {
+            int documentCount = documents.size();
+            if (documentCount == 0) {
+                return List.of();
+            }
+            double averageLength = (double) totalLength / documentCount;
+
+            Map<String, Double> scores = new HashMap<>();
+            for (String term : queryTerms) {
+                Map<String, Integer> termPostings = postings.get(term);
+                if (termPostings == null) {
+                    continue;
+                }
+                int documentFrequency = termPostings.size();
+                double idf = Math.log(1 + (documentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+                for (Map.Entry<String, Integer> posting : termPostings.entrySet()) {
+                    int frequency = posting.getValue();
+                    int length = documents.get(posting.getKey()).length();
+                    double score = idf * frequency * (K1 + 1)
+                            / (frequency + K1 * (1 - B + B * length / averageLength));
+                    scores.merge(posting.getKey(), score, Double::sum);
+                }
+            }
+
+            PriorityQueue<Map.Entry<String, Double>> best = new PriorityQueue<>(Map.Entry.comparingByValue());
+            for (Map.Entry<String, Double> score : scores.entrySet()) {
+                best.offer(score);
+                if (best.size() > topK) {
+                    best.poll();
+                }
+            }
+
+            List<Document> results = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                Map.Entry<String, Double> hit = best.poll();
+                Document document = documents.get(hit.getKey()).document();
+                results.add(0, Document.builder()
+                        .id(document.getId())
+                        .text(document.getText())
+                        .metadata(document.getMetadata())
+                        .score(hit.getValue())
+                        .build());
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        if (text == null || text.isEmpty()) {
+            return List.of();
+        }
+        List<String> tokens = new ArrayList<>();
+        Matcher matcher = TOKEN.matcher(text.toLowerCase(Locale.ROOT));
+        while (matcher.find()) {
+            String token = matcher.group();
+            tokens.add(token);
+            if (token.length() > 1 && !TOKEN_PART.matcher(token).matches()) {
+                Matcher parts = TOKEN_PART.matcher(token);
+                while (parts.find()) {
+                    tokens.add(parts.group());
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private void removeInternal(String documentId) {
+        Entry existing = documents.remove(documentId);
+        if (existing == null) {
+            return;
+        }
+        totalLength -= existing.length();
+        for (String term : existing.termFrequencies().keySet()) {
+            Map<String, Integer> termPostings = postings.get(term);
+            if (termPostings != null) {
+                termPostings.remove(documentId);
+                if (termPostings.isEmpty()) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.moksh.kontext.ai.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+
+/**
+ * Hierarchical navigable small world graph over unit-length vectors, scored by dot product, i.e. cosine
+ * similarity. Vectors are kept off-heap in {@link VectorSegments}; only the graph is on the heap.
+ * One writer inserts at a time and searches never lock: neighbour lists are immutable arrays swapped in
+ * atomically, and a node's vector and its own lists are in place before any other list points at it.
+ * Levels are drawn from a fixed-seed generator, so the same inserts in the same order build the same graph.
+ */
+public final class HnswIndex {
+
+    private static final int[] NO_NEIGHBOURS = new int[0];
+    private static final int MAX_LEVEL = 16;
+    private static final long LEVEL_SEED = 42L;
+    private static final Comparator<Scored> BY_SCORE = Comparator.comparingDouble(Scored::score);
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final VectorSegments vectors;
+    private final Random levels = new Random(LEVEL_SEED);
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private volatile Node[] nodes = new Node[64];
+    private volatile int size;
+    private volatile int entryPoint = -1;
+
+    public record Scored(int id, float score) {
+    }
+
+    private static final class Node {
+        // One list per layer the node is on, layer 0 first
+        private final AtomicReferenceArray<int[]> neighbours;
+
+        private Node(int level) {
+            this.neighbours = new AtomicReferenceArray<>(level + 1);
+            for (int layer = 0; layer <= level; layer++) {
+                neighbours.set(layer, NO_NEIGHBOURS);
+            }
+        }
+
+        private int level() {
+            return neighbours.length() - 1;
+        }
+    }
+
+    /**
+     * @param m              links per node on the upper layers; layer 0 allows twice as many
+     * @param efConstruction candidate list size while inserting; higher builds a better graph, slower
+     */
+    public HnswIndex(int dimension, int m, int efConstruction, int segmentCapacity) {
+        this(new VectorSegments(dimension, segmentCapacity), m, efConstruction);
+    }
+
+    private HnswIndex(VectorSegments vectors, int m, int efConstruction) {
+        this.vectors = vectors;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1.0 / Math.log(m);
+    }
+
+    public int dimension() {
+        return vectors.dimension();
+    }
+
+    /**
+     * Number of nodes in the graph, including nodes the caller has since stopped accepting.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a vector and returns its id. Ids are dense and assigned in insertion order.
+     */
+    public int add(float[] vector) {
+        float[] unit = normalize(vector);
+        writeLock.lock();
+        try {
+            int id = size;
+            vectors.set(id, unit);
+            int level = randomLevel();
+            Node node = new Node(level);
+            store(id, node);
+
+            int entry = entryPoint;
+            if (entry < 0) {
+                size = id + 1;
+                entryPoint = id;
+                return id;
+            }
+
+            int topLevel = node(entry).level();
+            for (int layer = topLevel; layer > level; layer--) {
+                entry = greedyClosest(unit, entry, layer);
+            }
+            for (int layer = Math.min(level, topLevel); layer >= 0; layer--) {
+                List<Scored> candidates = searchLayer(unit, entry, efConstruction, layer, id, candidate -> true);
+                int[] selected = selectNeighbours(candidates, m);
+                node.neighbours.set(layer, selected);
+                int maxConnections = layer == 0 ? maxM0 : m;
+                for (int neighbour : selected) {
+                    connect(neighbour, id, layer, maxConnections);
+                }
+                entry = candidates.get(0).id();
+            }
+
+            size = id + 1;
+            if (level > topLevel) {
+                entryPoint = id;
+            }
+            return id;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Approximate nearest neighbours among the nodes {@code accept} allows, best first. Rejected nodes are still
+     * traversed, so a selective filter widens the search instead of cutting the graph apart.
+     */
+    public List<Scored> search(float[] query, int k, int ef, IntPredicate accept) {
+        int entry = entryPoint;
+        if (entry < 0 || k <= 0) {
+            return List.of();
+        }
+        float[] unit = normalize(query);
+        for (int layer = node(entry).level(); layer > 0; layer--) {
+            entry = greedyClosest(unit, entry, layer);
+        }
+        List<Scored> results = searchLayer(unit, entry, Math.max(ef, k), 0, Integer.MAX_VALUE, accept);
+        return results.size() > k ? results.subList(0, k) : results;
+    }
+
+    /**
+     * Exact nearest neighbours among {@code ids}, for filters narrow enough that a scan beats the graph.
+     */
+    public List<Scored> exact(float[] query, Collection<Integer> ids, int k, IntPredicate accept) {
+        float[] unit = normalize(query);
+        PriorityQueue<Scored> best = new PriorityQueue<>(BY_SCORE);
+        int limit = size;
+        for (int id : ids) {
+            if (id >= limit || !accept.test(id)) {
+                continue;
+            }
+            best.add(new Scored(id, vectors.dot(id, unit)));
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+        List<Scored> results = new ArrayList<>(best);
+        results.sort(BY_SCORE.reversed());
+        return results;
+    }
+
+    /**
+     * The stored, unit-length vector of a node.
+     */
+    public float[] vector(int id) {
+        return vectors.get(id);
+    }
+
+    private List<Scored> searchLayer(float[] query, int entry, int ef, int layer, int exclude, IntPredicate accept) {
+        BitSet visited = new BitSet();
+        visited.set(entry);
+        PriorityQueue<Scored> candidates = new PriorityQueue<>(BY_SCORE.reversed());
+        PriorityQueue<Scored> results = new PriorityQueue<>(BY_SCORE);
+
+        Scored start = new Scored(entry, vectors.dot(entry, query));
+        candidates.add(start);
+        if (entry != exclude && accept.test(entry)) {
+            results.add(start);
+        }
+
+        while (!candidates.isEmpty()) {
+            Scored candidate = candidates.poll();
+            if (results.size() >= ef && candidate.score() < results.peek().score()) {
+                break;
+            }
+            for (int neighbour : neighbours(candidate.id(), layer)) {
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                if (node(neighbour) == null) {
+                    continue;
+                }
+                float score = vectors.dot(neighbour, query);
+                if (results.size() < ef || score > results.peek().score()) {
+                    Scored scored = new Scored(neighbour, score);
+                    candidates.add(scored);
+                    if (neighbour != exclude && accept.test(neighbour)) {
+                        results.add(scored);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Scored> sorted = new ArrayList<>(results);
+        sorted.sort(BY_SCORE.reversed());
+        return sorted;
+    }
+
+    private int greedyClosest(float[] query, int entry, int layer) {
+        int best = entry;
+        float bestScore = vectors.dot(entry, query);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbour : neighbours(best, layer)) {
+                if (node(neighbour) == null) {
+                    continue;
+                }
+                float score = vectors.dot(neighbour, query);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = neighbour;
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Neighbour selection heuristic: a candidate is kept only if it is closer to the base node than to every
+     * neighbour kept so far, which spreads links across directions. Remaining slots are filled with the closest
+     * pruned candidates so nodes keep their degree.
+     */
+    private int[] selectNeighbours(List<Scored> candidates, int maxCount) {
+        List<Scored> kept = new ArrayList<>(maxCount);
+        List<Scored> pruned = new ArrayList<>();
+        for (Scored candidate : candidates) {
+            if (kept.size() >= maxCount) {
+                break;
+            }
+            float[] candidateVector = vectors.get(candidate.id());
+            boolean diverse = true;
+            for (Scored other : kept) {
+                if (vectors.dot(other.id(), candidateVector) > candidate.score()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            (diverse ? kept : pruned).add(candidate);
+        }
+        for (int i = 0; kept.size() < maxCount && i < pruned.size(); i++) {
+            kept.add(pruned.get(i));
+        }
+        return kept.stream().mapToInt(Scored::id).toArray();
+    }
+
+    private void connect(int from, int to, int layer, int maxConnections) {
+        Node node = node(from);
+        int[] current = node.neighbours.get(layer);
+        if (current.length < maxConnections) {
+            int[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = to;
+            node.neighbours.set(layer, next);
+            return;
+        }
+        float[] base = vectors.get(from);
+        List<Scored> candidates = new ArrayList<>(current.length + 1);
+        for (int neighbour : current) {
+            candidates.add(new Scored(neighbour, vectors.dot(neighbour, base)));
+        }
+        candidates.add(new Scored(to, vectors.dot(to, base)));
+        candidates.sort(BY_SCORE.reversed());
+        node.neighbours.set(layer, selectNeighbours(candidates, maxConnections));
+    }
+
+    private int[] neighbours(int id, int layer) {
+        Node node = node(id);
+        return node != null && layer <= node.level() ? node.neighbours.get(layer) : NO_NEIGHBOURS;
+    }
+
+    private Node node(int id) {
+        Node[] current = nodes;
+        return id < current.length ? current[id] : null;
+    }
+
+    private void store(int id, Node node) {
+        Node[] current = nodes;
+        if (id >= current.length) {
+            current = Arrays.copyOf(current, Math.max(id + 1, current.length * 2));
+            nodes = current;
+        }
+        current[id] = node;
+    }
+
+    private int randomLevel() {
+        double draw = 1.0 - levels.nextDouble();
+        return Math.min(MAX_LEVEL, (int) Math.floor(-Math.log(draw) * levelMultiplier));
+    }
+
+    private float[] normalize(float[] vector) {
+        if (vector.length != vectors.dimension()) {
+            throw new IllegalArgumentException("Expected a vector of dimension " + vectors.dimension()
+                    + " but got " + vector.length);
+        }
+        double norm = 0.0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        float[] unit = new float[vector.length];
+        if (norm == 0.0) {
+            return unit;
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = vector[i] * scale;
+        }
+        return unit;
+    }
+
+    /**
+     * Writes the graph to {@code graph} and the vectors to a memory-mapped {@code vectorFile}.
+     * The caller must keep writers out for the duration.
+     */
+    public void writeTo(DataOutputStream graph, Path vectorFile) throws IOException {
+        int count = size;
+        vectors.writeTo(vectorFile, count);
+        graph.writeInt(vectors.dimension());
+        graph.writeInt(vectors.segmentCapacity());
+        graph.writeInt(m);
+        graph.writeInt(efConstruction);
+        graph.writeInt(count);
+        graph.writeInt(entryPoint);
+        for (int id = 0; id < count; id++) {
+            Node node = node(id);
+            graph.writeInt(node.level());
+            for (int layer = 0; layer <= node.level(); layer++) {
+                int[] links = node.neighbours.get(layer);
+                graph.writeInt(links.length);
+                for (int link : links) {
+                    graph.writeInt(link);
+                }
+            }
+        }
+    }
+
+    public static HnswIndex readFrom(DataInputStream graph, Path vectorFile) throws IOException {
+        int dimension = graph.readInt();
+        int segmentCapacity = graph.readInt();
+        int m = graph.readInt();
+        int efConstruction = graph.readInt();
+        int count = graph.readInt();
+        int entryPoint = graph.readInt();
+
+        HnswIndex index = new HnswIndex(VectorSegments.map(vectorFile, dimension, segmentCapacity), m, efConstruction);
+        for (int id = 0; id < count; id++) {
+            Node node = new Node(graph.readInt());
+            for (int layer = 0; layer <= node.level(); layer++) {
+                int[] links = new int[graph.readInt()];
+                for (int i = 0; i < links.length; i++) {
+                    links[i] = graph.readInt();
+                }
+                node.neighbours.set(layer, links);
+            }
+            index.store(id, node);
+            // Keep the level sequence where the original left off, so reloading stays deterministic
+            index.randomLevel();
+        }
+        index.size = count;
+        index.entryPoint = entryPoint;
+        return index;
+    }
+}
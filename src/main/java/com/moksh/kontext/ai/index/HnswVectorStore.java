@@ -0,0 +1,544 @@
+package com.moksh.kontext.ai.index;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moksh.kontext.ai.service.VectorService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.lang.Nullable;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+
+/**
+ * {@link VectorStore} that runs entirely in the JVM on an {@link HnswIndex}, for small hot projects, deployments
+ * without Qdrant and load tests that need repeatable results.
+ * Documents, their metadata and inverted postings for the scope keys live on the heap next to the graph. Filters
+ * that pin one of those keys to a single value and match few documents are answered by an exact scan of the
+ * posting; everything else is filtered during the graph search. Writes are serialized; searches never block.
+ * Deleted documents stay in the graph as routing nodes and are never returned, until they make up more than
+ * {@code compaction-dead-ratio} of it and the graph is rebuilt from the live documents in the background.
+ * With a snapshot directory configured, the store is written out periodically and on shutdown, and reloaded on
+ * startup with the vectors memory-mapped from the snapshot.
+ */
+@Slf4j
+public class HnswVectorStore implements VectorStore, InitializingBean, DisposableBean {
+
+    private static final List<String> INDEXED_KEYS = List.of(VectorService.PROJECT_ID_KEY,
+            VectorService.KNOWLEDGE_ID_KEY, VectorService.CONVERSATION_ID_KEY, VectorService.USER_ID_KEY);
+
+    // Texts per embedding request, well below the provider's input and token caps
+    private static final int EMBEDDING_BATCH_SIZE = 128;
+
+    private static final String CURRENT_FILE = "CURRENT";
+    private static final String GRAPH_FILE = "graph.bin";
+    private static final String VECTORS_FILE = "vectors.bin";
+    private static final String ENTRIES_FILE = "entries.json";
+    private static final String GENERATION_PREFIX = "snapshot-";
+
+    private final String name;
+    private final EmbeddingModel embeddingModel;
+    private final LocalVectorStoreProperties.Local properties;
+    private final ObjectMapper objectMapper;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicLong mutations = new AtomicLong();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    private final ExecutorService compactor;
+
+    private volatile State state;
+    private volatile long snapshotMutations;
+    private ScheduledExecutorService snapshotter;
+
+    private record Entry(String id, String text, Map<String, Object> metadata) {
+    }
+
+    /**
+     * A graph and the documents on its nodes. Node ids are only meaningful within one state, so a search reads
+     * the state once and a rebuild swaps in a whole new one.
+     */
+    private static final class State {
+        private final HnswIndex index;
+        private final Map<String, Integer> nodesById = new ConcurrentHashMap<>();
+        private final Map<Integer, Entry> entries = new ConcurrentHashMap<>();
+        private final Map<String, Set<Integer>> postings = new ConcurrentHashMap<>();
+
+        private State(HnswIndex index) {
+            this.index = index;
+        }
+
+        private int deadNodes() {
+            return index.size() - entries.size();
+        }
+
+        private void put(int node, Entry entry) {
+            nodesById.put(entry.id(), node);
+            entries.put(node, entry);
+            for (String key : INDEXED_KEYS) {
+                Object value = entry.metadata().get(key);
+                if (value != null) {
+                    postings.computeIfAbsent(postingKey(key, value.toString()), k -> ConcurrentHashMap.newKeySet())
+                            .add(node);
+                }
+            }
+        }
+
+        private void remove(String id) {
+            Integer node = nodesById.remove(id);
+            if (node == null) {
+                return;
+            }
+            Entry entry = entries.remove(node);
+            if (entry == null) {
+                return;
+            }
+            for (String key : INDEXED_KEYS) {
+                Object value = entry.metadata().get(key);
+                if (value != null) {
+                    postings.computeIfPresent(postingKey(key, value.toString()), (k, nodes) -> {
+                        nodes.remove(node);
+                        return nodes.isEmpty() ? null : nodes;
+                    });
+                }
+            }
+        }
+
+        private Stream<Integer> matching(@Nullable Filter.Expression filter) {
+            if (filter == null) {
+                return entries.keySet().stream();
+            }
+            Set<Integer> narrowed = posting(filter);
+            return (narrowed != null ? narrowed.stream() : entries.keySet().stream())
+                    .filter(node -> {
+                        Entry entry = entries.get(node);
+                        return entry != null && MetadataFilter.matches(filter, entry.metadata());
+                    });
+        }
+
+        @Nullable
+        private Set<Integer> posting(@Nullable Filter.Expression filter) {
+            if (filter == null) {
+                return null;
+            }
+            Map.Entry<String, String> equality = MetadataFilter.requiredEquality(filter, INDEXED_KEYS);
+            if (equality == null) {
+                return null;
+            }
+            return postings.getOrDefault(postingKey(equality.getKey(), equality.getValue()), Set.of());
+        }
+    }
+
+    record SnapshotEntry(int node, String id, String text, Map<String, Object> metadata) {
+    }
+
+    /**
+     * A search hit with the stored unit-length vector when it was asked for.
+     */
+    public record Hit(Document document, @Nullable float[] embedding) {
+    }
+
+    public HnswVectorStore(String name, EmbeddingModel embeddingModel, LocalVectorStoreProperties.Local properties,
+                           ObjectMapper objectMapper) {
+        this.name = name;
+        this.embeddingModel = embeddingModel;
+        this.properties = properties;
+        this.objectMapper = objectMapper;
+        this.state = emptyState();
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kontext-vector-compaction-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        Path directory = snapshotDirectory();
+        if (directory == null) {
+            return;
+        }
+        Path current = directory.resolve(CURRENT_FILE);
+        if (Files.exists(current)) {
+            try {
+                load(directory.resolve(Files.readString(current).trim()));
+            } catch (Exception e) {
+                log.error("Failed to load snapshot of local vector store {}, starting empty", name, e);
+                clear();
+            }
+        }
+        if (properties.getSnapshotIntervalSeconds() > 0) {
+            snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "kontext-vector-snapshot-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotter.scheduleWithFixedDelay(this::snapshot, properties.getSnapshotIntervalSeconds(),
+                    properties.getSnapshotIntervalSeconds(), TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (snapshotter != null) {
+            snapshotter.shutdownNow();
+        }
+        compactor.shutdownNow();
+        snapshot();
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        // Embed before taking the lock, so model latency never holds up other writers
+        List<float[]> embeddings = new ArrayList<>(documents.size());
+        for (int from = 0; from < documents.size(); from += EMBEDDING_BATCH_SIZE) {
+            List<String> texts = documents.subList(from, Math.min(from + EMBEDDING_BATCH_SIZE, documents.size()))
+                    .stream()
+                    .map(Document::getText)
+                    .toList();
+            embeddings.addAll(embeddingModel.embed(texts));
+        }
+        add(documents, embeddings);
+    }
+
+    /**
+     * Adds documents whose embeddings were computed elsewhere, by the same model this store embeds queries with.
+     */
+    public void add(List<Document> documents, List<float[]> embeddings) {
+        if (documents.size() != embeddings.size()) {
+            throw new IllegalArgumentException("Got " + embeddings.size() + " embeddings for "
+                    + documents.size() + " documents");
+        }
+        writeLock.lock();
+        try {
+            State current = state;
+            for (int i = 0; i < documents.size(); i++) {
+                Document document = documents.get(i);
+                current.remove(document.getId());
+                int node = current.index.add(embeddings.get(i));
+                current.put(node, new Entry(document.getId(), document.getText(),
+                        Collections.unmodifiableMap(new HashMap<>(document.getMetadata()))));
+            }
+            mutations.incrementAndGet();
+        } finally {
+            writeLock.unlock();
+        }
+        log.debug("Added {} documents to local vector store {}", documents.size(), name);
+        // Re-adding an existing id leaves its old node behind as well
+        scheduleCompactionIfNeeded();
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        writeLock.lock();
+        try {
+            idList.forEach(state::remove);
+            mutations.incrementAndGet();
+        } finally {
+            writeLock.unlock();
+        }
+        scheduleCompactionIfNeeded();
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        writeLock.lock();
+        try {
+            State current = state;
+            List<String> ids = current.matching(filterExpression)
+                    .map(current.entries::get)
+                    .filter(Objects::nonNull)
+                    .map(Entry::id)
+                    .toList();
+            ids.forEach(current::remove);
+            mutations.incrementAndGet();
+            log.debug("Deleted {} documents from local vector store {}", ids.size(), name);
+        } finally {
+            writeLock.unlock();
+        }
+        scheduleCompactionIfNeeded();
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        float[] embedding = embeddingModel.embed(request.getQuery());
+        return search(embedding, request.getTopK(), request.getSimilarityThreshold(),
+                request.getFilterExpression(), false).stream()
+                .map(Hit::document)
+                .toList();
+    }
+
+    /**
+     * Search with a precomputed query vector, mirroring the raw-vector searches run against Qdrant.
+     */
+    public List<Hit> search(float[] vector, int topK, double similarityThreshold,
+                            @Nullable Filter.Expression filter, boolean withVectors) {
+        State current = state;
+        IntPredicate accept = node -> {
+            Entry entry = current.entries.get(node);
+            return entry != null && (filter == null || MetadataFilter.matches(filter, entry.metadata()));
+        };
+        Set<Integer> narrowed = current.posting(filter);
+        List<HnswIndex.Scored> scored = narrowed != null && narrowed.size() <= properties.getExactSearchThreshold()
+                ? current.index.exact(vector, narrowed, topK, accept)
+                : current.index.search(vector, topK, properties.getEfSearch(), accept);
+        return scored.stream()
+                .filter(hit -> hit.score() >= similarityThreshold)
+                .map(hit -> toHit(current, hit, withVectors))
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    /**
+     * Pages through every document matching {@code filter}, in insertion order.
+     */
+    public void scroll(@Nullable Filter.Expression filter, int pageSize, Consumer<List<Document>> consumer) {
+        State current = state;
+        List<Integer> nodes = current.matching(filter).sorted().toList();
+        for (int from = 0; from < nodes.size(); from += pageSize) {
+            List<Document> page = nodes.subList(from, Math.min(from + pageSize, nodes.size())).stream()
+                    .map(current.entries::get)
+                    .filter(Objects::nonNull)
+                    .map(entry -> toDocument(entry, null))
+                    .toList();
+            consumer.accept(page);
+        }
+    }
+
+    /**
+     * Number of nodes in the graph, deleted ones included.
+     */
+    int graphSize() {
+        return state.index.size();
+    }
+
+    /**
+     * Rebuilds the graph from the live documents when deleted nodes make up more than {@code compaction-dead-ratio}
+     * of it. Deleted nodes otherwise stay in the graph, in the off-heap segments and in every snapshot; the
+     * rebuild re-inserts the live vectors in their original order under dense new ids, so the ids and vector
+     * slots of deleted nodes are reused. Writers wait for the rebuild; searches keep running against the previous
+     * state until the new one is swapped in.
+     */
+    void compact() {
+        writeLock.lock();
+        try {
+            State current = state;
+            if (!needsCompaction(current)) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            int deadNodes = current.deadNodes();
+            State rebuilt = emptyState();
+            for (int node : current.entries.keySet().stream().sorted().toList()) {
+                rebuilt.put(rebuilt.index.add(current.index.vector(node)), current.entries.get(node));
+            }
+            state = rebuilt;
+            mutations.incrementAndGet();
+            log.info("Compacted local vector store {}: dropped {} deleted nodes, {} remain, in {}ms",
+                    name, deadNodes, rebuilt.index.size(), System.currentTimeMillis() - start);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private boolean needsCompaction(State current) {
+        int deadNodes = current.deadNodes();
+        return deadNodes > 0 && deadNodes > current.index.size() * properties.getCompactionDeadRatio();
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        if (!needsCompaction(state) || !compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            compactor.execute(() -> {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    log.error("Failed to compact local vector store {}", name, e);
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            compactionScheduled.set(false);
+        }
+    }
+
+    /**
+     * Writes the store to a new snapshot generation if it changed since the last one, then points
+     * {@value #CURRENT_FILE} at it. Writers wait while the snapshot is taken; searches carry on.
+     */
+    public void snapshot() {
+        Path directory = snapshotDirectory();
+        if (directory == null) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            long version = mutations.get();
+            if (version == snapshotMutations) {
+                return;
+            }
+            State current = state;
+            Path generation = directory.resolve(GENERATION_PREFIX + System.currentTimeMillis());
+            Files.createDirectories(generation);
+            try (DataOutputStream graph = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(generation.resolve(GRAPH_FILE))))) {
+                current.index.writeTo(graph, generation.resolve(VECTORS_FILE));
+            }
+            List<SnapshotEntry> snapshotEntries = current.entries.entrySet().stream()
+                    .map(entry -> new SnapshotEntry(entry.getKey(), entry.getValue().id(), entry.getValue().text(),
+                            entry.getValue().metadata()))
+                    .toList();
+            objectMapper.writeValue(generation.resolve(ENTRIES_FILE).toFile(), snapshotEntries);
+
+            Path pointer = directory.resolve(CURRENT_FILE + ".tmp");
+            Files.writeString(pointer, generation.getFileName().toString());
+            Files.move(pointer, directory.resolve(CURRENT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            snapshotMutations = version;
+            deleteOtherGenerations(directory, generation);
+            log.info("Snapshotted local vector store {} with {} documents to {}", name, snapshotEntries.size(),
+                    generation);
+        } catch (IOException e) {
+            log.error("Failed to snapshot local vector store {}", name, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void load(Path generation) throws IOException {
+        HnswIndex loaded;
+        try (DataInputStream graph = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(generation.resolve(GRAPH_FILE))))) {
+            loaded = HnswIndex.readFrom(graph, generation.resolve(VECTORS_FILE));
+        }
+        if (loaded.dimension() != properties.getDimensions()) {
+            throw new IOException("Snapshot has dimension " + loaded.dimension() + " but the store is configured for "
+                    + properties.getDimensions());
+        }
+        List<SnapshotEntry> snapshotEntries = objectMapper.readValue(generation.resolve(ENTRIES_FILE).toFile(),
+                new TypeReference<List<SnapshotEntry>>() {
+                });
+
+        State restored = new State(loaded);
+        for (SnapshotEntry entry : snapshotEntries) {
+            restored.put(entry.node(), new Entry(entry.id(), entry.text(),
+                    Collections.unmodifiableMap(new HashMap<>(entry.metadata()))));
+        }
+        writeLock.lock();
+        try {
+            state = restored;
+            snapshotMutations = mutations.get();
+        } finally {
+            writeLock.unlock();
+        }
+        log.info("Loaded local vector store {} with {} documents from {}", name, snapshotEntries.size(), generation);
+        // A snapshot taken below the threshold may still carry deleted nodes
+        scheduleCompactionIfNeeded();
+    }
+
+    private void deleteOtherGenerations(Path directory, Path keep) {
+        try (Stream<Path> generations = Files.list(directory)) {
+            generations.filter(path -> path.getFileName().toString().startsWith(GENERATION_PREFIX))
+                    .filter(path -> !path.equals(keep))
+                    .forEach(this::deleteGeneration);
+        } catch (IOException e) {
+            log.warn("Failed to clean up old snapshots of local vector store {}: {}", name, e.getMessage());
+        }
+    }
+
+    private void deleteGeneration(Path generation) {
+        // Safe while the vectors are still mapped: the mapping keeps the file's pages alive
+        try (Stream<Path> files = Files.list(generation)) {
+            for (Path file : files.toList()) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(generation);
+        } catch (IOException e) {
+            log.warn("Failed to delete snapshot {}: {}", generation, e.getMessage());
+        }
+    }
+
+    private void clear() {
+        state = emptyState();
+    }
+
+    @Nullable
+    private Hit toHit(State current, HnswIndex.Scored scored, boolean withVectors) {
+        Entry entry = current.entries.get(scored.id());
+        if (entry == null) {
+            // Deleted after the search accepted it
+            return null;
+        }
+        return new Hit(toDocument(entry, scored.score()), withVectors ? current.index.vector(scored.id()) : null);
+    }
+
+    private static Document toDocument(Entry entry, @Nullable Float score) {
+        Map<String, Object> metadata = new HashMap<>(entry.metadata());
+        Document.Builder document = Document.builder()
+                .id(entry.id())
+                .text(entry.text());
+        if (score != null) {
+            metadata.put("distance", 1 - score);
+            document.score((double) score);
+        }
+        return document.metadata(metadata).build();
+    }
+
+    private static String postingKey(String key, String value) {
+        return key + '\u0000' + value;
+    }
+
+    @Nullable
+    private Path snapshotDirectory() {
+        return StringUtils.hasText(properties.getSnapshotDirectory())
+                ? Path.of(properties.getSnapshotDirectory(), name)
+                : null;
+    }
+
+    private State emptyState() {
+        return new State(new HnswIndex(properties.getDimensions(), properties.getM(), properties.getEfConstruction(),
+                properties.getSegmentCapacity()));
+    }
+}
@@ -0,0 +1,70 @@
+package com.moksh.kontext.ai.index;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "kontext.ai.vector-store")
+@Getter
+@Setter
+public class LocalVectorStoreProperties {
+
+    public static final String QDRANT = "qdrant";
+    public static final String LOCAL = "local";
+
+    /**
+     * {@code qdrant}, or {@code local} for the in-process {@link HnswVectorStore}. Switch together with
+     * {@code spring.ai.vectorstore.type}, which turns the Qdrant auto-configuration off.
+     */
+    private String backend = QDRANT;
+
+    private Local local = new Local();
+
+    public boolean isLocal() {
+        return LOCAL.equalsIgnoreCase(backend);
+    }
+
+    @Getter
+    @Setter
+    public static class Local {
+
+        /**
+         * Vector dimension of the embedding model.
+         */
+        private int dimensions = 1536;
+
+        /**
+         * Graph links per node on the upper layers; layer 0 keeps twice as many.
+         */
+        private int m = 16;
+
+        private int efConstruction = 200;
+
+        private int efSearch = 100;
+
+        /**
+         * Vectors per off-heap segment.
+         */
+        private int segmentCapacity = 8192;
+
+        /**
+         * Filters matching at most this many chunks through an indexed key are answered by an exact scan instead
+         * of a graph search.
+         */
+        private int exactSearchThreshold = 4096;
+
+        /**
+         * Share of deleted nodes in the graph past which it is rebuilt from the live documents.
+         */
+        private double compactionDeadRatio = 0.25;
+
+        /**
+         * Snapshot directory; empty keeps the stores in memory only.
+         */
+        private String snapshotDirectory = "";
+
+        private long snapshotIntervalSeconds = 300;
+    }
+}
@@ -0,0 +1,114 @@
+package com.moksh.kontext.ai.index;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+/**
+ * Evaluates Spring AI filter expressions against a document's metadata in process.
+ * Numbers compare by value and everything else by its string form, since metadata read back from JSON snapshots
+ * does not keep the original Java types.
+ */
+final class MetadataFilter {
+
+    private MetadataFilter() {
+    }
+
+    static boolean matches(Filter.Expression expression, Map<String, Object> metadata) {
+        return switch (expression.type()) {
+            case AND -> matches(operand(expression.left()), metadata) && matches(operand(expression.right()), metadata);
+            case OR -> matches(operand(expression.left()), metadata) || matches(operand(expression.right()), metadata);
+            case NOT -> !matches(operand(expression.left()), metadata);
+            case EQ -> isEqual(metadata.get(key(expression)), value(expression));
+            case NE -> !isEqual(metadata.get(key(expression)), value(expression));
+            case IN -> values(expression).stream().anyMatch(value -> isEqual(metadata.get(key(expression)), value));
+            case NIN -> values(expression).stream().noneMatch(value -> isEqual(metadata.get(key(expression)), value));
+            case GT -> compare(metadata.get(key(expression)), value(expression), order -> order > 0);
+            case GTE -> compare(metadata.get(key(expression)), value(expression), order -> order >= 0);
+            case LT -> compare(metadata.get(key(expression)), value(expression), order -> order < 0);
+            case LTE -> compare(metadata.get(key(expression)), value(expression), order -> order <= 0);
+            default -> throw new IllegalArgumentException("Unsupported filter operation: " + expression.type());
+        };
+    }
+
+    /**
+     * Key and value of an equality condition that must hold for the whole expression to match, or {@code null}
+     * when there is none. Lets callers narrow a search through an inverted index before evaluating the rest.
+     */
+    static Map.Entry<String, String> requiredEquality(Filter.Expression expression, Collection<String> keys) {
+        switch (expression.type()) {
+            case EQ -> {
+                String key = key(expression);
+                Object value = value(expression);
+                return keys.contains(key) && value != null ? Map.entry(key, value.toString()) : null;
+            }
+            case AND -> {
+                Map.Entry<String, String> left = requiredEquality(operand(expression.left()), keys);
+                return left != null ? left : requiredEquality(operand(expression.right()), keys);
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private static Filter.Expression operand(Filter.Operand operand) {
+        if (operand instanceof Filter.Group group) {
+            return group.content();
+        }
+        if (operand instanceof Filter.Expression expression) {
+            return expression;
+        }
+        throw new IllegalArgumentException("Expected a filter expression but got " + operand);
+    }
+
+    private static String key(Filter.Expression expression) {
+        if (!(expression.left() instanceof Filter.Key key)) {
+            throw new IllegalArgumentException("Expected a metadata key on the left of " + expression);
+        }
+        String name = key.key();
+        // Keys parsed from text filters may keep their quotes
+        if (name.length() > 1 && (name.startsWith("\"") && name.endsWith("\"")
+                || name.startsWith("'") && name.endsWith("'"))) {
+            return name.substring(1, name.length() - 1);
+        }
+        return name;
+    }
+
+    private static Object value(Filter.Expression expression) {
+        if (!(expression.right() instanceof Filter.Value value)) {
+            throw new IllegalArgumentException("Expected a value on the right of " + expression);
+        }
+        return value.value();
+    }
+
+    private static List<?> values(Filter.Expression expression) {
+        Object value = value(expression);
+        return value instanceof List<?> list ? list : List.of(value);
+    }
+
+    private static boolean isEqual(Object actual, Object expected) {
+        if (actual == null || expected == null) {
+            return actual == expected;
+        }
+        if (actual instanceof Number a && expected instanceof Number e) {
+            return Double.compare(a.doubleValue(), e.doubleValue()) == 0;
+        }
+        return Objects.equals(actual.toString(), expected.toString());
+    }
+
+    private static boolean compare(Object actual, Object expected, IntPredicate accept) {
+        if (actual == null || expected == null) {
+            // Missing values never satisfy a range condition
+            return false;
+        }
+        if (actual instanceof Number a && expected instanceof Number e) {
+            return accept.test(Double.compare(a.doubleValue(), e.doubleValue()));
+        }
+        return accept.test(actual.toString().compareTo(expected.toString()));
+    }
+}
@@ -0,0 +1,72 @@
+package com.moksh.kontext.ai.index;
+
+import java.util.List;
+
+/**
+ * 64-bit SimHash fingerprints over token bigrams.
+ * Texts that share most of their wording, such as overlapping neighbour chunks or a page crawled twice,
+ * end up a few bits apart, so near-duplicates are found with a Hamming distance check instead of a text diff.
+ */
+public final class SimHash {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private SimHash() {
+    }
+
+    public static long fingerprint(String text) {
+        List<String> tokens = Bm25Index.tokenize(text);
+        if (tokens.isEmpty()) {
+            return 0L;
+        }
+        int[] weights = new int[Long.SIZE];
+        if (tokens.size() == 1) {
+            accumulate(weights, hash(tokens.get(0)));
+        }
+        for (int i = 1; i < tokens.size(); i++) {
+            accumulate(weights, hash(tokens.get(i - 1) + ' ' + tokens.get(i)));
+        }
+
+        long fingerprint = 0L;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if (weights[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    public static int distance(long first, long second) {
+        return Long.bitCount(first ^ second);
+    }
+
+    /**
+     * Maps the Hamming distance onto [0, 1]: identical fingerprints give 1, and half the bits differing,
+     * which is what unrelated texts give, already counts as 0.
+     */
+    public static double similarity(long first, long second) {
+        return Math.max(0.0, 1.0 - 2.0 * distance(first, second) / Long.SIZE);
+    }
+
+    private static void accumulate(int[] weights, long hash) {
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            weights[bit] += ((hash >>> bit) & 1L) == 1L ? 1 : -1;
+        }
+    }
+
+    private static long hash(String feature) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < feature.length(); i++) {
+            hash ^= feature.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        // MurmurHash3 finalizer, so every output bit depends on every input character
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,127 @@
+package com.moksh.kontext.ai.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Off-heap storage for fixed-size float vectors, addressed by dense integer ids.
+ * Vectors are packed into fixed-size segments, either direct buffers or private mappings of a snapshot file,
+ * so a large index neither lives on the Java heap nor hits the 2 GB limit of a single buffer. Segments are
+ * only ever appended; readers use absolute gets, so they can run while a writer fills the last segment.
+ */
+final class VectorSegments {
+
+    private final int dimension;
+    private final int segmentCapacity;
+    private final int segmentBytes;
+    private volatile FloatBuffer[] segments;
+
+    VectorSegments(int dimension, int segmentCapacity) {
+        this(dimension, segmentCapacity, new FloatBuffer[0]);
+    }
+
+    private VectorSegments(int dimension, int segmentCapacity, FloatBuffer[] segments) {
+        this.dimension = dimension;
+        this.segmentCapacity = segmentCapacity;
+        this.segmentBytes = Math.multiplyExact(segmentCapacity, dimension * Float.BYTES);
+        this.segments = segments;
+    }
+
+    int dimension() {
+        return dimension;
+    }
+
+    int segmentCapacity() {
+        return segmentCapacity;
+    }
+
+    /**
+     * Stores a vector. Only called by the single writer, and only for the next unused id or an id below it.
+     */
+    void set(int id, float[] vector) {
+        int segment = id / segmentCapacity;
+        FloatBuffer[] current = segments;
+        if (segment >= current.length) {
+            current = Arrays.copyOf(current, segment + 1);
+            for (int i = segments.length; i <= segment; i++) {
+                current[i] = ByteBuffer.allocateDirect(segmentBytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            }
+            segments = current;
+        }
+        FloatBuffer buffer = current[segment];
+        int base = (id % segmentCapacity) * dimension;
+        for (int i = 0; i < dimension; i++) {
+            buffer.put(base + i, vector[i]);
+        }
+    }
+
+    float dot(int id, float[] query) {
+        FloatBuffer buffer = segments[id / segmentCapacity];
+        int base = (id % segmentCapacity) * dimension;
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += buffer.get(base + i) * query[i];
+        }
+        return sum;
+    }
+
+    float[] get(int id) {
+        FloatBuffer buffer = segments[id / segmentCapacity];
+        int base = (id % segmentCapacity) * dimension;
+        float[] vector = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            vector[i] = buffer.get(base + i);
+        }
+        return vector;
+    }
+
+    /**
+     * Writes the first {@code count} vectors to {@code file} through a writable mapping, padded to whole segments
+     * so {@link #map} can map each segment on its own.
+     */
+    void writeTo(Path file, int count) throws IOException {
+        int segmentCount = (count + segmentCapacity - 1) / segmentCapacity;
+        FloatBuffer[] current = segments;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            for (int segment = 0; segment < segmentCount; segment++) {
+                MappedByteBuffer target = channel.map(FileChannel.MapMode.READ_WRITE,
+                        (long) segment * segmentBytes, segmentBytes);
+                FloatBuffer source = current[segment].duplicate();
+                source.clear();
+                target.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put(source);
+                target.force();
+            }
+        }
+    }
+
+    /**
+     * Maps a file written by {@link #writeTo} copy-on-write: pages are read lazily from the file, and vectors
+     * added later stay private to this process until the next snapshot.
+     */
+    static VectorSegments map(Path file, int dimension, int segmentCapacity) throws IOException {
+        VectorSegments empty = new VectorSegments(dimension, segmentCapacity);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size % empty.segmentBytes != 0) {
+                throw new IOException("Vector file " + file + " is not a whole number of segments");
+            }
+            FloatBuffer[] segments = new FloatBuffer[(int) (size / empty.segmentBytes)];
+            for (int segment = 0; segment < segments.length; segment++) {
+                // The mapping stays valid after the channel is closed
+                segments[segment] = channel.map(FileChannel.MapMode.PRIVATE,
+                                (long) segment * empty.segmentBytes, empty.segmentBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN)
+                        .asFloatBuffer();
+            }
+            return new VectorSegments(dimension, segmentCapacity, segments);
+        }
+    }
+}
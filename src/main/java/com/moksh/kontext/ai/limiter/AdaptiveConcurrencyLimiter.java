@@ -0,0 +1,238 @@
+package com.moksh.kontext.ai.limiter;
+
+import com.moksh.kontext.chat.exception.ChatError;
+import com.moksh.kontext.common.exception.BusinessException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.DoubleSupplier;
+
+/**
+ * AIMD concurrency limit for one pool of model calls, with fair queuing between tenants.
+ * Each successful call grows the limit by {@code 1/limit}, roughly one slot per round of calls, and every
+ * overload signal (HTTP 429, provider errors, calls above the latency threshold) multiplies it by the backoff
+ * ratio. Calls over the limit wait in per-tenant FIFO queues that are served round-robin, so one tenant's burst
+ * only delays that tenant. A call is rejected with 429 when the queues are full or it waited too long.
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    public enum Outcome {
+        SUCCESS,
+        OVERLOAD,
+        /**
+         * Failures that say nothing about provider capacity, e.g. a bad request or a cancelled stream.
+         */
+        IGNORE
+    }
+
+    private final String name;
+    private final ModelLimiterProperties.Pool pool;
+    private final double backoffRatio;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Insertion order is the round-robin order; a served tenant moves to the back
+    private final LinkedHashMap<String, Deque<CompletableFuture<Permit>>> queues = new LinkedHashMap<>();
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+
+    private final Counter rejected;
+    private final Counter overloads;
+    private final Timer waitTime;
+
+    public AdaptiveConcurrencyLimiter(String name, ModelLimiterProperties.Pool pool, double backoffRatio,
+                                      MeterRegistry meterRegistry) {
+        this.name = name;
+        this.pool = pool;
+        this.backoffRatio = backoffRatio;
+        this.limit = pool.getInitialLimit();
+
+        Gauge.builder("kontext.ai.limiter.limit", this, limiter -> limiter.snapshot(() -> limiter.limit))
+                .description("Current adaptive concurrency limit")
+                .tag("pool", name)
+                .register(meterRegistry);
+        Gauge.builder("kontext.ai.limiter.in_flight", this, limiter -> limiter.snapshot(() -> limiter.inFlight))
+                .description("Model calls currently holding a permit")
+                .tag("pool", name)
+                .register(meterRegistry);
+        Gauge.builder("kontext.ai.limiter.queued", this, limiter -> limiter.snapshot(() -> limiter.queued))
+                .description("Model calls waiting for a permit")
+                .tag("pool", name)
+                .register(meterRegistry);
+        this.rejected = Counter.builder("kontext.ai.limiter.rejected")
+                .description("Model calls rejected because the queue was full or the wait timed out")
+                .tag("pool", name)
+                .register(meterRegistry);
+        this.overloads = Counter.builder("kontext.ai.limiter.overload")
+                .description("Overload signals that reduced the limit")
+                .tag("pool", name)
+                .register(meterRegistry);
+        this.waitTime = Timer.builder("kontext.ai.limiter.wait")
+                .description("Time spent waiting for a permit")
+                .tag("pool", name)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Holds one unit of concurrency until released. Releasing more than once has no effect.
+     */
+    public final class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        public void release(Outcome outcome) {
+            if (released.compareAndSet(false, true)) {
+                onRelease(outcome);
+            }
+        }
+    }
+
+    /**
+     * Returns a permit now if one is free and nobody is queued, otherwise a future completed when this tenant's
+     * turn comes. The future fails with a 429 {@link BusinessException} if the queue is full or the wait times out.
+     */
+    public CompletableFuture<Permit> acquireAsync(String tenant) {
+        long start = System.nanoTime();
+        CompletableFuture<Permit> waiter = new CompletableFuture<>();
+        lock.lock();
+        try {
+            if (queued == 0 && inFlight < (int) limit) {
+                inFlight++;
+                waitTime.record(0, TimeUnit.NANOSECONDS);
+                return CompletableFuture.completedFuture(new Permit());
+            }
+            Deque<CompletableFuture<Permit>> tenantQueue = queues.get(tenant);
+            if (queued >= pool.getMaxQueue()
+                    || (tenantQueue != null && tenantQueue.size() >= pool.getMaxQueuePerTenant())) {
+                rejected.increment();
+                return CompletableFuture.failedFuture(capacityExceeded("queue full"));
+            }
+            queues.computeIfAbsent(tenant, t -> new ArrayDeque<>()).addLast(waiter);
+            queued++;
+        } finally {
+            lock.unlock();
+        }
+
+        return waiter
+                .orTimeout(pool.getMaxWaitMs(), TimeUnit.MILLISECONDS)
+                .handle((permit, error) -> {
+                    waitTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    if (error == null) {
+                        return permit;
+                    }
+                    dequeue(tenant, waiter);
+                    rejected.increment();
+                    throw capacityExceeded(error instanceof TimeoutException ? "wait timed out" : error.getMessage());
+                });
+    }
+
+    /**
+     * Blocking variant of {@link #acquireAsync} for callers on request or worker threads.
+     */
+    public Permit acquire(String tenant) {
+        CompletableFuture<Permit> permit = acquireAsync(tenant);
+        try {
+            return permit.get();
+        } catch (InterruptedException e) {
+            // Still queued; give the permit straight back if it is granted later
+            permit.thenAccept(granted -> granted.release(Outcome.IGNORE));
+            Thread.currentThread().interrupt();
+            throw capacityExceeded("interrupted while waiting");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BusinessException businessException) {
+                throw businessException;
+            }
+            throw capacityExceeded(e.getCause().getMessage());
+        }
+    }
+
+    private void onRelease(Outcome outcome) {
+        List<CompletableFuture<Permit>> granted;
+        lock.lock();
+        try {
+            int wasInFlight = inFlight--;
+            if (outcome == Outcome.OVERLOAD) {
+                limit = Math.max(pool.getMinLimit(), limit * backoffRatio);
+                overloads.increment();
+                log.debug("Model limiter '{}' backed off to {}", name, (int) limit);
+            } else if (outcome == Outcome.SUCCESS && wasInFlight >= (int) limit / 2) {
+                // Only grow while the limit is actually in use, otherwise it drifts up unchecked during quiet periods
+                limit = Math.min(pool.getMaxLimit(), limit + 1.0 / limit);
+            }
+            granted = takeWaiters();
+        } finally {
+            lock.unlock();
+        }
+
+        // Completed outside the lock: a waiter's continuation runs on this thread and may start the model call
+        for (CompletableFuture<Permit> waiter : granted) {
+            Permit permit = new Permit();
+            if (!waiter.complete(permit)) {
+                // Timed out concurrently; hand the slot on
+                permit.release(Outcome.IGNORE);
+            }
+        }
+    }
+
+    private List<CompletableFuture<Permit>> takeWaiters() {
+        List<CompletableFuture<Permit>> granted = new ArrayList<>();
+        while (inFlight < (int) limit && queued > 0) {
+            Iterator<Map.Entry<String, Deque<CompletableFuture<Permit>>>> tenants = queues.entrySet().iterator();
+            Map.Entry<String, Deque<CompletableFuture<Permit>>> next = tenants.next();
+            tenants.remove();
+            granted.add(next.getValue().pollFirst());
+            queued--;
+            inFlight++;
+            if (!next.getValue().isEmpty()) {
+                queues.put(next.getKey(), next.getValue());
+            }
+        }
+        return granted;
+    }
+
+    private void dequeue(String tenant, CompletableFuture<Permit> waiter) {
+        lock.lock();
+        try {
+            Deque<CompletableFuture<Permit>> tenantQueue = queues.get(tenant);
+            if (tenantQueue != null && tenantQueue.remove(waiter)) {
+                queued--;
+                if (tenantQueue.isEmpty()) {
+                    queues.remove(tenant);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double snapshot(DoubleSupplier value) {
+        lock.lock();
+        try {
+            return value.getAsDouble();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private BusinessException capacityExceeded(String reason) {
+        log.warn("Model limiter '{}' rejected a call: {}", name, reason);
+        return new BusinessException(ChatError.AI_CAPACITY_EXCEEDED, HttpStatus.TOO_MANY_REQUESTS);
+    }
+}
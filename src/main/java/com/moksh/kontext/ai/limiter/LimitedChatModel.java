@@ -0,0 +1,80 @@
+package com.moksh.kontext.ai.limiter;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Chat model decorator that takes a permit from the workload's limiter for every call. A streamed answer holds
+ * its permit until the stream ends, and the time to its first chunk is the latency that feeds the limiter.
+ */
+public class LimitedChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final ModelCallLimiters limiters;
+    private final ModelWorkload workload;
+
+    public LimitedChatModel(ChatModel delegate, ModelCallLimiters limiters, ModelWorkload workload) {
+        this.delegate = delegate;
+        this.limiters = limiters;
+        this.workload = workload;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        if (!limiters.isEnabled()) {
+            return delegate.call(prompt);
+        }
+        AdaptiveConcurrencyLimiter.Permit permit = limiters.limiter(workload).acquire(ModelCallTenant.current());
+        long start = System.nanoTime();
+        try {
+            ChatResponse response = delegate.call(prompt);
+            permit.release(limiters.outcome(ModelCallLimiters.Operation.CHAT, System.nanoTime() - start));
+            return response;
+        } catch (RuntimeException e) {
+            permit.release(limiters.outcome(e));
+            throw e;
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        if (!limiters.isEnabled()) {
+            return delegate.stream(prompt);
+        }
+        // The advisors hand the stream to scheduler threads, so the tenant comes from the subscriber's context
+        return Flux.deferContextual(context -> {
+            String tenant = ModelCallTenant.current(context);
+            CompletableFuture<AdaptiveConcurrencyLimiter.Permit> pending =
+                    limiters.limiter(workload).acquireAsync(tenant);
+            return Mono.fromFuture(pending, true)
+                    // Cancelled while queued: hand the permit back as soon as it is granted
+                    .doOnCancel(() -> pending.thenAccept(p -> p.release(AdaptiveConcurrencyLimiter.Outcome.IGNORE)))
+                    .flatMapMany(permit -> limitedStream(prompt, permit));
+        });
+    }
+
+    private Flux<ChatResponse> limitedStream(Prompt prompt, AdaptiveConcurrencyLimiter.Permit permit) {
+        long start = System.nanoTime();
+        AtomicReference<AdaptiveConcurrencyLimiter.Outcome> firstChunk = new AtomicReference<>();
+        return delegate.stream(prompt)
+                .doOnNext(response -> firstChunk.compareAndSet(null,
+                        limiters.outcome(ModelCallLimiters.Operation.CHAT, System.nanoTime() - start)))
+                .doOnComplete(() -> permit.release(firstChunk.get() != null
+                        ? firstChunk.get()
+                        : AdaptiveConcurrencyLimiter.Outcome.SUCCESS))
+                .doOnError(e -> permit.release(limiters.outcome(e)))
+                .doFinally(signal -> permit.release(AdaptiveConcurrencyLimiter.Outcome.IGNORE));
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+}
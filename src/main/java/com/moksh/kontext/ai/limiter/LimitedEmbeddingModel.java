@@ -0,0 +1,52 @@
+package com.moksh.kontext.ai.limiter;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * Embedding model decorator that takes a permit from the workload's limiter for every request. Batched document
+ * embedding goes through {@link #call} once per batch, so each batch is one limited call.
+ */
+public class LimitedEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final ModelCallLimiters limiters;
+    private final ModelWorkload workload;
+
+    public LimitedEmbeddingModel(EmbeddingModel delegate, ModelCallLimiters limiters, ModelWorkload workload) {
+        this.delegate = delegate;
+        this.limiters = limiters;
+        this.workload = workload;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        if (!limiters.isEnabled()) {
+            return delegate.call(request);
+        }
+        AdaptiveConcurrencyLimiter.Permit permit = limiters.limiter(workload).acquire(ModelCallTenant.current());
+        long start = System.nanoTime();
+        try {
+            EmbeddingResponse response = delegate.call(request);
+            permit.release(limiters.outcome(ModelCallLimiters.Operation.EMBEDDING, System.nanoTime() - start));
+            return response;
+        } catch (RuntimeException e) {
+            permit.release(limiters.outcome(e));
+            throw e;
+        }
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        // Routed through call() rather than the delegate so single-document embeds are limited too
+        return embed(document.getFormattedContent(MetadataMode.EMBED));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+}
@@ -0,0 +1,90 @@
+package com.moksh.kontext.ai.limiter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.net.SocketTimeoutException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One {@link AdaptiveConcurrencyLimiter} per {@link ModelWorkload}, shared by the chat and embedding models,
+ * plus the rules for turning a finished call into a limiter outcome.
+ */
+@Component
+public class ModelCallLimiters {
+
+    public enum Operation {
+        CHAT,
+        EMBEDDING
+    }
+
+    private final ModelLimiterProperties properties;
+    private final Map<ModelWorkload, AdaptiveConcurrencyLimiter> limiters = new EnumMap<>(ModelWorkload.class);
+
+    public ModelCallLimiters(ModelLimiterProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        limiters.put(ModelWorkload.INTERACTIVE, new AdaptiveConcurrencyLimiter("interactive",
+                properties.getInteractive(), properties.getBackoffRatio(), meterRegistry));
+        limiters.put(ModelWorkload.BACKGROUND, new AdaptiveConcurrencyLimiter("background",
+                properties.getBackground(), properties.getBackoffRatio(), meterRegistry));
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    public AdaptiveConcurrencyLimiter limiter(ModelWorkload workload) {
+        return limiters.get(workload);
+    }
+
+    /**
+     * A completed call is an overload signal only when it was slower than the operation's latency threshold.
+     */
+    public AdaptiveConcurrencyLimiter.Outcome outcome(Operation operation, long elapsedNanos) {
+        long thresholdMs = operation == Operation.CHAT
+                ? properties.getChatLatencyThresholdMs()
+                : properties.getEmbeddingLatencyThresholdMs();
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos) > thresholdMs
+                ? AdaptiveConcurrencyLimiter.Outcome.OVERLOAD
+                : AdaptiveConcurrencyLimiter.Outcome.SUCCESS;
+    }
+
+    /**
+     * Rate limiting, provider-side errors and timeouts reduce the limit; anything else, such as a rejected
+     * request, says nothing about capacity.
+     */
+    public AdaptiveConcurrencyLimiter.Outcome outcome(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientAiException
+                    || cause instanceof TimeoutException
+                    || cause instanceof SocketTimeoutException) {
+                return AdaptiveConcurrencyLimiter.Outcome.OVERLOAD;
+            }
+            if (cause instanceof RestClientResponseException response
+                    && isOverloadStatus(response.getStatusCode().value())) {
+                return AdaptiveConcurrencyLimiter.Outcome.OVERLOAD;
+            }
+            if (cause instanceof WebClientResponseException response
+                    && isOverloadStatus(response.getStatusCode().value())) {
+                return AdaptiveConcurrencyLimiter.Outcome.OVERLOAD;
+            }
+            // Spring AI reports 4xx responses as "<status> - <body>"
+            if (cause instanceof NonTransientAiException && cause.getMessage() != null
+                    && cause.getMessage().startsWith("429")) {
+                return AdaptiveConcurrencyLimiter.Outcome.OVERLOAD;
+            }
+        }
+        return AdaptiveConcurrencyLimiter.Outcome.IGNORE;
+    }
+
+    private static boolean isOverloadStatus(int status) {
+        return status == 429 || status >= 500;
+    }
+}
@@ -0,0 +1,59 @@
+package com.moksh.kontext.ai.limiter;
+
+import com.moksh.kontext.common.util.SecurityContextUtil;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Resolves the tenant a model call is queued under. Request threads use the authenticated user;
+ * background work without a user, such as ingestion, declares its tenant explicitly with {@link #callAs}.
+ * A streamed call runs on scheduler threads that carry neither, so its subscriber declares the tenant in the
+ * Reactor context with {@link #streamAs}.
+ */
+public final class ModelCallTenant {
+
+    private static final String SYSTEM_TENANT = "system";
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+    private static final String CONTEXT_KEY = ModelCallTenant.class.getName() + ".tenant";
+
+    private ModelCallTenant() {
+    }
+
+    public static <T> T callAs(String tenant, Supplier<T> work) {
+        String previous = CURRENT.get();
+        CURRENT.set(tenant);
+        try {
+            return work.get();
+        } finally {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    /**
+     * Context write for a streamed call; a {@code null} tenant leaves the context as it is.
+     */
+    public static Function<Context, Context> streamAs(String tenant) {
+        return context -> tenant != null ? context.put(CONTEXT_KEY, tenant) : context;
+    }
+
+    public static String current(ContextView context) {
+        return context.hasKey(CONTEXT_KEY) ? context.get(CONTEXT_KEY) : current();
+    }
+
+    public static String current() {
+        String tenant = CURRENT.get();
+        if (tenant != null) {
+            return tenant;
+        }
+        UUID userId = SecurityContextUtil.getCurrentUserId();
+        return userId != null ? userId.toString() : SYSTEM_TENANT;
+    }
+}
@@ -0,0 +1,55 @@
+package com.moksh.kontext.ai.limiter;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@ConfigurationProperties(prefix = "kontext.ai.limiter")
+@Getter
+@Setter
+public class ModelLimiterProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Factor the limit is multiplied by when the provider signals overload.
+     */
+    private double backoffRatio = 0.8;
+
+    /**
+     * Calls slower than this (time to first chunk for streams) count as an overload signal.
+     */
+    private long chatLatencyThresholdMs = 15000;
+
+    private long embeddingLatencyThresholdMs = 3000;
+
+    private Pool interactive = new Pool(8, 2, 32, 200, 20, 30000);
+
+    private Pool background = new Pool(4, 1, 16, 1000, 200, 120000);
+
+    @Getter
+    @Setter
+    public static class Pool {
+        private int initialLimit;
+        private int minLimit;
+        private int maxLimit;
+        private int maxQueue;
+        private int maxQueuePerTenant;
+        private long maxWaitMs;
+
+        public Pool() {
+        }
+
+        public Pool(int initialLimit, int minLimit, int maxLimit, int maxQueue, int maxQueuePerTenant,
+                    long maxWaitMs) {
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.maxQueue = maxQueue;
+            this.maxQueuePerTenant = maxQueuePerTenant;
+            this.maxWaitMs = maxWaitMs;
+        }
+    }
+}
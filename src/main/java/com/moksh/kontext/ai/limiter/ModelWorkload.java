@@ -0,0 +1,10 @@
+package com.moksh.kontext.ai.limiter;
+
+/**
+ * Bulkheads for model calls. Interactive chat and background ingestion have separate concurrency limits,
+ * so an ingestion burst cannot take the capacity that chat requests are waiting for.
+ */
+public enum ModelWorkload {
+    INTERACTIVE,
+    BACKGROUND
+}
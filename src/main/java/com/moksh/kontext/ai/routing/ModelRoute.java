@@ -0,0 +1,29 @@
+package com.moksh.kontext.ai.routing;
+
+import org.springframework.lang.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Where a chat turn is sent. A {@code null} model or token cap means the primary model's defaults.
+ */
+public record ModelRoute(
+        Tier tier,
+        String reason,
+        @Nullable String model,
+        @Nullable Integer maxTokens
+) {
+
+    public enum Tier {
+        SIMPLE,
+        PRIMARY
+    }
+
+    public static ModelRoute primary(String reason) {
+        return new ModelRoute(Tier.PRIMARY, reason, null, null);
+    }
+
+    public String tag() {
+        return tier.name().toLowerCase(Locale.ROOT);
+    }
+}
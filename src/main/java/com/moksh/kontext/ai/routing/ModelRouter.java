@@ -0,0 +1,84 @@
+package com.moksh.kontext.ai.routing;
+
+import com.moksh.kontext.ai.dto.RetrievalResult;
+import com.moksh.kontext.ai.service.ContextPacker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Local, rule-based routing of chat turns between the primary model and a smaller, faster one.
+ * Small talk always goes to the small model. Other turns go there only when they are short, carry no
+ * complexity markers and need at most a single knowledge chunk. Anything else, or a project pinned to the
+ * primary model, escalates to the primary model.
+ */
+@Component
+@Slf4j
+public class ModelRouter {
+
+    private static final Pattern SMALL_TALK = Pattern.compile(
+            "^(hi|hello|hey|yo|good (morning|afternoon|evening)|thanks?( you)?( so much| a lot)?|thx|ty|"
+                    + "ok(ay)?|cool|great|nice|got it|perfect|awesome|bye|goodbye|see you|cheers)[\\s!.,:)]*$");
+    private static final Pattern COMPLEXITY_MARKERS = Pattern.compile(
+            "\\b(why|how|explain|compare|difference|analy[sz]e|summari[sz]e|step[- ]by[- ]step|design|"
+                    + "implement|debug|calculate|pros and cons|trade-?offs?)\\b|```");
+
+    private final ModelRoutingProperties properties;
+    private final ContextPacker contextPacker;
+    private final MeterRegistry meterRegistry;
+
+    public ModelRouter(ModelRoutingProperties properties, ContextPacker contextPacker, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.contextPacker = contextPacker;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public ModelRoute route(UUID projectId, String query, RetrievalResult retrieval) {
+        ModelRoute route = classify(projectId, query, retrieval);
+        Counter.builder("kontext.ai.routing.decisions")
+                .description("Chat turns routed per model tier and deciding rule")
+                .tag("route", route.tag())
+                .tag("reason", route.reason())
+                .register(meterRegistry)
+                .increment();
+        log.debug("Routed chat turn for project {} to {} ({})", projectId, route.tag(), route.reason());
+        return route;
+    }
+
+    private ModelRoute classify(UUID projectId, String query, RetrievalResult retrieval) {
+        if (!properties.isEnabled()) {
+            return ModelRoute.primary("disabled");
+        }
+        ModelRoute.Tier pinned = properties.getProjects().get(projectId.toString());
+        if (pinned != null) {
+            return pinned == ModelRoute.Tier.SIMPLE
+                    ? simple("project_override")
+                    : ModelRoute.primary("project_override");
+        }
+
+        String normalized = query.strip().toLowerCase(Locale.ROOT);
+        if (SMALL_TALK.matcher(normalized).matches()) {
+            return simple("small_talk");
+        }
+        if (COMPLEXITY_MARKERS.matcher(normalized).find()) {
+            return ModelRoute.primary("complex_intent");
+        }
+        if (contextPacker.countTokens(query) > properties.getSimpleMaxQueryTokens()) {
+            return ModelRoute.primary("long_query");
+        }
+        if (retrieval.knowledgeDocuments().size() > properties.getSimpleMaxKnowledgeHits()) {
+            return ModelRoute.primary("knowledge_heavy");
+        }
+        return simple("short_query");
+    }
+
+    private ModelRoute simple(String reason) {
+        return new ModelRoute(ModelRoute.Tier.SIMPLE, reason, properties.getSimpleModel(),
+                properties.getSimpleMaxTokens());
+    }
+}
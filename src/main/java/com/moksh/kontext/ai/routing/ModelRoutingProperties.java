@@ -0,0 +1,40 @@
+package com.moksh.kontext.ai.routing;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Configuration
+@ConfigurationProperties(prefix = "kontext.ai.routing")
+@Getter
+@Setter
+public class ModelRoutingProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Model and output cap for turns classified as simple.
+     */
+    private String simpleModel = "gpt-4o-mini";
+
+    private int simpleMaxTokens = 500;
+
+    /**
+     * Questions up to this many tokens, without complexity markers, may be routed to the simple model.
+     */
+    private int simpleMaxQueryTokens = 24;
+
+    /**
+     * Short questions that retrieved more knowledge chunks than this need the primary model to synthesise them.
+     */
+    private int simpleMaxKnowledgeHits = 1;
+
+    /**
+     * Per-project route pinning by project id, e.g. a project whose answers must always come from the primary model.
+     */
+    private Map<String, ModelRoute.Tier> projects = new HashMap<>();
+}
@@ -0,0 +1,275 @@
+package com.moksh.kontext.ai.service;
+
+import com.moksh.kontext.ai.dto.ChatJob;
+import com.moksh.kontext.chat.dto.ChatJobDto;
+import com.moksh.kontext.chat.exception.ChatError;
+import com.moksh.kontext.common.exception.BusinessException;
+import com.moksh.kontext.common.exception.ResourceNotFoundException;
+import com.moksh.kontext.common.response.ApiResponse;
+import com.moksh.kontext.common.util.SecurityContextUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fire-and-forget chat turns. A job runs the streaming chat pipeline without any request thread attached: the
+ * model stream is consumed reactively and the answer so far is flushed to the {@link ChatJobStore} as it grows,
+ * so a job keeps running when the client disconnects and its result can be read from any instance.
+ * Results are fetched with long-polls that hold no thread while waiting. Jobs running on this instance wake their
+ * pollers directly; pollers of jobs running elsewhere are checked against Redis by a single sweeper thread.
+ */
+@Service
+@Slf4j
+public class ChatJobService {
+
+    private final RagChatService ragChatService;
+    private final ChatJobStore chatJobStore;
+    private final Set<UUID> running = ConcurrentHashMap.newKeySet();
+    private final Map<UUID, Set<Poll>> polls = new ConcurrentHashMap<>();
+
+    private final Counter completedJobs;
+    private final Counter failedJobs;
+
+    @Value("${kontext.ai.jobs.max-in-flight:500}")
+    private int maxInFlight;
+
+    @Value("${kontext.ai.jobs.flush-interval-ms:500}")
+    private long flushIntervalMs;
+
+    @Value("${kontext.ai.jobs.poll-interval-ms:500}")
+    private long pollIntervalMs;
+
+    @Value("${kontext.ai.jobs.max-poll-timeout-ms:60000}")
+    private long maxPollTimeoutMs;
+
+    @Value("${kontext.ai.jobs.stale-after-ms:120000}")
+    private long staleAfterMs;
+
+    private ScheduledExecutorService sweeper;
+
+    public ChatJobService(RagChatService ragChatService, ChatJobStore chatJobStore, MeterRegistry meterRegistry) {
+        this.ragChatService = ragChatService;
+        this.chatJobStore = chatJobStore;
+        this.completedJobs = Counter.builder("kontext.ai.jobs")
+                .description("Asynchronous chat jobs by outcome")
+                .tag("outcome", "completed")
+                .register(meterRegistry);
+        this.failedJobs = Counter.builder("kontext.ai.jobs")
+                .description("Asynchronous chat jobs by outcome")
+                .tag("outcome", "failed")
+                .register(meterRegistry);
+        meterRegistry.gauge("kontext.ai.jobs.in_flight", running, Set::size);
+        meterRegistry.gauge("kontext.ai.jobs.polls", polls, Map::size);
+    }
+
+    /**
+     * A pending long-poll. With an offset it completes as soon as there is answer text past it; without one it
+     * waits for the job to finish.
+     */
+    private record Poll(UUID userId, UUID chatId, Integer offset, DeferredResult<ApiResponse<ChatJobDto>> result) {
+
+        boolean isSatisfiedBy(ChatJob job) {
+            return job.isFinished() || (offset != null && job.answer().length() > offset);
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kontext-chat-job-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * Starts generating an answer and returns the job right away. Must be called on the request thread, which
+     * supplies the user and security context the turn runs under.
+     */
+    public ChatJobDto submit(String query, UUID projectId, UUID chatId, String userDisplayName) {
+        if (running.size() >= maxInFlight) {
+            log.warn("Rejecting chat job for chat {}: {} jobs already running", chatId, running.size());
+            throw new BusinessException(ChatError.AI_CAPACITY_EXCEEDED, HttpStatus.TOO_MANY_REQUESTS);
+        }
+        UUID userId = SecurityContextUtil.getCurrentUserIdOrThrow();
+        ChatJob job = ChatJob.started(chatId, projectId, userId);
+        chatJobStore.save(job);
+        running.add(job.jobId());
+
+        // StringBuffer: tokens are appended on the model's threads and read on the flush thread
+        StringBuffer answer = new StringBuffer();
+        ragChatService.streamChatWithContext(query, projectId, chatId, userDisplayName)
+                .doOnNext(answer::append)
+                .sample(Duration.ofMillis(flushIntervalMs))
+                .publishOn(Schedulers.boundedElastic())
+                .subscribe(
+                        chunk -> saveProgress(job.withProgress(answer.toString())),
+                        error -> finish(job.failed(answer.toString(), failureMessage(error)), error),
+                        () -> finish(job.completed(answer.toString()), null));
+
+        log.info("Started chat job {} for chat {}", job.jobId(), chatId);
+        return toDto(job, null);
+    }
+
+    /**
+     * Long-polls a job of the current user.
+     *
+     * @param offset answer offset already received; {@code null} to wait for the complete answer
+     */
+    public DeferredResult<ApiResponse<ChatJobDto>> poll(UUID chatId, UUID jobId, Integer offset, long timeoutMs) {
+        UUID userId = SecurityContextUtil.getCurrentUserIdOrThrow();
+        ChatJob job = findJob(jobId, chatId, userId);
+
+        DeferredResult<ApiResponse<ChatJobDto>> result =
+                new DeferredResult<>(Math.min(Math.max(timeoutMs, 0L), maxPollTimeoutMs));
+        Poll poll = new Poll(userId, chatId, offset, result);
+        if (poll.isSatisfiedBy(job)) {
+            result.setResult(response(job, offset));
+            return result;
+        }
+
+        result.onTimeout(() -> {
+            try {
+                ChatJob current = findJob(jobId, chatId, userId);
+                result.setResult(ApiResponse.success(toDto(current, offset), "Chat job is still running"));
+            } catch (Exception e) {
+                log.warn("Error reading chat job {} on poll timeout: {}", jobId, e.getMessage());
+                result.setResult(ApiResponse.error("Timeout occurred while waiting for the chat job", 408));
+            }
+        });
+        result.onCompletion(() -> removePoll(jobId, poll));
+        polls.computeIfAbsent(jobId, id -> ConcurrentHashMap.newKeySet()).add(poll);
+
+        // The job may have moved on between the read above and registering the poll
+        chatJobStore.find(jobId).ifPresent(latest -> complete(latest, Set.of(poll)));
+        return result;
+    }
+
+    private void saveProgress(ChatJob job) {
+        try {
+            chatJobStore.save(job);
+        } catch (Exception e) {
+            // Progress is best effort; the final state is written when the job ends
+            log.warn("Failed to save progress of chat job {}: {}", job.jobId(), e.getMessage());
+        }
+        Set<Poll> waiting = polls.get(job.jobId());
+        if (waiting != null) {
+            complete(job, waiting);
+        }
+    }
+
+    private void finish(ChatJob job, Throwable error) {
+        try {
+            chatJobStore.save(job);
+        } catch (Exception e) {
+            log.error("Failed to save final state of chat job {}", job.jobId(), e);
+        } finally {
+            running.remove(job.jobId());
+        }
+        if (error == null) {
+            completedJobs.increment();
+            log.info("Chat job {} completed", job.jobId());
+        } else {
+            failedJobs.increment();
+            log.error("Chat job {} failed", job.jobId(), error);
+        }
+        Set<Poll> waiting = polls.get(job.jobId());
+        if (waiting != null) {
+            complete(job, waiting);
+        }
+    }
+
+    /**
+     * Checks polls for jobs running on other instances. Local jobs are skipped; they notify their polls directly.
+     */
+    private void sweep() {
+        for (Map.Entry<UUID, Set<Poll>> entry : polls.entrySet()) {
+            if (running.contains(entry.getKey())) {
+                continue;
+            }
+            try {
+                chatJobStore.find(entry.getKey())
+                        .map(this::markIfStale)
+                        .ifPresent(job -> complete(job, entry.getValue()));
+            } catch (Exception e) {
+                log.warn("Failed to check chat job {}: {}", entry.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    private void complete(ChatJob job, Set<Poll> candidates) {
+        for (Poll poll : candidates) {
+            if (poll.isSatisfiedBy(job)) {
+                poll.result().setResult(response(job, poll.offset()));
+            }
+        }
+    }
+
+    private void removePoll(UUID jobId, Poll poll) {
+        polls.computeIfPresent(jobId, (id, waiting) -> {
+            waiting.remove(poll);
+            return waiting.isEmpty() ? null : waiting;
+        });
+    }
+
+    private ChatJob findJob(UUID jobId, UUID chatId, UUID userId) {
+        return chatJobStore.find(jobId)
+                .filter(job -> job.chatId().equals(chatId) && job.userId().equals(userId))
+                .map(this::markIfStale)
+                .orElseThrow(() -> new ResourceNotFoundException("Chat job not found"));
+    }
+
+    /**
+     * A job that stopped reporting progress, because the instance running it went away, is reported as failed.
+     */
+    private ChatJob markIfStale(ChatJob job) {
+        if (!job.isFinished() && !running.contains(job.jobId())
+                && System.currentTimeMillis() - job.updatedAt() > staleAfterMs) {
+            return job.failed(job.answer(), "Chat job was interrupted");
+        }
+        return job;
+    }
+
+    private ApiResponse<ChatJobDto> response(ChatJob job, Integer offset) {
+        String message = switch (job.status()) {
+            case RUNNING -> "Chat job is still running";
+            case COMPLETED -> "AI chat response generated successfully";
+            case FAILED -> "Chat job failed";
+        };
+        return ApiResponse.success(toDto(job, offset), message);
+    }
+
+    private ChatJobDto toDto(ChatJob job, Integer offset) {
+        String answer = Optional.ofNullable(job.answer()).orElse("");
+        int from = offset == null ? 0 : Math.min(Math.max(offset, 0), answer.length());
+        return new ChatJobDto(job.jobId(), job.chatId(), job.status(), answer.substring(from), answer.length(),
+                job.error(), job.createdAt(), job.updatedAt());
+    }
+
+    private String failureMessage(Throwable error) {
+        return error instanceof BusinessException ? error.getMessage() : "Failed to generate AI response";
+    }
+}
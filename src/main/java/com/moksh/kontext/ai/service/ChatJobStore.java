@@ -0,0 +1,55 @@
+package com.moksh.kontext.ai.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moksh.kontext.ai.dto.ChatJob;
+import com.moksh.kontext.redis.service.RedisService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Redis persistence for {@link ChatJob}s, so a job started on one instance can be read from any other.
+ * Each job is one JSON value that expires a fixed time after its last update.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ChatJobStore {
+
+    private static final String KEY_PREFIX = "kontext:chat-job:";
+
+    private final RedisService redisService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${kontext.ai.jobs.ttl-minutes:60}")
+    private long ttlMinutes;
+
+    public void save(ChatJob job) {
+        try {
+            redisService.set(KEY_PREFIX + job.jobId(), objectMapper.writeValueAsString(job),
+                    Duration.ofMinutes(ttlMinutes));
+        } catch (JsonProcessingException e) {
+            log.error("Failed to serialize chat job {}", job.jobId(), e);
+            throw new RuntimeException("Failed to serialize chat job", e);
+        }
+    }
+
+    public Optional<ChatJob> find(UUID jobId) {
+        String value = redisService.get(KEY_PREFIX + jobId);
+        if (value == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(objectMapper.readValue(value, ChatJob.class));
+        } catch (JsonProcessingException e) {
+            log.warn("Discarding unreadable chat job {}: {}", jobId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.moksh.kontext.ai.service;
+
+import com.moksh.kontext.ai.cache.SemanticResponseCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Single-flight for chat answers. An identical question in the same chat, against the same knowledge-set version,
+ * that arrives while an answer is still being generated attaches to that generation instead of starting its own;
+ * this covers double submits and clients retrying after a timeout. Generations are never shared across chats, as
+ * an answer draws on the chat's history, memory and user. The shared answer is replayed from the first token, so
+ * a follower that joins mid-stream still receives the whole response, and the generation, which persists the
+ * turn once, is not cancelled when one subscriber leaves.
+ */
+@Component
+@Slf4j
+public class ChatRequestCoalescer {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s?!.]+$");
+
+    private final SemanticResponseCache semanticResponseCache;
+    private final Map<Key, Flux<String>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalescedRequests;
+
+    @Value("${kontext.ai.coalescing.enabled:true}")
+    private boolean enabled;
+
+    public ChatRequestCoalescer(SemanticResponseCache semanticResponseCache, MeterRegistry meterRegistry) {
+        this.semanticResponseCache = semanticResponseCache;
+        this.coalescedRequests = Counter.builder("kontext.ai.requests.coalesced")
+                .description("Chat requests served by attaching to an identical in-flight request")
+                .register(meterRegistry);
+        meterRegistry.gauge("kontext.ai.requests.in_flight", inFlight, Map::size);
+    }
+
+    public record Key(UUID projectId, UUID chatId, String normalizedQuery, long knowledgeVersion) {
+    }
+
+    /**
+     * @param leader whether this request started the generation rather than attaching to one in flight
+     */
+    public record Attachment(Flux<String> response, boolean leader) {
+    }
+
+    /**
+     * Attaches to the in-flight answer for the question, or starts {@code generation} if there is none.
+     * The generation runs once for all attached requests and is dropped from the in-flight set when it ends.
+     */
+    public Attachment join(UUID projectId, UUID chatId, String query, Supplier<Flux<String>> generation) {
+        if (!enabled) {
+            return new Attachment(Flux.defer(generation), true);
+        }
+
+        Key key = new Key(projectId, chatId, normalize(query), knowledgeVersion(projectId));
+        AtomicReference<Flux<String>> started = new AtomicReference<>();
+        Flux<String> current = inFlight.computeIfAbsent(key, k -> {
+            Flux<String> response = Flux.defer(generation)
+                    .doFinally(signal -> inFlight.remove(k, started.get()))
+                    .cache();
+            started.set(response);
+            return response;
+        });
+
+        boolean leader = current == started.get();
+        if (!leader) {
+            coalescedRequests.increment();
+            log.debug("Chat request in chat {} attached to an in-flight answer", chatId);
+        }
+        return new Attachment(current, leader);
+    }
+
+    static String normalize(String query) {
+        String collapsed = WHITESPACE.matcher(query.strip().toLowerCase(Locale.ROOT)).replaceAll(" ");
+        return TRAILING_PUNCTUATION.matcher(collapsed).replaceAll("");
+    }
+
+    private long knowledgeVersion(UUID projectId) {
+        try {
+            return semanticResponseCache.knowledgeVersion(projectId);
+        } catch (Exception e) {
+            // Without a version, coalescing across a knowledge change is no worse than the in-flight window itself
+            log.warn("Could not read knowledge version of project {}: {}", projectId, e.getMessage());
+            return -1L;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.moksh.kontext.ai.service;
+
+import com.moksh.kontext.ai.dto.ChatTurn;
+import com.moksh.kontext.chat.entity.ChatMessage;
+import com.moksh.kontext.chat.repository.ChatMessageRepository;
+import com.moksh.kontext.chat.repository.ChatRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind persistence for chat turns.
+ * Turns are queued as soon as the model finishes and a single writer thread drains them in batches: one
+ * transaction of batched inserts into Postgres, then one embedding call and one upsert into the chat memory
+ * collection. In {@code sync} mode, or when the queue is full, the turn is written on the caller thread instead,
+ * so a turn is never dropped. Turns that are queued but not yet written are exposed through
+ * {@link #pendingMessages(UUID)} so the next request of the same chat still sees them. Once written, the chats
+ * are handed to the {@link ConversationSummarizer}, which folds long histories in the background.
+ */
+@Service
+@Slf4j
+public class ChatTurnWriter {
+
+    private final ChatMessageRepository chatMessageRepository;
+    private final ChatRepository chatRepository;
+    private final ConversationSummarizer conversationSummarizer;
+    private final VectorStore chatVectorStore;
+    private final TransactionTemplate transactionTemplate;
+
+    private final BlockingQueue<ChatTurn> queue;
+    private final Map<UUID, Queue<ChatTurn>> pendingByChat = new ConcurrentHashMap<>();
+    private final boolean writeBehind;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final long shutdownTimeoutMs;
+
+    private final Counter persistedTurns;
+    private final Counter failedTurns;
+    private final Counter callerRunsTurns;
+    private final Timer flushTimer;
+
+    private volatile boolean running;
+    private Thread writerThread;
+
+    @Autowired
+    public ChatTurnWriter(
+            ChatMessageRepository chatMessageRepository,
+            ChatRepository chatRepository,
+            ConversationSummarizer conversationSummarizer,
+            @Qualifier("chat_vector_store") VectorStore chatVectorStore,
+            PlatformTransactionManager transactionManager,
+            MeterRegistry meterRegistry,
+            @Value("${kontext.ai.memory.write-behind.mode:async}") String mode,
+            @Value("${kontext.ai.memory.write-behind.queue-capacity:1000}") int queueCapacity,
+            @Value("${kontext.ai.memory.write-behind.batch-size:50}") int batchSize,
+            @Value("${kontext.ai.memory.write-behind.flush-interval-ms:200}") long flushIntervalMs,
+            @Value("${kontext.ai.memory.write-behind.shutdown-timeout-ms:10000}") long shutdownTimeoutMs
+    ) {
+        this.chatMessageRepository = chatMessageRepository;
+        this.chatRepository = chatRepository;
+        this.conversationSummarizer = conversationSummarizer;
+        this.chatVectorStore = chatVectorStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.writeBehind = !"sync".equalsIgnoreCase(mode);
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+
+        this.persistedTurns = meterRegistry.counter("kontext.chat.turns.persisted");
+        this.failedTurns = meterRegistry.counter("kontext.chat.turns.failed");
+        this.callerRunsTurns = meterRegistry.counter("kontext.chat.turns.caller_runs");
+        this.flushTimer = meterRegistry.timer("kontext.chat.turns.flush");
+        Gauge.builder("kontext.chat.turns.queued", queue, BlockingQueue::size).register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!writeBehind) {
+            log.info("Chat turn persistence running in write-through mode");
+            return;
+        }
+        running = true;
+        writerThread = new Thread(this::drainLoop, "kontext-chat-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        log.info("Chat turn write-behind started with batch size {} and flush interval {}ms",
+                batchSize, flushIntervalMs);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (!writeBehind) {
+            return;
+        }
+        running = false;
+        try {
+            writerThread.join(shutdownTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Whatever the writer did not get to is flushed here before the datasource goes away
+        List<ChatTurn> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            log.info("Flushing {} queued chat turns on shutdown", remaining.size());
+            write(remaining);
+        }
+    }
+
+    public void enqueue(ChatTurn turn) {
+        if (!writeBehind) {
+            write(List.of(turn));
+            return;
+        }
+        pendingByChat.computeIfAbsent(turn.chatId(), id -> new ConcurrentLinkedQueue<>()).add(turn);
+        if (!queue.offer(turn)) {
+            // Back-pressure instead of dropping the turn
+            callerRunsTurns.increment();
+            log.warn("Chat turn queue is full, writing turn for chat {} on the caller thread", turn.chatId());
+            write(List.of(turn));
+        }
+    }
+
+    /**
+     * Messages of turns that are queued or being written for the chat, newest first.
+     */
+    public List<Message> pendingMessages(UUID chatId) {
+        Queue<ChatTurn> pending = pendingByChat.get(chatId);
+        if (pending == null || pending.isEmpty()) {
+            return List.of();
+        }
+        List<Message> messages = new ArrayList<>();
+        for (ChatTurn turn : pending) {
+            messages.add(0, new UserMessage(turn.userMessage()));
+            if (turn.assistantMessage() != null) {
+                messages.add(0, new AssistantMessage(turn.assistantMessage()));
+            }
+        }
+        return messages;
+    }
+
+    private void drainLoop() {
+        while (running || !queue.isEmpty()) {
+            try {
+                ChatTurn first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<ChatTurn> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Unexpected error in chat turn writer: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private void write(List<ChatTurn> batch) {
+        flushTimer.record(() -> {
+            List<ChatTurn> saved = saveMessages(batch);
+            saveToVectorStore(saved);
+            saved.forEach(this::clearPending);
+            conversationSummarizer.scheduleIfNeeded(saved.stream().map(ChatTurn::chatId).distinct().toList());
+        });
+    }
+
+    private List<ChatTurn> saveMessages(List<ChatTurn> batch) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> batch.forEach(this::persistTurn));
+            persistedTurns.increment(batch.size());
+            log.debug("Persisted {} chat turns in one batch", batch.size());
+            return batch;
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                markFailed(batch.get(0), e);
+                return List.of();
+            }
+            // One bad turn (e.g. its chat was deleted meanwhile) must not lose the rest of the batch
+            log.warn("Batch insert of {} chat turns failed, retrying one by one: {}", batch.size(), e.getMessage());
+            List<ChatTurn> saved = new ArrayList<>();
+            for (ChatTurn turn : batch) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> persistTurn(turn));
+                    persistedTurns.increment();
+                    saved.add(turn);
+                } catch (Exception turnError) {
+                    markFailed(turn, turnError);
+                }
+            }
+            return saved;
+        }
+    }
+
+    private void persistTurn(ChatTurn turn) {
+        // Auditing reads the current user, so persist under the context of the user who sent the turn.
+        // Inserts are only flushed at commit, which lets Hibernate batch the whole group.
+        SecurityContext previous = SecurityContextHolder.getContext();
+        if (turn.securityContext() != null) {
+            SecurityContextHolder.setContext(turn.securityContext());
+        }
+        try {
+            chatMessageRepository.save(message(turn.chatId(), turn.userMessage(), MessageType.USER));
+            if (turn.assistantMessage() != null) {
+                chatMessageRepository.save(message(turn.chatId(), turn.assistantMessage(), MessageType.ASSISTANT));
+            }
+        } finally {
+            SecurityContextHolder.setContext(previous);
+        }
+    }
+
+    private ChatMessage message(UUID chatId, String content, MessageType type) {
+        // Ownership was checked on the request path; a reference avoids reloading the chat for every insert
+        ChatMessage message = new ChatMessage();
+        message.setChat(chatRepository.getReferenceById(chatId));
+        message.setContent(content);
+        message.setType(type);
+        return message;
+    }
+
+    private void saveToVectorStore(List<ChatTurn> turns) {
+        if (turns.isEmpty()) {
+            return;
+        }
+        List<Document> documents = new ArrayList<>();
+        for (ChatTurn turn : turns) {
+            documents.add(memoryDocument(turn, turn.userMessage(), MessageType.USER));
+            if (turn.assistantMessage() != null) {
+                documents.add(memoryDocument(turn, turn.assistantMessage(), MessageType.ASSISTANT));
+            }
+        }
+        try {
+            // One embedding request and one upsert for the whole batch
+            chatVectorStore.add(documents);
+            log.debug("Saved {} messages to chat memory vector store", documents.size());
+        } catch (Exception e) {
+            log.error("Failed to save {} messages to chat memory vector store: {}", documents.size(), e.getMessage());
+        }
+    }
+
+    private Document memoryDocument(ChatTurn turn, String text, MessageType type) {
+        return Document.builder()
+                .text(text)
+                .metadata(VectorService.CONVERSATION_ID_KEY, turn.chatId().toString())
+                .metadata(VectorService.USER_ID_KEY, String.valueOf(turn.userId()))
+                .metadata("message_type", type.toString())
+                .metadata("timestamp", String.valueOf(turn.timestamp()))
+                .build();
+    }
+
+    private void markFailed(ChatTurn turn, Exception e) {
+        failedTurns.increment();
+        clearPending(turn);
+        log.error("Failed to persist chat turn for chat {}: {}", turn.chatId(), e.getMessage(), e);
+    }
+
+    private void clearPending(ChatTurn turn) {
+        pendingByChat.computeIfPresent(turn.chatId(), (id, pending) -> {
+            pending.remove(turn);
+            return pending.isEmpty() ? null : pending;
+        });
+    }
+}
@@ -0,0 +1,162 @@
+package com.moksh.kontext.ai.service;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingResult;
+import com.knuddels.jtokkit.api.EncodingType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fits prompt context into a token budget.
+ * Tokens are counted locally with the o200k encoding used by the gpt-4o family. Each section (agent instruction,
+ * knowledge chunks, chat history) has its own budget; items are taken in priority order, the first item that does
+ * not fit is truncated if enough budget is left to be useful, and everything after it is dropped.
+ */
+@Service
+@Slf4j
+public class ContextPacker {
+
+    public static final String SECTION_INSTRUCTION = "instruction";
+    public static final String SECTION_KNOWLEDGE = "knowledge";
+    public static final String SECTION_HISTORY = "history";
+
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.O200K_BASE);
+    private final MeterRegistry meterRegistry;
+
+    @Value("${kontext.ai.context.budget.instruction-tokens:800}")
+    private int instructionTokens;
+
+    @Value("${kontext.ai.context.budget.knowledge-tokens:3500}")
+    private int knowledgeTokens;
+
+    @Value("${kontext.ai.context.budget.history-tokens:1700}")
+    private int historyTokens;
+
+    @Value("${kontext.ai.context.min-truncated-tokens:64}")
+    private int minTruncatedTokens;
+
+    public ContextPacker(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public int countTokens(String text) {
+        return text == null || text.isEmpty() ? 0 : encoding.countTokens(text);
+    }
+
+    public String packInstruction(String instruction) {
+        if (instruction == null || instruction.isBlank()) {
+            return instruction;
+        }
+        int tokens = countTokens(instruction);
+        String packed = tokens <= instructionTokens ? instruction : truncate(instruction, instructionTokens);
+        record(SECTION_INSTRUCTION, Math.min(tokens, instructionTokens), tokens > instructionTokens ? 1 : 0);
+        return packed;
+    }
+
+    /**
+     * Packs knowledge chunks in the order given, which the retrieval stage has already ranked and diversified,
+     * so the chunks it placed last are the ones dropped or cut.
+     */
+    public List<Document> packKnowledge(List<Document> documents) {
+        if (documents == null || documents.isEmpty()) {
+            return List.of();
+        }
+
+        List<Document> packed = new ArrayList<>();
+        int remaining = knowledgeTokens;
+        int truncated = 0;
+        for (Document document : documents) {
+            String text = document.getText();
+            int tokens = countTokens(text);
+            if (tokens <= remaining) {
+                packed.add(document);
+                remaining -= tokens;
+            } else {
+                if (remaining >= minTruncatedTokens) {
+                    packed.add(Document.builder()
+                            .id(document.getId())
+                            .text(truncate(text, remaining))
+                            .metadata(document.getMetadata())
+                            .score(document.getScore())
+                            .build());
+                    remaining = 0;
+                    truncated = 1;
+                }
+                break;
+            }
+        }
+        record(SECTION_KNOWLEDGE, knowledgeTokens - remaining, documents.size() - packed.size() + truncated);
+        return packed;
+    }
+
+    /**
+     * Packs history messages in the order given, which callers pass highest priority first.
+     */
+    public List<Message> packHistory(List<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return List.of();
+        }
+        List<Message> packed = new ArrayList<>();
+        int remaining = historyTokens;
+        int truncated = 0;
+        for (Message message : messages) {
+            int tokens = countTokens(message.getText());
+            if (tokens <= remaining) {
+                packed.add(message);
+                remaining -= tokens;
+            } else {
+                if (remaining >= minTruncatedTokens) {
+                    packed.add(withText(message, truncate(message.getText(), remaining)));
+                    remaining = 0;
+                    truncated = 1;
+                }
+                break;
+            }
+        }
+        record(SECTION_HISTORY, historyTokens - remaining, messages.size() - packed.size() + truncated);
+        return packed;
+    }
+
+    private String truncate(String text, int maxTokens) {
+        EncodingResult result = encoding.encode(text, maxTokens);
+        return encoding.decode(result.getTokens());
+    }
+
+    private Message withText(Message message, String text) {
+        return switch (message.getMessageType()) {
+            case USER -> new UserMessage(text);
+            case ASSISTANT -> new AssistantMessage(text);
+            case SYSTEM -> new SystemMessage(text);
+            default -> message;
+        };
+    }
+
+    private void record(String section, int packedTokens, int trimmedItems) {
+        DistributionSummary.builder("kontext.ai.context.tokens")
+                .description("Tokens packed into the prompt per section")
+                .tag("section", section)
+                .register(meterRegistry)
+                .record(packedTokens);
+        if (trimmedItems > 0) {
+            Counter.builder("kontext.ai.context.trimmed")
+                    .description("Context items dropped or truncated to stay within the token budget")
+                    .tag("section", section)
+                    .register(meterRegistry)
+                    .increment(trimmedItems);
+            log.debug("Context packer trimmed {} item(s) from section {}", trimmedItems, section);
+        }
+    }
+}
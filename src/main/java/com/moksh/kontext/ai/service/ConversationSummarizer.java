@@ -0,0 +1,209 @@
+package com.moksh.kontext.ai.service;
+
+import com.moksh.kontext.ai.dto.ConversationSummary;
+import com.moksh.kontext.ai.limiter.ModelCallTenant;
+import com.moksh.kontext.chat.entity.Chat;
+import com.moksh.kontext.chat.entity.ChatMessage;
+import com.moksh.kontext.chat.repository.ChatMessageRepository;
+import com.moksh.kontext.chat.repository.ChatRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps a rolling summary per chat so the history sent with each turn stays bounded.
+ * After turns are persisted, a chat whose unsummarized messages exceed the trigger budget has its older messages
+ * folded into the stored summary by a small model, leaving the most recent messages verbatim. This runs on a
+ * background executor, never on the request path; the retrieval stage then sends the summary plus only the
+ * messages created after it.
+ */
+@Service
+@Slf4j
+public class ConversationSummarizer {
+
+    private static final PromptTemplate SUMMARY_TEMPLATE = new PromptTemplate("""
+            You maintain a running summary of a conversation between a user and an assistant.
+            Merge the new messages into the existing summary. Keep facts, decisions, names, numbers, preferences
+            and open questions the user may refer back to; drop greetings, filler and repetition. Write in the
+            third person and answer with the updated summary only.
+
+            Existing summary:
+            {summary}
+
+            New messages:
+            {messages}
+            """);
+
+    private final ChatRepository chatRepository;
+    private final ChatMessageRepository chatMessageRepository;
+    private final ChatClient summaryChatClient;
+    private final ContextPacker contextPacker;
+    private final Executor executor;
+    private final Set<UUID> inProgress = ConcurrentHashMap.newKeySet();
+
+    private final Counter summaries;
+    private final Counter failures;
+    private final Timer summaryTimer;
+
+    @Value("${kontext.ai.memory.summary.enabled:true}")
+    private boolean enabled;
+
+    @Value("${kontext.ai.memory.summary.trigger-tokens:1200}")
+    private int triggerTokens;
+
+    @Value("${kontext.ai.memory.summary.keep-recent-messages:4}")
+    private int keepRecentMessages;
+
+    @Value("${kontext.ai.memory.summary.max-input-tokens:6000}")
+    private int maxInputTokens;
+
+    @Autowired
+    public ConversationSummarizer(
+            ChatRepository chatRepository,
+            ChatMessageRepository chatMessageRepository,
+            @Qualifier("summaryChatClient") ChatClient summaryChatClient,
+            ContextPacker contextPacker,
+            @Qualifier("taskExecutor") Executor executor,
+            MeterRegistry meterRegistry
+    ) {
+        this.chatRepository = chatRepository;
+        this.chatMessageRepository = chatMessageRepository;
+        this.summaryChatClient = summaryChatClient;
+        this.contextPacker = contextPacker;
+        this.executor = executor;
+        this.summaries = Counter.builder("kontext.ai.memory.summaries")
+                .description("Rolling conversation summaries written")
+                .register(meterRegistry);
+        this.failures = Counter.builder("kontext.ai.memory.summaries.failed")
+                .description("Rolling conversation summaries that could not be produced")
+                .register(meterRegistry);
+        this.summaryTimer = Timer.builder("kontext.ai.memory.summary.duration")
+                .description("Time to fold older messages into a conversation summary")
+                .register(meterRegistry);
+    }
+
+    /**
+     * The stored summary of the chat, or {@code null} if it has none or summaries are disabled.
+     */
+    public ConversationSummary currentSummary(UUID chatId) {
+        if (!enabled) {
+            return null;
+        }
+        return chatRepository.findById(chatId)
+                .filter(chat -> chat.getSummary() != null && chat.getSummarizedUntil() != null)
+                .map(chat -> new ConversationSummary(chat.getSummary(), chat.getSummarizedUntil()))
+                .orElse(null);
+    }
+
+    /**
+     * Checks the chats in the background and refreshes the summary of those over the trigger budget.
+     * A chat that is already being summarized is skipped; its next turn checks again.
+     */
+    public void scheduleIfNeeded(Collection<UUID> chatIds) {
+        if (!enabled) {
+            return;
+        }
+        for (UUID chatId : chatIds) {
+            if (!inProgress.add(chatId)) {
+                continue;
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        summarizeIfNeeded(chatId);
+                    } catch (Exception e) {
+                        failures.increment();
+                        log.warn("Failed to summarize chat {}: {}", chatId, e.getMessage());
+                    } finally {
+                        inProgress.remove(chatId);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inProgress.remove(chatId);
+                log.debug("Executor is saturated, skipping summary check for chat {}", chatId);
+            }
+        }
+    }
+
+    private void summarizeIfNeeded(UUID chatId) {
+        Chat chat = chatRepository.findById(chatId).orElse(null);
+        if (chat == null) {
+            return;
+        }
+        List<ChatMessage> unsummarized = chat.getSummarizedUntil() == null
+                ? chatMessageRepository.findByChatIdOrderByCreatedAtAsc(chatId)
+                : chatMessageRepository.findByChatIdAndCreatedAtAfter(chatId, chat.getSummarizedUntil());
+        if (unsummarized.size() <= keepRecentMessages) {
+            return;
+        }
+        int unsummarizedTokens = unsummarized.stream()
+                .mapToInt(message -> contextPacker.countTokens(message.getContent()))
+                .sum();
+        if (unsummarizedTokens <= triggerTokens) {
+            return;
+        }
+
+        // Fold the oldest messages first; a long backlog, e.g. an old chat, is worked off over several turns
+        List<ChatMessage> toFold = new ArrayList<>();
+        int foldTokens = 0;
+        for (ChatMessage message : unsummarized.subList(0, unsummarized.size() - keepRecentMessages)) {
+            int tokens = contextPacker.countTokens(message.getContent());
+            if (!toFold.isEmpty() && foldTokens + tokens > maxInputTokens) {
+                break;
+            }
+            toFold.add(message);
+            foldTokens += tokens;
+        }
+
+        String summary = summaryTimer.record(() -> summarize(chatId, chat.getSummary(), toFold));
+        if (summary == null || summary.isBlank()) {
+            log.warn("Summary model returned no text for chat {}", chatId);
+            failures.increment();
+            return;
+        }
+
+        LocalDateTime summarizedUntil = toFold.get(toFold.size() - 1).getCreatedAt();
+        if (chatRepository.updateSummary(chatId, summary.strip(), summarizedUntil) == 0) {
+            log.debug("Chat {} already has a newer summary, discarding this one", chatId);
+            return;
+        }
+        summaries.increment();
+        log.debug("Folded {} messages ({} tokens) of chat {} into its summary",
+                toFold.size(), foldTokens, chatId);
+    }
+
+    private String summarize(UUID chatId, String existingSummary, List<ChatMessage> messages) {
+        StringBuilder transcript = new StringBuilder();
+        for (ChatMessage message : messages) {
+            transcript.append(message.getType() == MessageType.ASSISTANT ? "Assistant: " : "User: ")
+                    .append(message.getContent())
+                    .append(System.lineSeparator());
+        }
+        String prompt = SUMMARY_TEMPLATE.render(Map.of(
+                "summary", existingSummary != null ? existingSummary : "(none)",
+                "messages", transcript.toString()));
+
+        // Fair-queued per chat in the background pool, since there is no request user on this thread
+        return ModelCallTenant.callAs(chatId.toString(),
+                () -> summaryChatClient.prompt().user(prompt).call().content());
+    }
+}
@@ -0,0 +1,147 @@
+package com.moksh.kontext.ai.service;
+
+import com.moksh.kontext.ai.index.SimHash;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Post-retrieval selection of knowledge chunks.
+ * Near-duplicates are dropped first by SimHash distance, then maximal marginal relevance picks the final set,
+ * trading relevance against similarity to the chunks already picked. Chunk-to-chunk similarity is the cosine of
+ * the stored vectors when both are known and the SimHash similarity otherwise, e.g. for lexical-only hits.
+ */
+@Component
+@Slf4j
+public class DiversityReranker {
+
+    private final Counter duplicatesSuppressed;
+
+    @Value("${kontext.ai.retrieval.diversity.enabled:true}")
+    private boolean enabled;
+
+    @Value("${kontext.ai.retrieval.diversity.overfetch-factor:4}")
+    private int overfetchFactor;
+
+    @Value("${kontext.ai.retrieval.diversity.mmr-lambda:0.7}")
+    private double mmrLambda;
+
+    @Value("${kontext.ai.retrieval.diversity.duplicate-max-distance:3}")
+    private int duplicateMaxDistance;
+
+    public DiversityReranker(MeterRegistry meterRegistry) {
+        this.duplicatesSuppressed = Counter.builder("kontext.ai.retrieval.duplicates.suppressed")
+                .description("Retrieved knowledge chunks dropped as near-duplicates of a more relevant chunk")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Number of candidates to fetch for a final selection of {@code topK}.
+     */
+    public int candidateCount(int topK) {
+        return enabled ? topK * Math.max(1, overfetchFactor) : topK;
+    }
+
+    /**
+     * Selects up to {@code topK} chunks from {@code ranked}, which is ordered most relevant first.
+     *
+     * @param embeddings stored vectors by document id; documents without one fall back to SimHash similarity
+     */
+    public List<Document> select(List<Document> ranked, Map<String, float[]> embeddings, int topK) {
+        if (!enabled || ranked.size() <= 1) {
+            return ranked.size() > topK ? ranked.subList(0, topK) : ranked;
+        }
+
+        List<Candidate> candidates = suppressDuplicates(ranked, embeddings);
+
+        List<Candidate> selected = new ArrayList<>(Math.min(topK, candidates.size()));
+        List<Candidate> remaining = new ArrayList<>(candidates);
+        while (selected.size() < topK && !remaining.isEmpty()) {
+            Candidate best = null;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (Candidate candidate : remaining) {
+                double redundancy = 0.0;
+                for (Candidate picked : selected) {
+                    redundancy = Math.max(redundancy, similarity(candidate, picked));
+                }
+                double score = mmrLambda * candidate.relevance() - (1 - mmrLambda) * redundancy;
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = candidate;
+                }
+            }
+            selected.add(best);
+            remaining.remove(best);
+        }
+
+        log.debug("Selected {} of {} knowledge candidates ({} near-duplicates dropped)",
+                selected.size(), ranked.size(), ranked.size() - candidates.size());
+        return selected.stream().map(Candidate::document).toList();
+    }
+
+    private List<Candidate> suppressDuplicates(List<Document> ranked, Map<String, float[]> embeddings) {
+        double maxScore = ranked.stream().mapToDouble(DiversityReranker::scoreOf).max().orElse(0.0);
+        double minScore = ranked.stream().mapToDouble(DiversityReranker::scoreOf).min().orElse(0.0);
+
+        List<Candidate> kept = new ArrayList<>(ranked.size());
+        int dropped = 0;
+        for (Document document : ranked) {
+            long fingerprint = SimHash.fingerprint(document.getText());
+            boolean duplicate = kept.stream()
+                    .anyMatch(other -> SimHash.distance(fingerprint, other.fingerprint()) <= duplicateMaxDistance);
+            if (duplicate) {
+                dropped++;
+                continue;
+            }
+            // Vector and fused scores live on different scales, so relevance is the score rescaled to [0, 1]
+            double relevance = normalize(scoreOf(document), minScore, maxScore);
+            kept.add(new Candidate(document, embeddings.get(document.getId()), fingerprint, relevance));
+        }
+        duplicatesSuppressed.increment(dropped);
+        return kept;
+    }
+
+    private static double similarity(Candidate first, Candidate second) {
+        if (first.embedding() != null && second.embedding() != null) {
+            return cosineSimilarity(first.embedding(), second.embedding());
+        }
+        return SimHash.similarity(first.fingerprint(), second.fingerprint());
+    }
+
+    private static double scoreOf(Document document) {
+        return document.getScore() != null ? document.getScore() : 0.0;
+    }
+
+    private static double normalize(double value, double min, double max) {
+        return max > min ? (value - min) / (max - min) : 1.0;
+    }
+
+    private static double cosineSimilarity(float[] first, float[] second) {
+        if (first == null || second == null || first.length != second.length) {
+            return 0.0;
+        }
+        double dot = 0.0;
+        double firstNorm = 0.0;
+        double secondNorm = 0.0;
+        for (int i = 0; i < first.length; i++) {
+            dot += first[i] * second[i];
+            firstNorm += first[i] * first[i];
+            secondNorm += second[i] * second[i];
+        }
+        return firstNorm == 0.0 || secondNorm == 0.0 ? 0.0 : dot / (Math.sqrt(firstNorm) * Math.sqrt(secondNorm));
+    }
+
+    private record Candidate(Document document, float[] embedding, long fingerprint, double relevance) {
+    }
+}
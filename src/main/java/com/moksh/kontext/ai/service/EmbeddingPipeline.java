@@ -0,0 +1,259 @@
+package com.moksh.kontext.ai.service;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.moksh.kontext.ai.limiter.ModelCallTenant;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+/**
+ * Ingestion engine for knowledge chunks.
+ * Chunks are cut into batches that fit the embedding API's limits by count and by tokens, embedded in parallel on
+ * a dedicated executor, and every batch is upserted as soon as its embeddings arrive, so reading, embedding and
+ * writing overlap. A failed batch is retried on its own with exponential backoff; only a batch that keeps failing
+ * fails the ingestion. Each ingestion has a fixed number of batches in flight, which also bounds its memory use.
+ */
+@Service
+@Slf4j
+public class EmbeddingPipeline {
+
+    // The tokenizer of OpenAI's embedding models
+    private final Encoding encoding = Encodings.newLazyEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+
+    private final EmbeddingModel embeddingModel;
+    private final VectorService vectorService;
+    private final TaskExecutor executor;
+    private final Counter retriedBatches;
+    private final Counter failedBatches;
+
+    @Value("${kontext.ai.ingestion.embedding.max-batch-tokens:16000}")
+    private int maxBatchTokens;
+
+    @Value("${kontext.ai.ingestion.embedding.max-batch-size:128}")
+    private int maxBatchSize;
+
+    @Value("${kontext.ai.ingestion.embedding.max-concurrency:4}")
+    private int maxConcurrency;
+
+    @Value("${kontext.ai.ingestion.embedding.max-attempts:4}")
+    private int maxAttempts;
+
+    @Value("${kontext.ai.ingestion.embedding.initial-backoff-ms:1000}")
+    private long initialBackoffMs;
+
+    public EmbeddingPipeline(@Qualifier("embeddingModel") EmbeddingModel embeddingModel,
+                             VectorService vectorService,
+                             @Qualifier("embeddingExecutor") TaskExecutor executor,
+                             MeterRegistry meterRegistry) {
+        this.embeddingModel = embeddingModel;
+        this.vectorService = vectorService;
+        this.executor = executor;
+        this.retriedBatches = Counter.builder("kontext.ai.ingestion.batches")
+                .description("Failed ingestion batch attempts, by whether the batch was retried or given up")
+                .tag("outcome", "retried")
+                .register(meterRegistry);
+        this.failedBatches = Counter.builder("kontext.ai.ingestion.batches")
+                .description("Failed ingestion batch attempts, by whether the batch was retried or given up")
+                .tag("outcome", "failed")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts ingesting one knowledge item. Must be called under the item's {@link ModelCallTenant}, which the
+     * batches are embedded as.
+     *
+     * @param onProgress called with the number of chunks stored so far after every stored batch
+     */
+    public Ingestion start(UUID projectId, UUID knowledgeId, IntConsumer onProgress) {
+        return new Ingestion(projectId, knowledgeId, ModelCallTenant.current(), onProgress);
+    }
+
+    /**
+     * One knowledge item being ingested. Chunks are submitted from a single thread; {@link #await} then waits for
+     * every batch to be stored.
+     */
+    public final class Ingestion {
+
+        private final UUID projectId;
+        private final UUID knowledgeId;
+        private final String tenant;
+        private final IntConsumer onProgress;
+        private final Semaphore inFlight = new Semaphore(maxConcurrency);
+        private final AtomicInteger stored = new AtomicInteger();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        private Ingestion(UUID projectId, UUID knowledgeId, String tenant, IntConsumer onProgress) {
+            this.projectId = projectId;
+            this.knowledgeId = knowledgeId;
+            this.tenant = tenant;
+            this.onProgress = onProgress;
+        }
+
+        /**
+         * Queues chunks for embedding. Blocks while the ingestion already has its maximum of batches in flight.
+         *
+         * @return the chunks as they will be stored, with the scope metadata applied
+         */
+        public List<Document> submit(List<Document> documents) {
+            List<Document> scoped = vectorService.withScope(projectId, knowledgeId, documents);
+            for (List<Document> batch : tokenBatches(scoped)) {
+                dispatch(batch, null);
+            }
+            return scoped;
+        }
+
+        /**
+         * Queues chunks that come with their embeddings; they are only upserted.
+         *
+         * @return the chunks as they will be stored, with the scope metadata applied
+         */
+        public List<Document> submitEmbedded(List<Document> documents, List<float[]> embeddings) {
+            List<Document> scoped = vectorService.withScope(projectId, knowledgeId, documents);
+            for (int from = 0; from < scoped.size(); from += maxBatchSize) {
+                int to = Math.min(from + maxBatchSize, scoped.size());
+                dispatch(new ArrayList<>(scoped.subList(from, to)), new ArrayList<>(embeddings.subList(from, to)));
+            }
+            return scoped;
+        }
+
+        /**
+         * Waits for every submitted batch to be stored.
+         *
+         * @return the number of chunks stored
+         */
+        public int await() {
+            try {
+                inFlight.acquire(maxConcurrency);
+                inFlight.release(maxConcurrency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Ingestion of knowledge " + knowledgeId + " was interrupted", e);
+            }
+            throwIfFailed();
+            return stored.get();
+        }
+
+        private void dispatch(List<Document> batch, @Nullable List<float[]> embeddings) {
+            // Stop reading as soon as a batch has failed for good; the whole item is retried
+            throwIfFailed();
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Ingestion of knowledge " + knowledgeId + " was interrupted", e);
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        ModelCallTenant.callAs(tenant, () -> {
+                            store(batch, embeddings);
+                            return null;
+                        });
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                throw new RuntimeException("Embedding executor rejected a batch of knowledge " + knowledgeId, e);
+            }
+        }
+
+        private void store(List<Document> batch, @Nullable List<float[]> precomputed) {
+            List<float[]> embeddings = precomputed;
+            for (int attempt = 1; ; attempt++) {
+                // Once another batch has failed the ingestion, this batch's result would be discarded anyway, so
+                // don't spend another model call or upsert on it, including after a backoff
+                throwIfFailed();
+                try {
+                    if (embeddings == null) {
+                        embeddings = embeddingModel.embed(batch.stream().map(Document::getText).toList());
+                    }
+                    vectorService.upsertEmbeddedDocuments(projectId, batch, embeddings);
+                    synchronized (this) {
+                        // Serialized so progress is never reported out of order
+                        onProgress.accept(stored.addAndGet(batch.size()));
+                    }
+                    return;
+                } catch (Exception e) {
+                    if (failure.get() != null) {
+                        throw e;
+                    }
+                    if (attempt >= maxAttempts) {
+                        failedBatches.increment();
+                        log.error("Giving up on a batch of {} chunks of knowledge {} after {} attempts",
+                                batch.size(), knowledgeId, attempt, e);
+                        throw e;
+                    }
+                    retriedBatches.increment();
+                    long backoffMs = initialBackoffMs << (attempt - 1);
+                    backoffMs += ThreadLocalRandom.current().nextLong(backoffMs / 2 + 1);
+                    log.warn("Batch of {} chunks of knowledge {} failed on attempt {}, retrying in {}ms: {}",
+                            batch.size(), knowledgeId, attempt, backoffMs, e.getMessage());
+                    sleep(backoffMs);
+                }
+            }
+        }
+
+        private void throwIfFailed() {
+            Throwable error = failure.get();
+            if (error != null) {
+                throw new RuntimeException("Failed to store chunks of knowledge " + knowledgeId, error);
+            }
+        }
+    }
+
+    /**
+     * Greedy split in submission order: a batch is closed when the next chunk would exceed the token or count
+     * limit. A single chunk above the token limit gets a batch of its own.
+     */
+    private List<List<Document>> tokenBatches(List<Document> documents) {
+        List<List<Document>> batches = new ArrayList<>();
+        List<Document> batch = new ArrayList<>();
+        int batchTokens = 0;
+        for (Document document : documents) {
+            int tokens = document.getText() == null ? 0 : encoding.countTokens(document.getText());
+            if (!batch.isEmpty() && (batchTokens + tokens > maxBatchTokens || batch.size() >= maxBatchSize)) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchTokens = 0;
+            }
+            batch.add(document);
+            batchTokens += tokens;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while backing off", e);
+        }
+    }
+}
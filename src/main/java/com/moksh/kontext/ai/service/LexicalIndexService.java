@@ -0,0 +1,199 @@
+package com.moksh.kontext.ai.service;
+
+import com.moksh.kontext.ai.cache.SemanticResponseCache;
+import com.moksh.kontext.ai.index.Bm25Index;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Per-project BM25 indexes held in process, queried alongside the vector search.
+ * An index is built lazily from Qdrant on the first query for a project and is kept in step with ingestion
+ * and deletion on this instance. Every index is stamped with the project's knowledge-set version, so a change
+ * made on another instance shows up as a version mismatch and triggers a background rebuild; until that
+ * finishes the previous index keeps serving.
+ * At most {@code max-projects} indexes are held, the least recently queried one being dropped first, and an
+ * index not queried for {@code idle-eviction-minutes} is dropped too; a dropped project is rebuilt on its next
+ * query.
+ */
+@Service
+@Slf4j
+public class LexicalIndexService {
+
+    private static final int SCROLL_PAGE_SIZE = 256;
+    private static final long IDLE_SWEEP_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final VectorSearchService vectorSearchService;
+    private final SemanticResponseCache semanticResponseCache;
+    private final AsyncTaskExecutor retrievalExecutor;
+    private final AtomicLong lastIdleSweep = new AtomicLong();
+
+    // Access-ordered, so the least recently used project is the eldest entry and the first one evicted
+    private final Map<UUID, ProjectIndex> indexes = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<UUID, ProjectIndex> eldest) {
+                    return size() > maxProjects;
+                }
+            });
+
+    @Value("${kontext.ai.retrieval.lexical.enabled:true}")
+    private boolean enabled;
+
+    @Value("${kontext.ai.retrieval.lexical.max-projects:200}")
+    private int maxProjects;
+
+    @Value("${kontext.ai.retrieval.lexical.idle-eviction-minutes:60}")
+    private long idleEvictionMinutes;
+
+    @Autowired
+    public LexicalIndexService(
+            VectorSearchService vectorSearchService,
+            SemanticResponseCache semanticResponseCache,
+            @Qualifier("ragRetrievalExecutor") AsyncTaskExecutor retrievalExecutor
+    ) {
+        this.vectorSearchService = vectorSearchService;
+        this.semanticResponseCache = semanticResponseCache;
+        this.retrievalExecutor = retrievalExecutor;
+    }
+
+    private static class ProjectIndex {
+        private volatile Bm25Index index = new Bm25Index();
+        private volatile long version = -1;
+        private volatile long lastQueriedAt = System.currentTimeMillis();
+        private final AtomicBoolean rebuilding = new AtomicBoolean();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether this instance holds an index for the project that ingestion should keep up to date.
+     */
+    public boolean isBuilt(UUID projectId) {
+        return enabled && indexes.containsKey(projectId);
+    }
+
+    public List<Document> search(UUID projectId, String query, int topK) {
+        if (!enabled) {
+            return List.of();
+        }
+        long now = System.currentTimeMillis();
+        evictIdle(now);
+        ProjectIndex projectIndex = indexes.computeIfAbsent(projectId, id -> new ProjectIndex());
+        projectIndex.lastQueriedAt = now;
+        long currentVersion = currentVersion(projectId);
+        if (currentVersion != projectIndex.version) {
+            scheduleRebuild(projectId, projectIndex, currentVersion);
+        }
+        return projectIndex.index.search(query, topK);
+    }
+
+    /**
+     * Adds freshly ingested chunks in place of any the item had from an earlier ingestion. Must be called after the
+     * knowledge-set version has been bumped for them.
+     */
+    public void addKnowledge(UUID projectId, UUID knowledgeId, List<Document> documents) {
+        apply(projectId, "add knowledge " + knowledgeId, index -> {
+            index.removeKnowledge(knowledgeId.toString());
+            documents.forEach(index::add);
+        });
+    }
+
+    /**
+     * Drops the chunks of a deleted knowledge item. Must be called after the knowledge-set version has been bumped.
+     */
+    public void removeKnowledge(UUID projectId, UUID knowledgeId) {
+        apply(projectId, "remove knowledge " + knowledgeId, index -> index.removeKnowledge(knowledgeId.toString()));
+    }
+
+    private void apply(UUID projectId, String change, Consumer<Bm25Index> mutation) {
+        ProjectIndex projectIndex = indexes.get(projectId);
+        if (!enabled || projectIndex == null) {
+            // Not built yet on this instance; the first query builds it with this change included
+            return;
+        }
+        long currentVersion = currentVersion(projectId);
+        synchronized (projectIndex) {
+            if (!projectIndex.rebuilding.get() && projectIndex.version == currentVersion - 1) {
+                mutation.accept(projectIndex.index);
+                projectIndex.version = currentVersion;
+                log.debug("Lexical index of project {} updated in place ({}), version {}",
+                        projectId, change, currentVersion);
+                return;
+            }
+        }
+        // Missed an intermediate change; the next query sees the version mismatch and rebuilds
+        log.debug("Lexical index of project {} is behind, leaving '{}' to a rebuild", projectId, change);
+    }
+
+    /**
+     * Drops indexes whose project has not been queried for the idle period, at most once a minute.
+     */
+    private void evictIdle(long now) {
+        long lastSweep = lastIdleSweep.get();
+        if (now - lastSweep < IDLE_SWEEP_INTERVAL_MS || !lastIdleSweep.compareAndSet(lastSweep, now)) {
+            return;
+        }
+        long cutoff = now - TimeUnit.MINUTES.toMillis(idleEvictionMinutes);
+        int before;
+        int after;
+        synchronized (indexes) {
+            before = indexes.size();
+            indexes.values().removeIf(projectIndex -> projectIndex.lastQueriedAt < cutoff);
+            after = indexes.size();
+        }
+        if (after < before) {
+            log.debug("Evicted {} idle lexical indexes, {} remain", before - after, after);
+        }
+    }
+
+    private void scheduleRebuild(UUID projectId, ProjectIndex projectIndex, long targetVersion) {
+        if (!projectIndex.rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        retrievalExecutor.execute(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                Bm25Index rebuilt = new Bm25Index();
+                vectorSearchService.scrollKnowledge(projectId, SCROLL_PAGE_SIZE, page -> page.forEach(rebuilt::add));
+                synchronized (projectIndex) {
+                    projectIndex.index = rebuilt;
+                    projectIndex.version = targetVersion;
+                }
+                log.info("Rebuilt lexical index of project {} with {} chunks in {}ms (version {})",
+                        projectId, rebuilt.size(), System.currentTimeMillis() - start, targetVersion);
+            } catch (Exception e) {
+                log.warn("Failed to rebuild lexical index of project {}: {}", projectId, e.getMessage());
+            } finally {
+                projectIndex.rebuilding.set(false);
+            }
+        });
+    }
+
+    private long currentVersion(UUID projectId) {
+        try {
+            return semanticResponseCache.knowledgeVersion(projectId);
+        } catch (Exception e) {
+            log.warn("Could not read knowledge version of project {}: {}", projectId, e.getMessage());
+            // Keep serving what is built rather than rebuilding on every query while the version is unreadable
+            ProjectIndex existing = indexes.get(projectId);
+            return existing != null && existing.version >= 0 ? existing.version : 0L;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.moksh.kontext.ai.service;
+
+import com.moksh.kontext.ai.index.LocalVectorStoreProperties;
+import com.moksh.kontext.chat.repository.ChatRepository;
+import com.moksh.kontext.config.AiConfig;
+import com.moksh.kontext.knowledge.repository.KnowledgeRepository;
+import io.qdrant.client.ConditionFactory;
+import io.qdrant.client.QdrantClient;
+import io.qdrant.client.ValueFactory;
+import io.qdrant.client.WithPayloadSelectorFactory;
+import io.qdrant.client.WithVectorsSelectorFactory;
+import io.qdrant.client.grpc.Collections.PayloadSchemaType;
+import io.qdrant.client.grpc.JsonWithInt;
+import io.qdrant.client.grpc.Points;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Creates the keyword payload indexes that the filtered vector searches rely on, and tags points stored before
+ * a filtered key was written with them: project_id on knowledge chunks, user_id on conversation memory.
+ * Index creation is idempotent in Qdrant, so this runs on every startup once the collections exist.
+ */
+@Service
+@ConditionalOnProperty(prefix = "kontext.ai.vector-store", name = "backend",
+        havingValue = LocalVectorStoreProperties.QDRANT, matchIfMissing = true)
+@Slf4j
+public class QdrantPayloadIndexService {
+
+    private static final long INDEX_TIMEOUT_SECONDS = 60;
+    private static final long BACKFILL_TIMEOUT_SECONDS = 30;
+    private static final int BACKFILL_PAGE_SIZE = 256;
+
+    private final QdrantClient qdrantClient;
+    private final KnowledgeRepository knowledgeRepository;
+    private final ChatRepository chatRepository;
+    private final Executor backfillExecutor;
+
+    @Value("${spring.ai.vectorstore.qdrant.collection-name:kontext_knowledge}")
+    private String knowledgeCollectionName;
+
+    // Until set, knowledge search also matches untagged chunks by the project's active knowledge IDs
+    private volatile boolean projectIdBackfillComplete;
+
+    // Until set, memory search also matches the conversation's points that carry no user_id
+    private volatile boolean userIdBackfillComplete;
+
+    public QdrantPayloadIndexService(QdrantClient qdrantClient,
+                                     KnowledgeRepository knowledgeRepository,
+                                     ChatRepository chatRepository,
+                                     @Qualifier("taskExecutor") Executor backfillExecutor) {
+        this.qdrantClient = qdrantClient;
+        this.knowledgeRepository = knowledgeRepository;
+        this.chatRepository = chatRepository;
+        this.backfillExecutor = backfillExecutor;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void createKnowledgeIndexes() {
+        ensureKeywordIndexes(knowledgeCollectionName,
+                List.of(VectorService.PROJECT_ID_KEY, VectorService.KNOWLEDGE_ID_KEY));
+        backfillExecutor.execute(this::backfillProjectIds);
+        backfillExecutor.execute(this::backfillUserIds);
+    }
+
+    public boolean isProjectIdBackfillComplete() {
+        return projectIdBackfillComplete;
+    }
+
+    public boolean isUserIdBackfillComplete() {
+        return userIdBackfillComplete;
+    }
+
+    public void ensureKeywordIndexes(String collectionName, List<String> fields) {
+        for (String field : fields) {
+            try {
+                qdrantClient.createPayloadIndexAsync(collectionName, field, PayloadSchemaType.Keyword,
+                                null, true, null, Duration.ofSeconds(INDEX_TIMEOUT_SECONDS))
+                        .get(INDEX_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                log.info("Ensured keyword payload index on {}.{}", collectionName, field);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while creating payload index on {}.{}", collectionName, field);
+                return;
+            } catch (Exception e) {
+                // Searches still work without the index, only slower, so don't fail startup
+                log.error("Failed to create payload index on {}.{}: {}", collectionName, field, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Tags knowledge chunks stored before ingestion wrote project_id with their project. Chunks of deleted
+     * knowledge are removed instead: the old active-knowledge filter hid them, the project filter would not.
+     */
+    void backfillProjectIds() {
+        if (backfill(knowledgeCollectionName, VectorService.PROJECT_ID_KEY, VectorService.KNOWLEDGE_ID_KEY,
+                knowledgeId -> parseUuid(knowledgeId)
+                        .flatMap(knowledgeRepository::findActiveProjectId)
+                        .map(UUID::toString))) {
+            projectIdBackfillComplete = true;
+        }
+    }
+
+    /**
+     * Tags conversation-memory points stored before user_id was written with the owner of their chat. Points of
+     * chats that no longer exist are removed; no memory search can reach them.
+     */
+    void backfillUserIds() {
+        if (backfill(AiConfig.CHAT_VECTOR_STORE, VectorService.USER_ID_KEY, VectorService.CONVERSATION_ID_KEY,
+                chatId -> parseUuid(chatId)
+                        .flatMap(chatRepository::findOwnerId)
+                        .map(UUID::toString))) {
+            userIdBackfillComplete = true;
+        }
+    }
+
+    /**
+     * One pass over the points that lack {@code missingKey}. Points are grouped by {@code sourceKey}, and each
+     * group is updated with one filtered call: tagged with the value {@code resolve} returns, or deleted when it
+     * returns nothing. Points without the source key cannot be attributed and are left alone. Every call only
+     * touches points still missing the key, so instances running the pass at the same time do not conflict.
+     *
+     * @return whether the pass went through the whole collection
+     */
+    boolean backfill(String collectionName, String missingKey, String sourceKey,
+                     Function<String, Optional<String>> resolve) {
+        Set<String> seen = new HashSet<>();
+        int tagged = 0;
+        int deleted = 0;
+        Points.PointId offset = null;
+        try {
+            do {
+                Points.ScrollPoints.Builder request = Points.ScrollPoints.newBuilder()
+                        .setCollectionName(collectionName)
+                        .setFilter(Points.Filter.newBuilder().addMust(ConditionFactory.isEmpty(missingKey)).build())
+                        .setLimit(BACKFILL_PAGE_SIZE)
+                        .setWithPayload(WithPayloadSelectorFactory.include(List.of(sourceKey)))
+                        .setWithVectors(WithVectorsSelectorFactory.enable(false));
+                if (offset != null) {
+                    request.setOffset(offset);
+                }
+                Points.ScrollResponse page = qdrantClient.scrollAsync(request.build())
+                        .get(BACKFILL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+                for (Points.RetrievedPoint point : page.getResultList()) {
+                    JsonWithInt.Value source = point.getPayloadMap().get(sourceKey);
+                    if (source == null || source.getKindCase() != JsonWithInt.Value.KindCase.STRING_VALUE
+                            || !seen.add(source.getStringValue())) {
+                        continue;
+                    }
+                    Points.Filter group = Points.Filter.newBuilder()
+                            .addMust(ConditionFactory.matchKeyword(sourceKey, source.getStringValue()))
+                            .addMust(ConditionFactory.isEmpty(missingKey))
+                            .build();
+                    Optional<String> value = resolve.apply(source.getStringValue());
+                    if (value.isPresent()) {
+                        Map<String, JsonWithInt.Value> payload = Map.of(missingKey, ValueFactory.value(value.get()));
+                        qdrantClient.setPayloadAsync(collectionName, payload, group, true, null,
+                                        Duration.ofSeconds(BACKFILL_TIMEOUT_SECONDS))
+                                .get(BACKFILL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                        tagged++;
+                    } else {
+                        qdrantClient.deleteAsync(collectionName, group)
+                                .get(BACKFILL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                        deleted++;
+                    }
+                }
+                offset = page.hasNextPageOffset() ? page.getNextPageOffset() : null;
+            } while (offset != null);
+
+            log.info("Backfilled {} on {}: tagged {} and removed {} groups by {}",
+                    missingKey, collectionName, tagged, deleted, sourceKey);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while backfilling {} on {}", missingKey, collectionName);
+            return false;
+        } catch (Exception e) {
+            // The next startup runs the pass again; until then the fallback filter keeps untagged points reachable
+            log.error("Failed to backfill {} on {}: {}", missingKey, collectionName, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private static Optional<UUID> parseUuid(String value) {
+        try {
+            return Optional.of(UUID.fromString(value));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -1,115 +1,328 @@
 package com.moksh.kontext.ai.service;
 
 import com.moksh.kontext.ai.advisor.KontextChatAdvisor;
+import com.moksh.kontext.ai.cache.SemanticResponseCache;
 import com.moksh.kontext.ai.advisor.UnifiedChatMemoryAdvisor;
-import com.moksh.kontext.chat.repository.ChatMessageRepository;
-import com.moksh.kontext.chat.service.ChatMessageService;
-import com.moksh.kontext.chat.service.ChatService;
-import com.moksh.kontext.knowledge.service.KnowledgeService;
-import com.moksh.kontext.project.service.ProjectService;
-import lombok.RequiredArgsConstructor;
+import com.moksh.kontext.ai.dto.ChatTurn;
+import com.moksh.kontext.ai.dto.QueryEmbeddingContext;
+import com.moksh.kontext.ai.dto.RetrievalResult;
+import com.moksh.kontext.ai.limiter.ModelCallTenant;
+import com.moksh.kontext.ai.routing.ModelRoute;
+import com.moksh.kontext.ai.routing.ModelRouter;
+import com.moksh.kontext.common.exception.BusinessException;
+import com.moksh.kontext.common.util.SecurityContextUtil;
 import lombok.extern.slf4j.Slf4j;
+import io.micrometer.observation.Observation;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.memory.ChatMemoryRepository;
-import org.springframework.ai.chat.model.ChatModel;
-import org.springframework.ai.chat.prompt.PromptTemplate;
-import org.springframework.ai.document.Document;
-import org.springframework.ai.rag.Query;
-import org.springframework.ai.rag.retrieval.search.DocumentRetriever;
-import org.springframework.ai.rag.retrieval.search.VectorStoreDocumentRetriever;
-import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.ai.vectorstore.filter.Filter;
-import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutor;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class RagChatService {
-    private final VectorStore vectorStore;
-    private final VectorStore chatVectorStore;
-    private final ChatModel chatModel;
-    private final KnowledgeService knowledgeService;
-    private final ChatMessageRepository chatMessageRepository;
-    private final ChatService chatService;
-    private final ProjectService projectService;
+    private final ChatClient ragChatClient;
+    private final EmbeddingModel embeddingModel;
+    private final RetrievalStage retrievalStage;
+    private final SemanticResponseCache semanticResponseCache;
+    private final ChatTurnWriter chatTurnWriter;
+    private final RagMetrics ragMetrics;
+    private final ChatRequestCoalescer chatRequestCoalescer;
+    private final ModelRouter modelRouter;
+    private final Executor taskExecutor;
 
     @Autowired
     public RagChatService(
-            VectorStore vectorStore,
-            @Qualifier("chat_vector_store") VectorStore chatVectorStore,
-            ChatModel chatModel,
-            KnowledgeService knowledgeService,
-            ChatMessageRepository chatMessageRepository,
-            ChatService chatService,
-            ProjectService projectService
+            @Qualifier("ragChatClient") ChatClient ragChatClient,
+            @Qualifier("queryEmbeddingModel") EmbeddingModel embeddingModel,
+            RetrievalStage retrievalStage,
+            SemanticResponseCache semanticResponseCache,
+            ChatTurnWriter chatTurnWriter,
+            RagMetrics ragMetrics,
+            ChatRequestCoalescer chatRequestCoalescer,
+            ModelRouter modelRouter,
+            @Qualifier("taskExecutor") Executor taskExecutor
     ) {
-        this.vectorStore = vectorStore;
-        this.chatVectorStore = chatVectorStore;
-        this.chatModel = chatModel;
-        this.knowledgeService = knowledgeService;
-        this.chatMessageRepository = chatMessageRepository;
-        this.chatService = chatService;
-        this.projectService = projectService;
+        this.ragChatClient = ragChatClient;
+        this.embeddingModel = embeddingModel;
+        this.retrievalStage = retrievalStage;
+        this.semanticResponseCache = semanticResponseCache;
+        this.chatTurnWriter = chatTurnWriter;
+        this.ragMetrics = ragMetrics;
+        this.chatRequestCoalescer = chatRequestCoalescer;
+        this.modelRouter = modelRouter;
+        this.taskExecutor = taskExecutor;
     }
 
     public String chatWithContext(String message, UUID projectId, UUID chatId, String userDisplayName) {
         log.info("Processing RAG chat request for project: {}", projectId);
 
         try {
-            // Retrieve project to get agent instruction
-            String agentInstruction = projectService.getProjectById(projectId).getAgentInstruction();
-            
-            String[] knowledgeIds = knowledgeService.getProjectKnowledge(projectId).stream()
-                    .map(project -> project.getId().toString()).toArray(String[]::new);
-            List<Document> documents = new ArrayList<>();
-            if (knowledgeIds.length != 0) {
-                Filter.Expression knowledgeFilter = new FilterExpressionBuilder()
-                        .in("knowledge_id", knowledgeIds)
-                        .build();
-
-                DocumentRetriever retriever = VectorStoreDocumentRetriever.builder()
-                        .vectorStore(vectorStore)
-                        .similarityThreshold(0.6)
-                        .topK(5)
-                        .filterExpression(knowledgeFilter)
-                        .build();
-
-                documents = retriever.retrieve(new Query(message));
-            }
-            ChatMessageService chatMessageService = new ChatMessageService(chatMessageRepository, chatService);
-
-            ChatClient ragChatClient = ChatClient.builder(chatModel)
-                    .defaultAdvisors(KontextChatAdvisor.builder(documents)
-                            .withAgentInstruction(agentInstruction)
-                            .withUserDisplayName(userDisplayName)
-                            .build())
-                    .defaultAdvisors(UnifiedChatMemoryAdvisor.builder()
-                            .chatVectorStore(chatVectorStore)
-                            .chatMessageService(chatMessageService)
-                            .conversationId(chatId.toString())
-                            .maxMessages(10)
-                            .vectorTopK(5)
-                            .vectorSimilarityThreshold(0.7)
-                            .build())
-                    .build();
-
-            String response = ragChatClient.prompt()
-                    .user(message)
-                    .call()
-                    .content();
+            UUID userId = SecurityContextUtil.getCurrentUserId();
+            ChatRequestCoalescer.Attachment attachment = chatRequestCoalescer.join(projectId, chatId, message,
+                    () -> Mono.fromCallable(() -> generateResponse(message, projectId, chatId, userId, userDisplayName))
+                            .flux());
+            // A leader generates on this thread; a follower waits for the leader's answer
+            String response = attachment.response().collect(Collectors.joining()).block();
 
             log.info("Generated RAG response for project: {}", projectId);
             return response;
+        } catch (BusinessException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error generating RAG response for project: {}", projectId, e);
             throw new RuntimeException("Failed to generate RAG response", e);
         }
     }
-}
\ No newline at end of file
+
+    private String generateResponse(String message, UUID projectId, UUID chatId, UUID userId,
+                                    String userDisplayName) {
+        QueryEmbeddingContext queryContext = embedQuery(message, projectId);
+
+        RetrievalResult retrieval = ragMetrics.observe("retrieval", projectId,
+                () -> retrievalStage.retrieve(projectId, chatId, userId, queryContext));
+        CacheLookup cacheLookup = ragMetrics.observe("cache_lookup", projectId,
+                () -> lookupCachedResponse(projectId, queryContext, retrieval));
+        if (cacheLookup.response() != null) {
+            persistCachedTurn(chatId, userId, message, cacheLookup.response());
+            log.info("Served cached RAG response for project: {}", projectId);
+            return cacheLookup.response();
+        }
+        ModelRoute route = modelRouter.route(projectId, message, retrieval);
+
+        long start = System.nanoTime();
+        ChatResponse chatResponse = ragMetrics.observe("llm", projectId, () -> ragChatClient
+                .prompt()
+                .user(message)
+                .advisors(advisor -> advisor.params(advisorContext(queryContext, retrieval, projectId, chatId,
+                        userId, userDisplayName)))
+                .options(chatOptions(route, false))
+                .call()
+                .chatResponse());
+        ragMetrics.recordLatency(projectId, route, System.nanoTime() - start, null);
+        ragMetrics.recordUsage(projectId, chatResponse);
+        String response = textOf(chatResponse);
+        cacheResponse(projectId, cacheLookup, queryContext, userDisplayName, response);
+        return response;
+    }
+
+    /**
+     * Computes the query embedding up front, inside its own stage, instead of lazily in whichever stage
+     * touches it first. Every turn needs it for retrieval and the cache lookup anyway.
+     */
+    private QueryEmbeddingContext embedQuery(String message, UUID projectId) {
+        QueryEmbeddingContext queryContext = QueryEmbeddingContext.of(message, embeddingModel);
+        ragMetrics.observe("embedding", projectId, (Runnable) queryContext::getEmbedding);
+        return queryContext;
+    }
+
+    /**
+     * Streaming variant of {@link #chatWithContext}. Tokens are emitted as they arrive from the model;
+     * the chat turn is persisted by the memory advisor once the stream completes.
+     */
+    public Flux<String> streamChatWithContext(String message, UUID projectId, UUID chatId, String userDisplayName) {
+        log.info("Processing streaming RAG chat request for project: {}", projectId);
+
+        UUID userId = SecurityContextUtil.getCurrentUserId();
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+        ChatRequestCoalescer.Attachment attachment = chatRequestCoalescer.join(projectId, chatId, message,
+                () -> generateStream(message, projectId, chatId, userId, userDisplayName, securityContext));
+
+        return attachment.response()
+                .doOnComplete(() -> log.info("Streamed RAG response for project: {}", projectId))
+                .doOnError(e -> log.error("Error streaming RAG response for project: {}", projectId, e));
+    }
+
+    private Flux<String> generateStream(String message, UUID projectId, UUID chatId, UUID userId,
+                                        String userDisplayName, SecurityContext securityContext) {
+        // Retrieval and cache lookup run on worker threads, so carry the caller's security context along with them
+        Scheduler scheduler = Schedulers.fromExecutor(
+                new DelegatingSecurityContextExecutor(taskExecutor, securityContext));
+        // Embedding, retrieval and cache lookup run off the request thread; tokens start flowing as soon as
+        // the slowest retrieval branch returns
+        return Mono.fromCallable(() -> embedQuery(message, projectId))
+                .subscribeOn(scheduler)
+                .flatMapMany(queryContext -> answer(message, projectId, chatId, userId, userDisplayName,
+                        queryContext));
+    }
+
+    private Flux<String> answer(String message, UUID projectId, UUID chatId, UUID userId, String userDisplayName,
+                                QueryEmbeddingContext queryContext) {
+        return Mono.fromCallable(() -> ragMetrics.observe("retrieval", projectId,
+                        () -> retrievalStage.retrieve(projectId, chatId, userId, queryContext)))
+                .flatMapMany(retrieval -> {
+                    CacheLookup cacheLookup = ragMetrics.observe("cache_lookup", projectId,
+                            () -> lookupCachedResponse(projectId, queryContext, retrieval));
+                    if (cacheLookup.response() != null) {
+                        persistCachedTurn(chatId, userId, message, cacheLookup.response());
+                        log.info("Served cached RAG response for project: {}", projectId);
+                        return Flux.just(cacheLookup.response());
+                    }
+
+                    StringBuilder answer = new StringBuilder();
+                    return streamModel(message, projectId, chatId, userId, userDisplayName, queryContext,
+                                    retrieval)
+                            .mapNotNull(this::textOf)
+                            .filter(StringUtils::hasLength)
+                            .doOnNext(answer::append)
+                            .doOnComplete(() -> cacheResponse(projectId, cacheLookup, queryContext,
+                                    userDisplayName, answer.toString()));
+                });
+    }
+
+    private Flux<ChatResponse> streamModel(String message, UUID projectId, UUID chatId, UUID userId,
+                                          String userDisplayName, QueryEmbeddingContext queryContext,
+                                          RetrievalResult retrieval) {
+        ModelRoute route = modelRouter.route(projectId, message, retrieval);
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicLong firstToken = new AtomicLong();
+            Observation observation = ragMetrics.start("llm", projectId);
+            return ragChatClient
+                    .prompt()
+                    .user(message)
+                    .advisors(advisor -> advisor.params(
+                            advisorContext(queryContext, retrieval, projectId, chatId, userId, userDisplayName)))
+                    .options(chatOptions(route, true))
+                    .stream()
+                    .chatResponse()
+                    .doOnNext(chunk -> firstToken.compareAndSet(0, System.nanoTime() - start))
+                    .doOnNext(chunk -> ragMetrics.recordUsage(projectId, chunk))
+                    .doOnComplete(() -> ragMetrics.recordLatency(projectId, route, System.nanoTime() - start,
+                            firstToken.get() > 0 ? firstToken.get() : null))
+                    .doOnError(observation::error)
+                    .doFinally(signal -> observation.stop())
+                    .contextWrite(ModelCallTenant.streamAs(userId != null ? userId.toString() : null));
+        });
+    }
+
+    /**
+     * Per-request options on top of the primary model's defaults; only a simple route changes model and cap.
+     */
+    private OpenAiChatOptions chatOptions(ModelRoute route, boolean streaming) {
+        OpenAiChatOptions.Builder options = OpenAiChatOptions.builder();
+        if (streaming) {
+            options.streamUsage(true);
+        }
+        if (route.model() != null) {
+            options.model(route.model());
+        }
+        if (route.maxTokens() != null) {
+            options.maxTokens(route.maxTokens());
+        }
+        return options.build();
+    }
+
+    /**
+     * Looks up a cached answer for a near-duplicate question. Only turns without conversation history, summary or
+     * memory take part: their answer depends on the project alone, so it can be shared across users and chats.
+     * Whether a turn has that context is only known once the history and memory branches have returned, so the
+     * lookup runs after retrieval. The agent instruction it loaded is part of the cache key and is carried to
+     * {@link #cacheResponse} to store the answer under the same key.
+     */
+    private CacheLookup lookupCachedResponse(UUID projectId, QueryEmbeddingContext queryContext,
+                                             RetrievalResult retrieval) {
+        if (!semanticResponseCache.isEnabled() || retrieval.hasConversationContext()) {
+            return new CacheLookup(false, null, null);
+        }
+        String agentInstruction = retrieval.agentInstruction();
+        String response = semanticResponseCache
+                .lookup(projectId, agentInstruction, queryContext.getEmbedding())
+                .orElse(null);
+        return new CacheLookup(true, agentInstruction, response);
+    }
+
+    /**
+     * The prompt always carries the user's name, so an answer that addresses the user by it is not stored: it must
+     * not be served to anyone else. Any other answer reads the same for every user and is shared.
+     */
+    private void cacheResponse(UUID projectId, CacheLookup cacheLookup, QueryEmbeddingContext queryContext,
+                               String userDisplayName, String response) {
+        if (cacheLookup.cacheable() && !addressesUser(response, userDisplayName)) {
+            semanticResponseCache.store(projectId, cacheLookup.agentInstruction(), queryContext.getQuery(),
+                    queryContext.getEmbedding(), response);
+        }
+    }
+
+    /**
+     * Any part of the name counts, since the model often uses only the first name.
+     */
+    private static boolean addressesUser(String response, String userDisplayName) {
+        if (response == null || !StringUtils.hasText(userDisplayName)) {
+            return false;
+        }
+        for (String namePart : userDisplayName.trim().split("\\s+")) {
+            if (namePart.length() > 1 && Pattern.compile("\\b" + Pattern.quote(namePart) + "\\b",
+                    Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE).matcher(response).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A cache hit bypasses the advisor chain, so the turn is queued here the same way the memory advisor would.
+     */
+    private void persistCachedTurn(UUID chatId, UUID userId, String message, String response) {
+        chatTurnWriter.enqueue(new ChatTurn(chatId, userId, message, response, System.currentTimeMillis(),
+                SecurityContextHolder.getContext()));
+    }
+
+    private String textOf(ChatResponse chatResponse) {
+        if (chatResponse == null || chatResponse.getResult() == null || chatResponse.getResult().getOutput() == null) {
+            return null;
+        }
+        return chatResponse.getResult().getOutput().getText();
+    }
+
+    private record CacheLookup(boolean cacheable, String agentInstruction, String response) {
+    }
+
+    /**
+     * Per-request data for the shared advisors. The caller's security context is included because the
+     * memory advisor persists streamed turns from reactor threads.
+     */
+    private Map<String, Object> advisorContext(QueryEmbeddingContext queryContext, RetrievalResult retrieval,
+                                               UUID projectId, UUID chatId, UUID userId, String userDisplayName) {
+        Map<String, Object> context = new HashMap<>();
+        context.put(QueryEmbeddingContext.CONTEXT_KEY, queryContext);
+        context.put(KontextChatAdvisor.PROJECT_ID, projectId);
+        context.put(KontextChatAdvisor.RETRIEVED_DOCUMENTS, retrieval.knowledgeDocuments());
+        context.put(UnifiedChatMemoryAdvisor.CONVERSATION_ID, chatId.toString());
+        context.put(UnifiedChatMemoryAdvisor.RECENT_MESSAGES, retrieval.recentMessages());
+        context.put(UnifiedChatMemoryAdvisor.SEMANTIC_CONTEXT, retrieval.semanticContext());
+        context.put(UnifiedChatMemoryAdvisor.SECURITY_CONTEXT, SecurityContextHolder.getContext());
+        if (retrieval.conversationSummary() != null) {
+            context.put(UnifiedChatMemoryAdvisor.CONVERSATION_SUMMARY, retrieval.conversationSummary());
+        }
+        if (retrieval.agentInstruction() != null) {
+            context.put(KontextChatAdvisor.AGENT_INSTRUCTION, retrieval.agentInstruction());
+        }
+        if (userDisplayName != null) {
+            context.put(KontextChatAdvisor.USER_DISPLAY_NAME, userDisplayName);
+        }
+        if (userId != null) {
+            context.put(UnifiedChatMemoryAdvisor.USER_ID, userId);
+        }
+        return context;
+    }
+}
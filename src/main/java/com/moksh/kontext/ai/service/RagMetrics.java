@@ -0,0 +1,205 @@
+package com.moksh.kontext.ai.service;
+
+import com.moksh.kontext.ai.dto.KnowledgeCandidate;
+import com.moksh.kontext.ai.routing.ModelRoute;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Meters for the RAG chat pipeline that are not owned by a single stage.
+ * Each stage of a turn (embedding, cache lookup, every retrieval branch, prompt assembly, the model call and
+ * persistence) runs inside a {@code kontext.ai.stage} observation, which yields a timer tagged by stage and a
+ * tracing span. Meters carry the project tier rather than the project id, so their cardinality stays bounded.
+ */
+@Component
+@Slf4j
+public class RagMetrics {
+
+    public static final String STAGE_OBSERVATION = "kontext.ai.stage";
+
+    // Score buckets for the similarity histograms; retrieval thresholds sit between 0.6 and 0.95
+    private static final double[] SIMILARITY_BUCKETS = {0.3, 0.4, 0.5, 0.6, 0.7, 0.8, 0.85, 0.9, 0.95};
+
+    private final MeterRegistry meterRegistry;
+    private final ObservationRegistry observationRegistry;
+    private final RagMetricsProperties properties;
+
+    @Value("${spring.ai.openai.chat.options.model:gpt-4o}")
+    private String primaryModel;
+
+    public RagMetrics(MeterRegistry meterRegistry, ObservationRegistry observationRegistry,
+                      RagMetricsProperties properties) {
+        this.meterRegistry = meterRegistry;
+        this.observationRegistry = observationRegistry;
+        this.properties = properties;
+    }
+
+    /**
+     * Runs one stage of a chat turn inside an observation.
+     *
+     * @param projectId owning project, or {@code null} when not known to the caller
+     */
+    public <T> T observe(String stage, @Nullable UUID projectId, Supplier<T> work) {
+        return stage(stage, projectId).observe(work);
+    }
+
+    public void observe(String stage, @Nullable UUID projectId, Runnable work) {
+        stage(stage, projectId).observe(work);
+    }
+
+    /**
+     * Starts a stage observation for work that completes asynchronously; the caller stops it, recording any error
+     * on it first.
+     */
+    public Observation start(String stage, @Nullable UUID projectId) {
+        return stage(stage, projectId).start();
+    }
+
+    public String tier(@Nullable UUID projectId) {
+        if (projectId == null) {
+            return properties.getDefaultTier();
+        }
+        return properties.getProjectTiers().getOrDefault(projectId.toString(), properties.getDefaultTier());
+    }
+
+    /**
+     * Records token usage of a model response. Streamed responses carry usage on a single chunk only,
+     * so chunks without prompt tokens are ignored.
+     */
+    public void recordUsage(UUID projectId, ChatResponse chatResponse) {
+        if (chatResponse == null || chatResponse.getMetadata() == null) {
+            return;
+        }
+        Usage usage = chatResponse.getMetadata().getUsage();
+        if (usage == null || usage.getPromptTokens() == null || usage.getPromptTokens() == 0) {
+            return;
+        }
+
+        String tier = tier(projectId);
+        String model = chatResponse.getMetadata().getModel() != null ? chatResponse.getMetadata().getModel() : "unknown";
+        int prompt = usage.getPromptTokens();
+        int cached = cachedTokens(usage);
+        tokenCounter("kontext.ai.tokens.prompt", "Prompt tokens billed by the model provider", tier, model)
+                .increment(prompt);
+        tokenCounter("kontext.ai.tokens.prompt.cached", "Prompt tokens served from the provider prompt cache",
+                tier, model).increment(cached);
+        DistributionSummary.builder("kontext.ai.prompt.cache.hit.ratio")
+                .description("Share of the prompt served from the provider prompt cache, per request")
+                .tag("tier", tier)
+                .tag("model", model)
+                .register(meterRegistry)
+                .record((double) cached / prompt);
+        if (usage.getCompletionTokens() != null) {
+            tokenCounter("kontext.ai.tokens.completion", "Completion tokens generated by the model", tier, model)
+                    .increment(usage.getCompletionTokens());
+        }
+        log.debug("Model usage: {} prompt tokens ({} cached), {} completion tokens",
+                prompt, cached, usage.getCompletionTokens());
+    }
+
+    /**
+     * Records the model latency of a chat turn per routed model tier; for streams, the time to the first token
+     * is recorded as well.
+     */
+    public void recordLatency(UUID projectId, ModelRoute route, long totalNanos, @Nullable Long firstTokenNanos) {
+        String tier = tier(projectId);
+        String model = route.model() != null ? route.model() : primaryModel;
+        Timer.builder("kontext.ai.chat.latency")
+                .description("Model latency of a chat turn, from prompt to the last token")
+                .tag("route", route.tag())
+                .tag("tier", tier)
+                .tag("model", model)
+                .register(meterRegistry)
+                .record(totalNanos, TimeUnit.NANOSECONDS);
+        if (firstTokenNanos != null) {
+            Timer.builder("kontext.ai.chat.first_token")
+                    .description("Time from prompt to the first streamed token")
+                    .tag("route", route.tag())
+                    .tag("tier", tier)
+                    .tag("model", model)
+                    .register(meterRegistry)
+                    .record(firstTokenNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Records what the retrieval stage found: chunk counts per source and the similarity scores of the raw
+     * vector hits, before fusion and re-ranking replace them with rank-based scores.
+     */
+    public void recordRetrieval(UUID projectId, List<KnowledgeCandidate> knowledgeCandidates,
+                                int selectedKnowledge, List<Document> memoryHits, int recentMessages) {
+        String tier = tier(projectId);
+        chunkSummary("knowledge", tier).record(selectedKnowledge);
+        chunkSummary("memory", tier).record(memoryHits.size());
+        chunkSummary("history", tier).record(recentMessages);
+
+        DistributionSummary knowledgeScores = similaritySummary("knowledge", tier);
+        knowledgeCandidates.forEach(candidate -> recordScore(knowledgeScores, candidate.document()));
+        DistributionSummary memoryScores = similaritySummary("memory", tier);
+        memoryHits.forEach(document -> recordScore(memoryScores, document));
+    }
+
+    private Observation stage(String stage, @Nullable UUID projectId) {
+        return Observation.createNotStarted(STAGE_OBSERVATION, observationRegistry)
+                .contextualName("rag " + stage)
+                .lowCardinalityKeyValue("stage", stage)
+                .lowCardinalityKeyValue("tier", tier(projectId));
+    }
+
+    private Counter tokenCounter(String name, String description, String tier, String model) {
+        return Counter.builder(name)
+                .description(description)
+                .tag("tier", tier)
+                .tag("model", model)
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary chunkSummary(String source, String tier) {
+        return DistributionSummary.builder("kontext.ai.retrieval.chunks")
+                .description("Chunks or messages a chat turn took from each retrieval source")
+                .tag("source", source)
+                .tag("tier", tier)
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary similaritySummary(String source, String tier) {
+        return DistributionSummary.builder("kontext.ai.retrieval.similarity")
+                .description("Similarity scores of vector search hits")
+                .tag("source", source)
+                .tag("tier", tier)
+                .serviceLevelObjectives(SIMILARITY_BUCKETS)
+                .register(meterRegistry);
+    }
+
+    private static void recordScore(DistributionSummary summary, Document document) {
+        if (document.getScore() != null) {
+            summary.record(document.getScore());
+        }
+    }
+
+    private int cachedTokens(Usage usage) {
+        if (usage.getNativeUsage() instanceof OpenAiApi.Usage openAiUsage
+                && openAiUsage.promptTokensDetails() != null
+                && openAiUsage.promptTokensDetails().cachedTokens() != null) {
+            return openAiUsage.promptTokensDetails().cachedTokens();
+        }
+        return 0;
+    }
+}
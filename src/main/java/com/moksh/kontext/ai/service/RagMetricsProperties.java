@@ -0,0 +1,26 @@
+package com.moksh.kontext.ai.service;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Configuration
+@ConfigurationProperties(prefix = "kontext.ai.metrics")
+@Getter
+@Setter
+public class RagMetricsProperties {
+
+    /**
+     * Tier tag for projects without an entry in {@link #projectTiers}.
+     */
+    private String defaultTier = "standard";
+
+    /**
+     * Tier tag by project id. Metrics are tagged by tier rather than project id to keep their cardinality bounded.
+     */
+    private Map<String, String> projectTiers = new HashMap<>();
+}
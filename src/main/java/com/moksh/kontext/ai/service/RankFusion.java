@@ -0,0 +1,47 @@
+package com.moksh.kontext.ai.service;
+
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reciprocal rank fusion of several ranked result lists.
+ * Each document scores {@code sum(1 / (k + rank))} over the lists it appears in, so agreement between rankers
+ * matters more than the raw, incomparable scores they produced.
+ */
+public final class RankFusion {
+
+    private RankFusion() {
+    }
+
+    public static List<Document> reciprocalRankFusion(List<List<Document>> rankings, int k, int topK) {
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (List<Document> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Document document = ranking.get(rank);
+                documents.putIfAbsent(document.getId(), document);
+                scores.merge(document.getId(), 1.0 / (k + rank + 1), Double::sum);
+            }
+        }
+
+        List<Map.Entry<String, Double>> ordered = new ArrayList<>(scores.entrySet());
+        ordered.sort(Map.Entry.<String, Double>comparingByValue(Comparator.reverseOrder()));
+
+        List<Document> fused = new ArrayList<>(Math.min(topK, ordered.size()));
+        for (Map.Entry<String, Double> entry : ordered.subList(0, Math.min(topK, ordered.size()))) {
+            Document document = documents.get(entry.getKey());
+            fused.add(Document.builder()
+                    .id(document.getId())
+                    .text(document.getText())
+                    .metadata(document.getMetadata())
+                    .score(entry.getValue())
+                    .build());
+        }
+        return fused;
+    }
+}
@@ -0,0 +1,220 @@
+package com.moksh.kontext.ai.service;
+
+import com.moksh.kontext.ai.dto.ConversationSummary;
+import com.moksh.kontext.ai.dto.KnowledgeCandidate;
+import com.moksh.kontext.ai.dto.QueryEmbeddingContext;
+import com.moksh.kontext.ai.dto.RetrievalResult;
+import com.moksh.kontext.chat.entity.ChatMessage;
+import com.moksh.kontext.chat.service.ChatMessageService;
+import com.moksh.kontext.project.service.ProjectService;
+import io.micrometer.observation.Observation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Fan-out/fan-in retrieval for a chat turn.
+ * Project lookup, vector and BM25 knowledge search, recent history and chat memory search are independent of
+ * each other, so they run concurrently: the two Qdrant searches as one pipelined gRPC exchange, the rest on the
+ * dedicated retrieval executor. The two knowledge rankings are merged
+ * with reciprocal rank fusion, so exact-term hits such as product codes or error ids still reach the prompt when
+ * the vector side scores them below its similarity threshold. Both sides over-fetch, and the
+ * {@link DiversityReranker} narrows the fused pool down to a diverse final set. Each branch has its own timeout and falls
+ * back to an empty result, so a slow or failing branch degrades the context instead of failing the turn.
+ * Once a chat has a rolling summary, the history branch returns the summary and only the messages after it.
+ */
+@Service
+@Slf4j
+public class RetrievalStage {
+
+    private final ProjectService projectService;
+    private final ChatMessageService chatMessageService;
+    private final ChatTurnWriter chatTurnWriter;
+    private final ConversationSummarizer conversationSummarizer;
+    private final VectorSearchService vectorSearchService;
+    private final LexicalIndexService lexicalIndexService;
+    private final DiversityReranker diversityReranker;
+    private final RagMetrics ragMetrics;
+    private final AsyncTaskExecutor retrievalExecutor;
+
+    @Value("${kontext.ai.retrieval.knowledge.top-k:5}")
+    private int knowledgeTopK;
+
+    @Value("${kontext.ai.retrieval.knowledge.similarity-threshold:0.6}")
+    private double knowledgeSimilarityThreshold;
+
+    @Value("${kontext.ai.retrieval.lexical.top-k:10}")
+    private int lexicalTopK;
+
+    @Value("${kontext.ai.retrieval.lexical.rrf-k:60}")
+    private int rrfK;
+
+    @Value("${kontext.ai.retrieval.memory.max-messages:10}")
+    private int maxMessages;
+
+    @Value("${kontext.ai.retrieval.memory.top-k:5}")
+    private int memoryTopK;
+
+    @Value("${kontext.ai.retrieval.memory.similarity-threshold:0.7}")
+    private double memorySimilarityThreshold;
+
+    @Value("${kontext.ai.retrieval.timeout.project-ms:2000}")
+    private long projectTimeoutMs;
+
+    @Value("${kontext.ai.retrieval.timeout.knowledge-ms:5000}")
+    private long knowledgeTimeoutMs;
+
+    @Value("${kontext.ai.retrieval.timeout.lexical-ms:200}")
+    private long lexicalTimeoutMs;
+
+    @Value("${kontext.ai.retrieval.timeout.history-ms:2000}")
+    private long historyTimeoutMs;
+
+    @Value("${kontext.ai.retrieval.timeout.memory-ms:3000}")
+    private long memoryTimeoutMs;
+
+    @Autowired
+    public RetrievalStage(
+            ProjectService projectService,
+            ChatMessageService chatMessageService,
+            ChatTurnWriter chatTurnWriter,
+            ConversationSummarizer conversationSummarizer,
+            VectorSearchService vectorSearchService,
+            LexicalIndexService lexicalIndexService,
+            DiversityReranker diversityReranker,
+            RagMetrics ragMetrics,
+            @Qualifier("ragRetrievalExecutor") AsyncTaskExecutor retrievalExecutor
+    ) {
+        this.projectService = projectService;
+        this.chatMessageService = chatMessageService;
+        this.chatTurnWriter = chatTurnWriter;
+        this.conversationSummarizer = conversationSummarizer;
+        this.vectorSearchService = vectorSearchService;
+        this.lexicalIndexService = lexicalIndexService;
+        this.diversityReranker = diversityReranker;
+        this.ragMetrics = ragMetrics;
+        this.retrievalExecutor = retrievalExecutor;
+    }
+
+    public RetrievalResult retrieve(UUID projectId, UUID chatId, UUID userId, QueryEmbeddingContext queryContext) {
+        long start = System.currentTimeMillis();
+
+        CompletableFuture<String> agentInstruction = branch("project", projectId, projectTimeoutMs, null,
+                () -> projectService.getProjectById(projectId).getAgentInstruction());
+
+        int candidateCount = diversityReranker.candidateCount(knowledgeTopK);
+        // Both Qdrant searches go out together from this thread; neither ties up a retrieval executor thread
+        VectorSearchService.KnowledgeAndMemory vectorSearches = vectorSearchService.searchKnowledgeAndMemory(
+                queryContext, projectId, candidateCount, knowledgeSimilarityThreshold, diversityReranker.isEnabled(),
+                chatId, userId, memoryTopK, memorySimilarityThreshold);
+        CompletableFuture<List<KnowledgeCandidate>> knowledgeCandidates = withFallback("knowledge",
+                knowledgeTimeoutMs, List.of(), observed("knowledge", projectId, vectorSearches.knowledge()));
+
+        CompletableFuture<List<Document>> lexicalDocuments = lexicalIndexService.isEnabled()
+                ? branch("lexical", projectId, lexicalTimeoutMs, List.of(),
+                        () -> lexicalIndexService.search(projectId, queryContext.getQuery(),
+                                Math.max(lexicalTopK, candidateCount)))
+                : CompletableFuture.completedFuture(List.of());
+
+        CompletableFuture<History> history = branch("history", projectId, historyTimeoutMs, History.EMPTY,
+                () -> history(chatId));
+
+        CompletableFuture<List<Document>> semanticContext = withFallback("memory", memoryTimeoutMs, List.of(),
+                observed("memory", projectId, vectorSearches.memory()));
+
+        CompletableFuture.allOf(agentInstruction, knowledgeCandidates, lexicalDocuments, history,
+                semanticContext).join();
+
+        RetrievalResult result = new RetrievalResult(
+                agentInstruction.join(),
+                selectKnowledge(knowledgeCandidates.join(), lexicalDocuments.join(), candidateCount),
+                history.join().recentMessages(),
+                history.join().summary(),
+                semanticContext.join()
+        );
+        ragMetrics.recordRetrieval(projectId, knowledgeCandidates.join(), result.knowledgeDocuments().size(),
+                result.semanticContext(), result.recentMessages().size());
+        log.debug("Retrieval stage for chat {} completed in {}ms: {} knowledge documents, {} recent messages, {} memory hits",
+                chatId, System.currentTimeMillis() - start, result.knowledgeDocuments().size(),
+                result.recentMessages().size(), result.semanticContext().size());
+        return result;
+    }
+
+    private List<Document> selectKnowledge(List<KnowledgeCandidate> candidates, List<Document> lexicalDocuments,
+                                           int candidateCount) {
+        List<Document> vectorDocuments = candidates.stream().map(KnowledgeCandidate::document).toList();
+        List<Document> ranked = lexicalDocuments.isEmpty()
+                ? vectorDocuments
+                : RankFusion.reciprocalRankFusion(List.of(vectorDocuments, lexicalDocuments), rrfK, candidateCount);
+
+        Map<String, float[]> embeddings = new HashMap<>();
+        for (KnowledgeCandidate candidate : candidates) {
+            if (candidate.embedding() != null) {
+                embeddings.put(candidate.document().getId(), candidate.embedding());
+            }
+        }
+        return diversityReranker.select(ranked, embeddings, knowledgeTopK);
+    }
+
+    private record History(List<Message> recentMessages, String summary) {
+        static final History EMPTY = new History(List.of(), null);
+    }
+
+    private History history(UUID chatId) {
+        ConversationSummary summary = conversationSummarizer.currentSummary(chatId);
+
+        // Turns still queued in the write-behind pipeline are newer than anything in Postgres
+        List<Message> messages = new ArrayList<>(chatTurnWriter.pendingMessages(chatId));
+        chatMessageService.getLastMessages(chatId, maxMessages).stream()
+                .filter(message -> summary == null || isAfter(message, summary))
+                .map(chatMessageService::mapMessage)
+                .forEach(messages::add);
+        List<Message> recent = messages.size() > maxMessages ? messages.subList(0, maxMessages) : messages;
+        return new History(recent, summary != null ? summary.summary() : null);
+    }
+
+    private static boolean isAfter(ChatMessage message, ConversationSummary summary) {
+        return message.getCreatedAt() != null && message.getCreatedAt().isAfter(summary.summarizedUntil());
+    }
+
+    private <T> CompletableFuture<T> branch(String name, UUID projectId, long timeoutMs, T fallback,
+                                            Supplier<T> supplier) {
+        return withFallback(name, timeoutMs, fallback, CompletableFuture.supplyAsync(
+                () -> ragMetrics.observe("retrieval." + name, projectId, supplier), retrievalExecutor));
+    }
+
+    private <T> CompletableFuture<T> observed(String name, UUID projectId, CompletableFuture<T> search) {
+        Observation observation = ragMetrics.start("retrieval." + name, projectId);
+        return search.whenComplete((result, error) -> {
+            if (error != null) {
+                observation.error(error);
+            }
+            observation.stop();
+        });
+    }
+
+    private <T> CompletableFuture<T> withFallback(String name, long timeoutMs, T fallback,
+                                                  CompletableFuture<T> future) {
+        return future
+                .orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .exceptionally(e -> {
+                    log.warn("Retrieval branch '{}' failed or timed out after {}ms, continuing without it: {}",
+                            name, timeoutMs, e.getMessage());
+                    return fallback;
+                });
+    }
+}
@@ -0,0 +1,382 @@
+package com.moksh.kontext.ai.service;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.moksh.kontext.ai.dto.KnowledgeCandidate;
+import com.moksh.kontext.ai.dto.QueryEmbeddingContext;
+import com.moksh.kontext.ai.index.HnswVectorStore;
+import com.moksh.kontext.config.AiConfig;
+import com.moksh.kontext.knowledge.repository.KnowledgeRepository;
+import io.qdrant.client.ConditionFactory;
+import io.qdrant.client.QdrantClient;
+import io.qdrant.client.WithPayloadSelectorFactory;
+import io.qdrant.client.WithVectorsSelectorFactory;
+import io.qdrant.client.grpc.JsonWithInt;
+import io.qdrant.client.grpc.Points;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Raw-vector similarity search against the Qdrant collections.
+ * Unlike {@link org.springframework.ai.vectorstore.VectorStore#similaritySearch}, the query vector is supplied
+ * by the caller, so one embedding can be reused across several searches. Searches only ask for the payload
+ * fields and vectors they use, which keeps responses small. With the local backend selected, the same searches
+ * run in process against the {@link HnswVectorStore}s instead.
+ */
+@Service
+@Slf4j
+public class VectorSearchService {
+
+    // Payload key used by Spring AI's QdrantVectorStore for the document text
+    public static final String CONTENT_PAYLOAD_KEY = "doc_content";
+
+    private static final long SEARCH_TIMEOUT_SECONDS = 10;
+
+    // Only what the prompt and the lexical index use; the rest of the payload would just be transferred and dropped
+    private static final List<String> KNOWLEDGE_PAYLOAD_FIELDS =
+            List.of(CONTENT_PAYLOAD_KEY, VectorService.KNOWLEDGE_ID_KEY);
+    private static final List<String> MEMORY_PAYLOAD_FIELDS = List.of(CONTENT_PAYLOAD_KEY, "message_type");
+
+    // Absent when the local vector store backend is selected
+    private final ObjectProvider<QdrantClient> qdrantClient;
+    private final ObjectProvider<QdrantPayloadIndexService> payloadIndexService;
+    private final KnowledgeRepository knowledgeRepository;
+    @Nullable
+    private final HnswVectorStore localKnowledgeStore;
+    @Nullable
+    private final HnswVectorStore localChatStore;
+
+    @Value("${spring.ai.vectorstore.qdrant.collection-name:kontext_knowledge}")
+    private String knowledgeCollectionName;
+
+    public VectorSearchService(ObjectProvider<QdrantClient> qdrantClient,
+                               ObjectProvider<QdrantPayloadIndexService> payloadIndexService,
+                               KnowledgeRepository knowledgeRepository,
+                               @Qualifier(AiConfig.KNOWLEDGE_VECTOR_STORE) VectorStore knowledgeVectorStore,
+                               @Qualifier(AiConfig.CHAT_VECTOR_STORE) VectorStore chatVectorStore) {
+        this.qdrantClient = qdrantClient;
+        this.payloadIndexService = payloadIndexService;
+        this.knowledgeRepository = knowledgeRepository;
+        this.localKnowledgeStore = knowledgeVectorStore instanceof HnswVectorStore local ? local : null;
+        this.localChatStore = chatVectorStore instanceof HnswVectorStore local ? local : null;
+    }
+
+    /**
+     * Knowledge search that also returns each chunk's stored vector when {@code withVectors} is set,
+     * so candidates can be compared with each other in process without another round trip.
+     */
+    public List<KnowledgeCandidate> searchKnowledge(QueryEmbeddingContext queryContext, UUID projectId,
+                                                    int topK, double similarityThreshold, boolean withVectors) {
+        return await(searchKnowledgeAsync(queryContext, projectId, topK, similarityThreshold, withVectors),
+                knowledgeCollectionName);
+    }
+
+    public List<Document> searchChatMemory(QueryEmbeddingContext queryContext, UUID chatId, UUID userId,
+                                           int topK, double similarityThreshold) {
+        return await(searchChatMemoryAsync(queryContext, chatId, userId, topK, similarityThreshold),
+                AiConfig.CHAT_VECTOR_STORE);
+    }
+
+    /**
+     * Pending knowledge and conversation-memory searches of one chat turn.
+     */
+    public record KnowledgeAndMemory(CompletableFuture<List<KnowledgeCandidate>> knowledge,
+                                     CompletableFuture<List<Document>> memory) {
+    }
+
+    /**
+     * Sends the knowledge and the conversation-memory search back to back on the shared gRPC channel without
+     * waiting in between, so both are in flight over the same HTTP/2 connection at once and the turn pays one
+     * round trip instead of two, without a thread blocked per search. The collections differ, so Qdrant's batch
+     * endpoint, which is per collection, does not apply. Each result is returned separately so the caller can
+     * give each search its own timeout and fallback.
+     */
+    public KnowledgeAndMemory searchKnowledgeAndMemory(QueryEmbeddingContext queryContext, UUID projectId,
+                                                       int knowledgeTopK, double knowledgeThreshold,
+                                                       boolean withVectors, UUID chatId, UUID userId,
+                                                       int memoryTopK, double memoryThreshold) {
+        return new KnowledgeAndMemory(
+                searchKnowledgeAsync(queryContext, projectId, knowledgeTopK, knowledgeThreshold, withVectors),
+                searchChatMemoryAsync(queryContext, chatId, userId, memoryTopK, memoryThreshold));
+    }
+
+    public CompletableFuture<List<KnowledgeCandidate>> searchKnowledgeAsync(QueryEmbeddingContext queryContext,
+                                                                            UUID projectId, int topK,
+                                                                            double similarityThreshold,
+                                                                            boolean withVectors) {
+        if (localKnowledgeStore != null) {
+            Filter.Expression filter = new FilterExpressionBuilder()
+                    .eq(VectorService.PROJECT_ID_KEY, projectId.toString())
+                    .build();
+            return local(() -> localKnowledgeStore.search(queryContext.getEmbedding(), topK, similarityThreshold,
+                            filter, withVectors).stream()
+                    .map(hit -> new KnowledgeCandidate(hit.document(), hit.embedding()))
+                    .toList());
+        }
+        return searchPointsAsync(knowledgeCollectionName, queryContext.getEmbedding(), topK, similarityThreshold,
+                knowledgeFilter(projectId), withVectors, KNOWLEDGE_PAYLOAD_FIELDS)
+                .thenApply(points -> points.stream()
+                        .map(point -> new KnowledgeCandidate(toDocument(point), withVectors ? toVector(point) : null))
+                        .toList());
+    }
+
+    /**
+     * Single keyword match on the indexed project_id; deleted knowledge has its points removed. Until the
+     * startup backfill has tagged chunks stored before project_id was written, those are matched by the
+     * project's active knowledge IDs as before.
+     */
+    private Points.Filter knowledgeFilter(UUID projectId) {
+        Points.Condition projectMatch =
+                ConditionFactory.matchKeyword(VectorService.PROJECT_ID_KEY, projectId.toString());
+        QdrantPayloadIndexService indexService = payloadIndexService.getIfAvailable();
+        if (indexService == null || indexService.isProjectIdBackfillComplete()) {
+            return Points.Filter.newBuilder().addMust(projectMatch).build();
+        }
+        List<String> knowledgeIds = knowledgeRepository.findActiveIdsByProjectId(projectId).stream()
+                .map(UUID::toString)
+                .toList();
+        Points.Filter.Builder filter = Points.Filter.newBuilder().addShould(projectMatch);
+        if (!knowledgeIds.isEmpty()) {
+            filter.addShould(ConditionFactory.matchKeywords(VectorService.KNOWLEDGE_ID_KEY, knowledgeIds));
+        }
+        return filter.build();
+    }
+
+    public CompletableFuture<List<Document>> searchChatMemoryAsync(QueryEmbeddingContext queryContext, UUID chatId,
+                                                                   UUID userId, int topK,
+                                                                   double similarityThreshold) {
+        if (localChatStore != null) {
+            FilterExpressionBuilder builder = new FilterExpressionBuilder();
+            Filter.Expression filter = builder.and(
+                    builder.eq(VectorService.CONVERSATION_ID_KEY, chatId.toString()),
+                    builder.eq(VectorService.USER_ID_KEY, String.valueOf(userId))).build();
+            return local(() -> localChatStore.search(queryContext.getEmbedding(), topK, similarityThreshold,
+                            filter, false).stream()
+                    .map(HnswVectorStore.Hit::document)
+                    .toList());
+        }
+        return searchPointsAsync(AiConfig.CHAT_VECTOR_STORE, queryContext.getEmbedding(), topK, similarityThreshold,
+                memoryFilter(chatId, userId), false, MEMORY_PAYLOAD_FIELDS)
+                .thenApply(points -> points.stream().map(VectorSearchService::toDocument).toList());
+    }
+
+    /**
+     * Both keys are payload-indexed, so cost tracks the size of this conversation, not the whole collection.
+     * Until the startup backfill has tagged memory stored before user_id was written, the conversation's untagged
+     * points are matched too; a chat belongs to one user, so they are that user's.
+     */
+    private Points.Filter memoryFilter(UUID chatId, UUID userId) {
+        Points.Filter.Builder filter = Points.Filter.newBuilder()
+                .addMust(ConditionFactory.matchKeyword(VectorService.CONVERSATION_ID_KEY, chatId.toString()));
+        Points.Condition userMatch = ConditionFactory.matchKeyword(VectorService.USER_ID_KEY, String.valueOf(userId));
+        if (isUserIdBackfillComplete()) {
+            return filter.addMust(userMatch).build();
+        }
+        return filter.addShould(userMatch)
+                .addShould(ConditionFactory.isEmpty(VectorService.USER_ID_KEY))
+                .build();
+    }
+
+    /**
+     * Whether memory can be filtered on user_id alone: always with the local store, which only holds points
+     * written with it, and with Qdrant once the startup backfill has run.
+     */
+    public boolean isUserIdBackfillComplete() {
+        QdrantPayloadIndexService indexService = payloadIndexService.getIfAvailable();
+        return indexService == null || indexService.isUserIdBackfillComplete();
+    }
+
+    public List<Document> search(String collectionName, float[] vector, int topK, double similarityThreshold,
+                                 @Nullable Points.Filter filter) {
+        return await(searchPointsAsync(collectionName, vector, topK, similarityThreshold, filter, false, null),
+                collectionName).stream()
+                .map(VectorSearchService::toDocument)
+                .toList();
+    }
+
+    /**
+     * @param payloadFields payload keys to return, or {@code null} for the whole payload
+     */
+    private CompletableFuture<List<Points.ScoredPoint>> searchPointsAsync(String collectionName, float[] vector,
+                                                                         int topK, double similarityThreshold,
+                                                                         @Nullable Points.Filter filter,
+                                                                         boolean withVectors,
+                                                                         @Nullable List<String> payloadFields) {
+        Points.SearchPoints.Builder request = Points.SearchPoints.newBuilder()
+                .setCollectionName(collectionName)
+                .addAllVector(toFloatList(vector))
+                .setLimit(topK)
+                .setScoreThreshold((float) similarityThreshold)
+                .setWithPayload(payloadFields != null
+                        ? WithPayloadSelectorFactory.include(payloadFields)
+                        : WithPayloadSelectorFactory.enable(true))
+                .setWithVectors(WithVectorsSelectorFactory.enable(withVectors));
+        if (filter != null) {
+            request.setFilter(filter);
+        }
+
+        CompletableFuture<List<Points.ScoredPoint>> result = new CompletableFuture<>();
+        try {
+            Futures.addCallback(qdrantClient.getObject().searchAsync(request.build()), new FutureCallback<>() {
+                @Override
+                public void onSuccess(List<Points.ScoredPoint> points) {
+                    log.debug("Vector search on {} returned {} points", collectionName, points.size());
+                    result.complete(points);
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    result.completeExceptionally(error);
+                }
+            }, MoreExecutors.directExecutor());
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * In-process searches take well under a millisecond, so they run on the caller's thread.
+     */
+    private static <T> CompletableFuture<T> local(Supplier<T> search) {
+        try {
+            return CompletableFuture.completedFuture(search.get());
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> search, String collectionName) {
+        try {
+            return search.get(SEARCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Vector search was interrupted", e);
+        } catch (Exception e) {
+            log.error("Error searching vector collection: {}", collectionName, e);
+            throw new RuntimeException("Failed to search vector collection " + collectionName, e);
+        }
+    }
+
+    /**
+     * Pages through every knowledge chunk of a project without vectors, e.g. to rebuild a derived index.
+     */
+    public void scrollKnowledge(UUID projectId, int pageSize, Consumer<List<Document>> consumer) {
+        if (localKnowledgeStore != null) {
+            localKnowledgeStore.scroll(new FilterExpressionBuilder()
+                    .eq(VectorService.PROJECT_ID_KEY, projectId.toString())
+                    .build(), pageSize, consumer);
+            return;
+        }
+        Points.Filter filter = knowledgeFilter(projectId);
+        Points.PointId offset = null;
+        try {
+            do {
+                Points.ScrollPoints.Builder request = Points.ScrollPoints.newBuilder()
+                        .setCollectionName(knowledgeCollectionName)
+                        .setFilter(filter)
+                        .setLimit(pageSize)
+                        .setWithPayload(WithPayloadSelectorFactory.enable(true));
+                if (offset != null) {
+                    request.setOffset(offset);
+                }
+                Points.ScrollResponse response = qdrantClient.getObject().scrollAsync(request.build())
+                        .get(SEARCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                consumer.accept(response.getResultList().stream()
+                        .map(point -> toDocument(point.getId(), point.getPayloadMap(), null))
+                        .toList());
+                offset = response.hasNextPageOffset() ? response.getNextPageOffset() : null;
+            } while (offset != null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Scrolling knowledge was interrupted", e);
+        } catch (Exception e) {
+            log.error("Error scrolling knowledge for project: {}", projectId, e);
+            throw new RuntimeException("Failed to scroll knowledge for project " + projectId, e);
+        }
+    }
+
+    static List<Float> toFloatList(float[] vector) {
+        List<Float> values = new ArrayList<>(vector.length);
+        for (float value : vector) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    @Nullable
+    static float[] toVector(Points.ScoredPoint point) {
+        if (!point.hasVectors() || !point.getVectors().hasVector()) {
+            return null;
+        }
+        List<Float> data = point.getVectors().getVector().getDataList();
+        float[] vector = new float[data.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = data.get(i);
+        }
+        return vector;
+    }
+
+    static Document toDocument(Points.ScoredPoint point) {
+        return toDocument(point.getId(), point.getPayloadMap(), point.getScore());
+    }
+
+    static Document toDocument(Points.PointId id, Map<String, JsonWithInt.Value> payload, @Nullable Float score) {
+        Map<String, Object> metadata = new HashMap<>();
+        String content = "";
+        for (Map.Entry<String, JsonWithInt.Value> entry : payload.entrySet()) {
+            if (CONTENT_PAYLOAD_KEY.equals(entry.getKey())) {
+                content = entry.getValue().getStringValue();
+            } else {
+                Object value = toObject(entry.getValue());
+                if (value != null) {
+                    metadata.put(entry.getKey(), value);
+                }
+            }
+        }
+        Document.Builder document = Document.builder()
+                .id(toId(id))
+                .text(content);
+        if (score != null) {
+            metadata.put("distance", 1 - score);
+            document.score((double) score);
+        }
+        return document.metadata(metadata).build();
+    }
+
+    private static String toId(Points.PointId pointId) {
+        return pointId.getPointIdOptionsCase() == Points.PointId.PointIdOptionsCase.UUID
+                ? pointId.getUuid()
+                : String.valueOf(pointId.getNum());
+    }
+
+    private static Object toObject(JsonWithInt.Value value) {
+        return switch (value.getKindCase()) {
+            case STRING_VALUE -> value.getStringValue();
+            case INTEGER_VALUE -> value.getIntegerValue();
+            case DOUBLE_VALUE -> value.getDoubleValue();
+            case BOOL_VALUE -> value.getBoolValue();
+            case NULL_VALUE, KIND_NOT_SET -> null;
+            default -> value.toString();
+        };
+    }
+}
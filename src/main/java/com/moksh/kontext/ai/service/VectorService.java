@@ -1,23 +1,52 @@
 package com.moksh.kontext.ai.service;
 
+import com.moksh.kontext.ai.index.HnswVectorStore;
+import io.qdrant.client.ConditionFactory;
+import io.qdrant.client.PointIdFactory;
 import io.qdrant.client.QdrantClient;
+import io.qdrant.client.ValueFactory;
+import io.qdrant.client.VectorsFactory;
+import io.qdrant.client.grpc.JsonWithInt;
+import io.qdrant.client.grpc.Points;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class VectorService {
 
+    public static final String PROJECT_ID_KEY = "project_id";
+    public static final String KNOWLEDGE_ID_KEY = "knowledge_id";
+    public static final String CONVERSATION_ID_KEY = "conversation_id";
+    public static final String USER_ID_KEY = "user_id";
+
+    private static final long DELETE_TIMEOUT_SECONDS = 30;
+    private static final long UPSERT_TIMEOUT_SECONDS = 30;
+
     private final VectorStore vectorStore;
+    // Absent when the local vector store backend is selected
+    private final ObjectProvider<QdrantClient> qdrantClient;
+    private final RagMetrics ragMetrics;
+
+    @Value("${spring.ai.vectorstore.qdrant.collection-name:kontext_knowledge}")
+    private String knowledgeCollectionName;
 
     public void addDocuments(List<Document> documents) {
         log.info("Adding {} documents to vector store", documents.size());
@@ -30,6 +59,35 @@ public class VectorService {
         }
     }
 
+    /**
+     * Add knowledge chunks, stamping the owning project and knowledge item into each point's payload
+     * so retrieval can filter on a single indexed project_id instead of a list of knowledge IDs.
+     *
+     * @return the documents as stored, with the scope metadata applied
+     */
+    public List<Document> addDocuments(UUID projectId, UUID knowledgeId, List<Document> documents) {
+        List<Document> scopedDocuments = withScope(projectId, knowledgeId, documents);
+        ragMetrics.observe("vector_upsert", projectId, () -> addDocuments(scopedDocuments));
+        return scopedDocuments;
+    }
+
+    /**
+     * Stamps the owning project and knowledge item into each chunk's metadata, as {@link #addDocuments} does.
+     */
+    public List<Document> withScope(UUID projectId, UUID knowledgeId, List<Document> documents) {
+        return documents.stream()
+                .map(document -> withScope(document, projectId, knowledgeId))
+                .toList();
+    }
+
+    /**
+     * Write knowledge chunks that are already scoped and embedded, bypassing the vector store's embedding model.
+     * The caller makes sure the vectors come from the model queries are embedded with.
+     */
+    public void upsertEmbeddedDocuments(UUID projectId, List<Document> scopedDocuments, List<float[]> embeddings) {
+        ragMetrics.observe("vector_upsert", projectId, () -> upsertEmbedded(scopedDocuments, embeddings));
+    }
+
     public void addDocument(String content, Map<String, Object> metadata) {
         Document document = new Document(content, metadata);
         addDocuments(List.of(document));
@@ -45,4 +103,136 @@ public class VectorService {
             throw new RuntimeException("Failed to delete documents from vector store", e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Remove every chunk of a knowledge item, so deleted knowledge can no longer be retrieved.
+     */
+    public void deleteKnowledgeDocuments(UUID knowledgeId) {
+        ragMetrics.observe("vector_delete", null, () -> deleteKnowledgePoints(knowledgeId));
+    }
+
+    private void deleteKnowledgePoints(UUID knowledgeId) {
+        log.info("Deleting vector store documents for knowledge: {}", knowledgeId);
+        try {
+            QdrantClient client = qdrantClient.getIfAvailable();
+            if (client == null) {
+                vectorStore.delete(new FilterExpressionBuilder().eq(KNOWLEDGE_ID_KEY, knowledgeId.toString()).build());
+                log.info("Successfully deleted vector store documents for knowledge: {}", knowledgeId);
+                return;
+            }
+            Points.Filter filter = Points.Filter.newBuilder()
+                    .addMust(ConditionFactory.matchKeyword(KNOWLEDGE_ID_KEY, knowledgeId.toString()))
+                    .build();
+            client.deleteAsync(knowledgeCollectionName, filter)
+                    .get(DELETE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            log.info("Successfully deleted vector store documents for knowledge: {}", knowledgeId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Deleting knowledge documents was interrupted", e);
+        } catch (Exception e) {
+            log.error("Error deleting vector store documents for knowledge: {}", knowledgeId, e);
+            throw new RuntimeException("Failed to delete knowledge documents from vector store", e);
+        }
+    }
+
+    /**
+     * Whether any chunk of the knowledge item is stored.
+     */
+    public boolean hasKnowledgeDocuments(UUID knowledgeId) {
+        try {
+            QdrantClient client = qdrantClient.getIfAvailable();
+            if (client == null) {
+                AtomicBoolean found = new AtomicBoolean();
+                ((HnswVectorStore) vectorStore).scroll(
+                        new FilterExpressionBuilder().eq(KNOWLEDGE_ID_KEY, knowledgeId.toString()).build(), 1,
+                        page -> {
+                            if (!page.isEmpty()) {
+                                found.set(true);
+                            }
+                        });
+                return found.get();
+            }
+            Points.Filter filter = Points.Filter.newBuilder()
+                    .addMust(ConditionFactory.matchKeyword(KNOWLEDGE_ID_KEY, knowledgeId.toString()))
+                    .build();
+            return client.countAsync(knowledgeCollectionName, filter, false)
+                    .get(DELETE_TIMEOUT_SECONDS, TimeUnit.SECONDS) > 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Counting knowledge documents was interrupted", e);
+        } catch (Exception e) {
+            log.error("Error counting vector store documents for knowledge: {}", knowledgeId, e);
+            throw new RuntimeException("Failed to count knowledge documents in vector store", e);
+        }
+    }
+
+    private void upsertEmbedded(List<Document> documents, List<float[]> embeddings) {
+        log.info("Upserting {} pre-embedded documents to vector store", documents.size());
+        try {
+            if (vectorStore instanceof HnswVectorStore localStore) {
+                localStore.add(documents, embeddings);
+            } else {
+                List<Points.PointStruct> points = new ArrayList<>(documents.size());
+                for (int i = 0; i < documents.size(); i++) {
+                    points.add(toPoint(documents.get(i), embeddings.get(i)));
+                }
+                qdrantClient.getObject().upsertAsync(knowledgeCollectionName, points)
+                        .get(UPSERT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+            log.info("Successfully upserted pre-embedded documents to vector store");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Upserting documents was interrupted", e);
+        } catch (Exception e) {
+            log.error("Error upserting pre-embedded documents to vector store", e);
+            throw new RuntimeException("Failed to add documents to vector store", e);
+        }
+    }
+
+    /**
+     * Builds a point in the layout Spring AI's QdrantVectorStore writes, so both kinds of points read the same.
+     */
+    private static Points.PointStruct toPoint(Document document, float[] embedding) {
+        Map<String, JsonWithInt.Value> payload = new HashMap<>();
+        document.getMetadata().forEach((key, value) -> payload.put(key, toValue(value)));
+        payload.put(VectorSearchService.CONTENT_PAYLOAD_KEY, ValueFactory.value(document.getText()));
+        return Points.PointStruct.newBuilder()
+                .setId(PointIdFactory.id(UUID.fromString(document.getId())))
+                .setVectors(VectorsFactory.vectors(VectorSearchService.toFloatList(embedding)))
+                .putAllPayload(payload)
+                .build();
+    }
+
+    private static JsonWithInt.Value toValue(Object value) {
+        if (value == null) {
+            return ValueFactory.nullValue();
+        }
+        if (value instanceof String string) {
+            return ValueFactory.value(string);
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return ValueFactory.value(((Number) value).longValue());
+        }
+        if (value instanceof Number number) {
+            return ValueFactory.value(number.doubleValue());
+        }
+        if (value instanceof Boolean bool) {
+            return ValueFactory.value(bool);
+        }
+        if (value instanceof List<?> list) {
+            return ValueFactory.list(list.stream().map(VectorService::toValue).toList());
+        }
+        return ValueFactory.value(value.toString());
+    }
+
+    private Document withScope(Document document, UUID projectId, UUID knowledgeId) {
+        Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+        metadata.put(PROJECT_ID_KEY, projectId.toString());
+        metadata.put(KNOWLEDGE_ID_KEY, knowledgeId.toString());
+        return Document.builder()
+                .id(document.getId())
+                .text(document.getText())
+                .metadata(metadata)
+                .build();
+    }
+}
@@ -1,8 +1,10 @@
 package com.moksh.kontext.chat.controller;
 
 import com.moksh.kontext.chat.dto.ChatRequest;
+import com.moksh.kontext.ai.service.ChatJobService;
 import com.moksh.kontext.ai.service.RagChatService;
 import com.moksh.kontext.chat.dto.ChatDto;
+import com.moksh.kontext.chat.dto.ChatJobDto;
 import com.moksh.kontext.chat.dto.ChatMessageDto;
 import com.moksh.kontext.chat.dto.CreateChatDto;
 import com.moksh.kontext.chat.dto.UpdateChatDto;
@@ -20,7 +22,11 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
 import java.util.UUID;
@@ -35,6 +41,7 @@ public class ChatController {
     private final ChatMessageService chatMessageService;
     private final ChatMapper chatMapper;
     private final RagChatService ragChatService;
+    private final ChatJobService chatJobService;
 
     @PostMapping
     public ApiResponse<ChatDto> createChat(@Valid @RequestBody CreateChatDto createChatDto) {
@@ -137,4 +144,50 @@ public class ChatController {
 
         return ApiResponse.success(aiResponse, "AI chat response generated successfully");
     }
-}
\ No newline at end of file
+
+    @PostMapping(value = "{id}/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> streamChatWithAI(@Valid @RequestBody ChatRequest chatRequest, @PathVariable UUID id) {
+        log.debug("POST /chats/{}/chat/stream - Streaming AI chat response", id);
+
+        UUID projectId = chatService.getChatById(id).getProjectId();
+
+        User currentUser = SecurityContextUtil.getCurrentUserOrThrow();
+        String userDisplayName = currentUser.getDisplayName();
+
+        return ragChatService.streamChatWithContext(chatRequest.getQuery(), projectId, id, userDisplayName)
+                .map(token -> ServerSentEvent.<String>builder().event("token").data(token).build())
+                .concatWithValues(ServerSentEvent.<String>builder().event("done").data("").build())
+                .onErrorResume(e -> {
+                    log.error("Error streaming AI chat response for chat: {}", id, e);
+                    return Flux.just(ServerSentEvent.<String>builder()
+                            .event("error")
+                            .data("Failed to generate AI response")
+                            .build());
+                });
+    }
+
+    @PostMapping("{id}/jobs")
+    public ApiResponse<ChatJobDto> createChatJob(@Valid @RequestBody ChatRequest chatRequest, @PathVariable UUID id) {
+        log.debug("POST /chats/{}/jobs - Starting asynchronous AI chat job", id);
+
+        UUID projectId = chatService.getChatById(id).getProjectId();
+
+        User currentUser = SecurityContextUtil.getCurrentUserOrThrow();
+        String userDisplayName = currentUser.getDisplayName();
+
+        ChatJobDto job = chatJobService.submit(chatRequest.getQuery(), projectId, id, userDisplayName);
+        return ApiResponse.success(job, "AI chat job accepted", 202);
+    }
+
+    @GetMapping("{id}/jobs/{jobId}")
+    public DeferredResult<ApiResponse<ChatJobDto>> getChatJob(
+            @PathVariable UUID id,
+            @PathVariable UUID jobId,
+            @RequestParam(required = false) Integer offset,
+            @RequestParam(defaultValue = "20000") long timeoutMs) {
+        log.debug("GET /chats/{}/jobs/{} - Long polling for chat job", id, jobId);
+
+        chatService.getChatById(id);
+        return chatJobService.poll(id, jobId, offset, timeoutMs);
+    }
+}
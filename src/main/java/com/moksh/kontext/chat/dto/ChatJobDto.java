@@ -0,0 +1,27 @@
+package com.moksh.kontext.chat.dto;
+
+import com.moksh.kontext.ai.dto.ChatJob;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.UUID;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatJobDto {
+
+    private UUID jobId;
+    private UUID chatId;
+    private ChatJob.Status status;
+    // Answer text from the requested offset on; the whole answer when no offset was given
+    private String answer;
+    // Offset to pass on the next poll to continue where this response ended
+    private int nextOffset;
+    private String error;
+    private long createdAt;
+    private long updatedAt;
+}
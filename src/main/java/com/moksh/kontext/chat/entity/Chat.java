@@ -10,6 +10,7 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -30,6 +31,15 @@ public class Chat extends BaseEntity {
     @JoinColumn(name = "project_id", nullable = false)
     private Project project;
 
+    /**
+     * Rolling summary of the messages up to {@link #summarizedUntil}, maintained by the conversation summarizer.
+     */
+    @Column(name = "summary", columnDefinition = "TEXT")
+    private String summary;
+
+    @Column(name = "summarized_until")
+    private LocalDateTime summarizedUntil;
+
     @OneToMany(mappedBy = "chat", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
     private List<ChatMessage> messages = new ArrayList<>();
 }
\ No newline at end of file
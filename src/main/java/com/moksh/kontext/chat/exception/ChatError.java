@@ -26,4 +26,7 @@ public class ChatError extends BaseAppError {
     public static final ChatError CHAT_ROOM_FULL = new ChatError("CHAT_ROOM_FULL", 7201, "Chat room is full");
     public static final ChatError CHAT_ROOM_CLOSED = new ChatError("CHAT_ROOM_CLOSED", 7202, "Chat room is closed");
     public static final ChatError USER_BANNED_FROM_CHAT = new ChatError("CHAT_USER_BANNED", 7203, "User is banned from this chat");
+
+    // AI Related Errors (7300-7399)
+    public static final ChatError AI_CAPACITY_EXCEEDED = new ChatError("CHAT_AI_CAPACITY_EXCEEDED", 7301, "The assistant is busy, please try again shortly");
 }
\ No newline at end of file
@@ -10,6 +10,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
 
@@ -25,6 +26,16 @@ public interface ChatMessageRepository extends JpaRepository<ChatMessage, UUID>
     @Query("SELECT cm FROM ChatMessage cm WHERE cm.chat.id = :chatId ORDER BY cm.createdAt ASC")
     List<ChatMessage> findByChatIdOrderByCreatedAtAsc(@Param("chatId") UUID chatId);
 
+    /**
+     * Find the messages of a chat created after a point in time, ordered by creation date.
+     *
+     * @param chatId The chat ID
+     * @param after Exclusive lower bound on the creation time
+     * @return List of chat messages
+     */
+    @Query("SELECT cm FROM ChatMessage cm WHERE cm.chat.id = :chatId AND cm.createdAt > :after ORDER BY cm.createdAt ASC")
+    List<ChatMessage> findByChatIdAndCreatedAtAfter(@Param("chatId") UUID chatId, @Param("after") LocalDateTime after);
+
     /**
      * Find all messages for a specific chat with pagination.
      * 
@@ -4,10 +4,13 @@ import com.moksh.kontext.chat.entity.Chat;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -26,4 +29,19 @@ public interface ChatRepository extends JpaRepository<Chat, UUID> {
     Page<Chat> findByProjectIdAndSearchTerm(@Param("projectId") UUID projectId, 
                                           @Param("searchTerm") String searchTerm, 
                                           Pageable pageable);
+
+    @Query("SELECT c.project.user.id FROM Chat c WHERE c.id = :chatId")
+    Optional<UUID> findOwnerId(@Param("chatId") UUID chatId);
+
+    /**
+     * Stores a rolling summary unless a newer one, covering later messages, was stored meanwhile.
+     * A bulk update leaves the version and audit columns of the chat untouched.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Chat c SET c.summary = :summary, c.summarizedUntil = :summarizedUntil WHERE c.id = :chatId AND " +
+           "(c.summarizedUntil IS NULL OR c.summarizedUntil < :summarizedUntil)")
+    int updateSummary(@Param("chatId") UUID chatId,
+                      @Param("summary") String summary,
+                      @Param("summarizedUntil") LocalDateTime summarizedUntil);
 }
\ No newline at end of file
@@ -1,23 +1,64 @@
 package com.moksh.kontext.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moksh.kontext.ai.advisor.KontextChatAdvisor;
+import com.moksh.kontext.ai.advisor.UnifiedChatMemoryAdvisor;
+import com.moksh.kontext.ai.index.HnswVectorStore;
+import com.moksh.kontext.ai.index.LocalVectorStoreProperties;
+import com.moksh.kontext.ai.limiter.LimitedChatModel;
+import com.moksh.kontext.ai.limiter.LimitedEmbeddingModel;
+import com.moksh.kontext.ai.limiter.ModelCallLimiters;
+import com.moksh.kontext.ai.limiter.ModelWorkload;
+import com.moksh.kontext.ai.service.QdrantPayloadIndexService;
+import com.moksh.kontext.ai.service.VectorService;
 import io.qdrant.client.QdrantClient;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.document.MetadataMode;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.ai.openai.OpenAiEmbeddingOptions;
 import org.springframework.ai.openai.api.OpenAiApi;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.ai.vectorstore.qdrant.QdrantVectorStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.List;
+
 @Configuration
 public class AiConfig {
 
+    public static final String CHAT_VECTOR_STORE = "chat_vector_store";
+
+    // Name of the auto-configured Qdrant knowledge store, reused by the local one so injection points don't change
+    public static final String KNOWLEDGE_VECTOR_STORE = "vectorStore";
+
     @Value("${spring.ai.openai.api-key}")
     private String openAiApiKey;
 
+    @Value("${spring.ai.openai.chat.options.model:gpt-4o}")
+    private String chatModel;
+
+    @Value("${spring.ai.openai.chat.options.temperature:0.7}")
+    private double chatTemperature;
+
+    @Value("${spring.ai.openai.chat.options.max-tokens:2000}")
+    private int chatMaxTokens;
+
+    @Value("${spring.ai.openai.embedding.options.model:text-embedding-3-small}")
+    private String embeddingModel;
+
+    @Value("${kontext.ai.memory.summary.model:gpt-4o-mini}")
+    private String summaryModel;
+
+    @Value("${kontext.ai.memory.summary.max-tokens:400}")
+    private int summaryMaxTokens;
 
     @Bean
     public OpenAiApi openAiApi() {
@@ -26,33 +67,125 @@ public class AiConfig {
                 .build();
     }
 
+    /**
+     * The primary chat model. Its defaults come from the spring.ai.openai.chat.options properties; the model
+     * router overrides model and token cap per request for turns it sends to the smaller model.
+     */
     @Bean
     public OpenAiChatModel openAiChatModel(OpenAiApi openAiApi) {
         return OpenAiChatModel.builder()
                 .openAiApi(openAiApi)
+                .defaultOptions(OpenAiChatOptions.builder()
+                        .model(chatModel)
+                        .temperature(chatTemperature)
+                        .maxTokens(chatMaxTokens)
+                        .build())
+                .build();
+    }
+
+    @Bean
+    public ChatClient chatClient(OpenAiChatModel chatModel, ModelCallLimiters modelCallLimiters) {
+        return ChatClient.builder(new LimitedChatModel(chatModel, modelCallLimiters, ModelWorkload.INTERACTIVE))
                 .build();
     }
 
+    /**
+     * Shared client for RAG chats. The advisors are stateless and read per-request data from the advisor
+     * context, so one client serves every conversation.
+     */
     @Bean
-    public ChatClient chatClient(OpenAiChatModel chatModel) {
-        return ChatClient.builder(chatModel).build();
+    public ChatClient ragChatClient(OpenAiChatModel chatModel, ModelCallLimiters modelCallLimiters,
+                                    KontextChatAdvisor kontextChatAdvisor,
+                                    UnifiedChatMemoryAdvisor unifiedChatMemoryAdvisor) {
+        return ChatClient.builder(new LimitedChatModel(chatModel, modelCallLimiters, ModelWorkload.INTERACTIVE))
+                .defaultAdvisors(kontextChatAdvisor, unifiedChatMemoryAdvisor)
+                .build();
+    }
+
+    /**
+     * Client for rolling conversation summaries. They are produced off the request path, so calls go through
+     * the background limiter pool and use the smaller model.
+     */
+    @Bean
+    public ChatClient summaryChatClient(OpenAiChatModel chatModel, ModelCallLimiters modelCallLimiters) {
+        return ChatClient.builder(new LimitedChatModel(chatModel, modelCallLimiters, ModelWorkload.BACKGROUND))
+                .defaultOptions(OpenAiChatOptions.builder()
+                        .model(summaryModel)
+                        .temperature(0.2)
+                        .maxTokens(summaryMaxTokens)
+                        .build())
+                .build();
     }
 
+    /**
+     * Shared by ingestion and queries, so stored and query vectors come from the same model. Worker embeddings are
+     * only stored as they are when they were computed with it too.
+     */
     @Bean
     public OpenAiEmbeddingModel openAiEmbeddingModel(OpenAiApi openAiApi) {
-        return new OpenAiEmbeddingModel(openAiApi);
+        return new OpenAiEmbeddingModel(openAiApi, MetadataMode.EMBED, OpenAiEmbeddingOptions.builder()
+                .model(embeddingModel)
+                .build());
+    }
+
+    /**
+     * Embedding model for ingestion; the auto-configured knowledge vector store picks this bean by name.
+     */
+    @Bean
+    public EmbeddingModel embeddingModel(OpenAiEmbeddingModel openAiEmbeddingModel,
+                                         ModelCallLimiters modelCallLimiters) {
+        return new LimitedEmbeddingModel(openAiEmbeddingModel, modelCallLimiters, ModelWorkload.BACKGROUND);
     }
 
+    /**
+     * Embedding model for chat queries, limited separately from ingestion.
+     */
     @Bean
-    public EmbeddingModel embeddingModel(OpenAiEmbeddingModel openAiEmbeddingModel) {
-        return openAiEmbeddingModel;
+    public EmbeddingModel queryEmbeddingModel(OpenAiEmbeddingModel openAiEmbeddingModel,
+                                              ModelCallLimiters modelCallLimiters) {
+        return new LimitedEmbeddingModel(openAiEmbeddingModel, modelCallLimiters, ModelWorkload.INTERACTIVE);
+    }
+
+    /**
+     * In-process knowledge store, replacing the auto-configured Qdrant one when the local backend is selected.
+     */
+    @Bean(name = KNOWLEDGE_VECTOR_STORE)
+    @ConditionalOnProperty(prefix = "kontext.ai.vector-store", name = "backend",
+            havingValue = LocalVectorStoreProperties.LOCAL)
+    public HnswVectorStore localKnowledgeVectorStore(@Qualifier("embeddingModel") EmbeddingModel embeddingModel,
+                                                     LocalVectorStoreProperties vectorStoreProperties,
+                                                     ObjectMapper objectMapper) {
+        return new HnswVectorStore(KNOWLEDGE_VECTOR_STORE, embeddingModel, vectorStoreProperties.getLocal(),
+                objectMapper);
     }
 
-    @Bean(name = "chat_vector_store")
-    public VectorStore chatVectorStore(QdrantClient qdrantClient,OpenAiEmbeddingModel openAiEmbeddingModel) {
-        return QdrantVectorStore.builder(
-                qdrantClient,openAiEmbeddingModel
-        )
-                .collectionName("chat_vector_store").initializeSchema(true).build();
+    @Bean(name = CHAT_VECTOR_STORE)
+    public VectorStore chatVectorStore(ObjectProvider<QdrantClient> qdrantClient,
+                                       OpenAiEmbeddingModel openAiEmbeddingModel,
+                                       ModelCallLimiters modelCallLimiters,
+                                       LocalVectorStoreProperties vectorStoreProperties,
+                                       ObjectProvider<QdrantPayloadIndexService> payloadIndexService,
+                                       ObjectMapper objectMapper) {
+        // Memory turns are embedded by the write-behind writer, off the request path
+        EmbeddingModel embeddingModel =
+                new LimitedEmbeddingModel(openAiEmbeddingModel, modelCallLimiters, ModelWorkload.BACKGROUND);
+        if (vectorStoreProperties.isLocal()) {
+            return new HnswVectorStore(CHAT_VECTOR_STORE, embeddingModel, vectorStoreProperties.getLocal(),
+                    objectMapper);
+        }
+
+        QdrantVectorStore vectorStore = QdrantVectorStore.builder(qdrantClient.getObject(), embeddingModel)
+                .collectionName(CHAT_VECTOR_STORE).initializeSchema(true).build();
+
+        // Create the collection now rather than in the container callback so the memory-search
+        // payload indexes can be put in place before the store is handed out
+        try {
+            vectorStore.afterPropertiesSet();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to initialize chat vector store", e);
+        }
+        payloadIndexService.getObject().ensureKeywordIndexes(CHAT_VECTOR_STORE,
+                List.of(VectorService.CONVERSATION_ID_KEY, VectorService.USER_ID_KEY));
+        return vectorStore;
     }
-}
\ No newline at end of file
+}
@@ -1,8 +1,10 @@
 package com.moksh.kontext.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.security.task.DelegatingSecurityContextAsyncTaskExecutor;
@@ -12,6 +14,7 @@ import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 @EnableAsync
@@ -38,6 +41,48 @@ public class AsyncConfig implements WebMvcConfigurer {
         return new DelegatingSecurityContextAsyncTaskExecutor(taskExecutor());
     }
 
+    /**
+     * Dedicated executor for the chat retrieval fan-out, kept separate from the general task pool so a burst of
+     * background work cannot delay time-to-first-token. Uses virtual threads (with a concurrency cap) on JDK 21+,
+     * otherwise a bounded pool that falls back to running on the caller when saturated.
+     */
+    @Bean(name = "ragRetrievalExecutor")
+    public AsyncTaskExecutor ragRetrievalExecutor(
+            @Value("${kontext.ai.retrieval.executor.max-concurrency:64}") int maxConcurrency,
+            @Value("${kontext.ai.retrieval.executor.queue-capacity:200}") int queueCapacity) {
+        if (Runtime.version().feature() >= 21) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("kontext-retrieval-");
+            executor.setVirtualThreads(true);
+            executor.setConcurrencyLimit(maxConcurrency);
+            return new DelegatingSecurityContextAsyncTaskExecutor(executor);
+        }
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(Math.min(8, maxConcurrency));
+        executor.setMaxPoolSize(maxConcurrency);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("kontext-retrieval-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return new DelegatingSecurityContextAsyncTaskExecutor(executor);
+    }
+
+    /**
+     * Executor for knowledge ingestion batches, kept separate from the general task pool so a large upload cannot
+     * hold up other background work. Each ingestion caps its own batches in flight, so the queue stays short.
+     */
+    @Bean(name = "embeddingExecutor")
+    public ThreadPoolTaskExecutor embeddingExecutor(
+            @Value("${kontext.ai.ingestion.embedding.executor-threads:8}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(1000);
+        executor.setThreadNamePrefix("kontext-embedding-");
+        executor.initialize();
+        return executor;
+    }
+
     @Override
     public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
         configurer.setTaskExecutor(asyncTaskExecutor());
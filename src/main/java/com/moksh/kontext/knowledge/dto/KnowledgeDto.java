@@ -23,4 +23,5 @@ public class KnowledgeDto extends BaseDto {
     private UUID projectId;
     private Knowledge.ProcessingStatus processingStatus;
     private String errorDetails;
+    private Integer processingProgress; // Percent of chunks stored while PROCESSING, null when unknown
 }
\ No newline at end of file
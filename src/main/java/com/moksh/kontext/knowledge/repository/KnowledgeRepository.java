@@ -32,6 +32,12 @@ public interface KnowledgeRepository extends JpaRepository<Knowledge, UUID> {
                                                 @Param("searchTerm") String searchTerm, 
                                                 Pageable pageable);
     
+    @Query("SELECT k.id FROM Knowledge k WHERE k.project.id = :projectId AND k.isActive = true")
+    List<UUID> findActiveIdsByProjectId(@Param("projectId") UUID projectId);
+
+    @Query("SELECT k.project.id FROM Knowledge k WHERE k.id = :knowledgeId AND k.isActive = true")
+    Optional<UUID> findActiveProjectId(@Param("knowledgeId") UUID knowledgeId);
+
     @Query("SELECT k FROM Knowledge k WHERE k.project.user.id = :userId AND k.project.id = :projectId AND k.isActive = true")
     List<Knowledge> findByUserIdAndProjectId(@Param("userId") UUID userId, @Param("projectId") UUID projectId);
 }
\ No newline at end of file
@@ -1,10 +1,12 @@
 package com.moksh.kontext.knowledge.service;
 
-import com.moksh.kontext.ai.service.VectorService;
+import com.moksh.kontext.ai.cache.SemanticResponseCache;
+import com.moksh.kontext.ai.service.LexicalIndexService;
 import com.moksh.kontext.aws.service.S3Service;
 import com.moksh.kontext.common.exception.BusinessException;
 import com.moksh.kontext.knowledge_processing.constants.EventType;
 import com.moksh.kontext.knowledge_processing.dto.event.ContentProcessRequestEvent;
+import com.moksh.kontext.knowledge_processing.service.IngestionProgressStore;
 import com.moksh.kontext.knowledge_processing.service.SqsMessageService;
 import com.moksh.kontext.common.exception.ResourceNotFoundException;
 import com.moksh.kontext.common.response.ApiResponse;
@@ -26,6 +28,8 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -54,11 +58,20 @@ public class KnowledgeService {
     @Autowired
     private S3Service s3Service;
     @Autowired
-    private VectorService vectorService;
+    private SemanticResponseCache semanticResponseCache;
+
+    @Autowired
+    private LexicalIndexService lexicalIndexService;
 
     @Autowired
     private SqsMessageService sqsMessageService;
 
+    @Autowired
+    private IngestionProgressStore ingestionProgressStore;
+
+    @Autowired
+    private KnowledgeVectorCleanup knowledgeVectorCleanup;
+
     public KnowledgeDto uploadFileKnowledge(UUID projectId, MultipartFile file) {
         UUID currentUserId = SecurityContextUtil.getCurrentUserId();
         
@@ -105,7 +118,7 @@ public class KnowledgeService {
         sqsMessageService.sendContentProcessingRequest(event);
         log.info("File knowledge created and processing request sent to SQS: {} for project: {}", fileName, projectId);
         
-        return knowledgeMapper.toDto(savedKnowledge);
+        return toDto(savedKnowledge);
     }
 
     public KnowledgeDto createWebKnowledge(UUID projectId, CreateKnowledgeDto createKnowledgeDto) {
@@ -147,7 +160,7 @@ public class KnowledgeService {
         sqsMessageService.sendContentProcessingRequest(event);
         log.info("Web knowledge created: {} for project: {}", urlName, projectId);
         
-        return knowledgeMapper.toDto(savedKnowledge);
+        return toDto(savedKnowledge);
     }
 
     @Transactional(readOnly = true)
@@ -160,7 +173,7 @@ public class KnowledgeService {
         List<Knowledge> knowledgeItems = knowledgeRepository.findByProjectIdAndIsActiveTrue(projectId);
         
         return knowledgeItems.stream()
-                .map(knowledgeMapper::toDto)
+                .map(this::toDto)
                 .collect(Collectors.toList());
     }
 
@@ -173,7 +186,7 @@ public class KnowledgeService {
 
         Page<Knowledge> knowledgeItems = knowledgeRepository.findByProjectIdAndIsActiveTrue(projectId, pageable);
         
-        return knowledgeItems.map(knowledgeMapper::toDto);
+        return knowledgeItems.map(this::toDto);
     }
 
     @Transactional(readOnly = true)
@@ -186,7 +199,7 @@ public class KnowledgeService {
         List<Knowledge> knowledgeItems = knowledgeRepository.findByProjectIdAndTypeAndIsActiveTrue(projectId, type);
         
         return knowledgeItems.stream()
-                .map(knowledgeMapper::toDto)
+                .map(this::toDto)
                 .collect(Collectors.toList());
     }
 
@@ -204,7 +217,7 @@ public class KnowledgeService {
         Knowledge knowledge = knowledgeRepository.findByIdAndProjectIdAndIsActiveTrue(knowledgeId, projectId)
                 .orElseThrow(() -> new ResourceNotFoundException("Knowledge not found"));
         
-        return knowledgeMapper.toDto(knowledge);
+        return toDto(knowledge);
     }
 
     public void deleteKnowledge(UUID projectId, UUID knowledgeId) {
@@ -216,19 +229,63 @@ public class KnowledgeService {
         Knowledge knowledge = knowledgeRepository.findByIdAndProjectIdAndIsActiveTrue(knowledgeId, projectId)
                 .orElseThrow(() -> new ResourceNotFoundException("Knowledge not found"));
 
-        if (knowledge.getType() != Knowledge.KnowledgeType.WEB) {
-            try {
-                s3Service.deleteFile(knowledge.getSource());
-            } catch (Exception e) {
-                log.warn("Failed to delete file from S3: {}", knowledge.getSource(), e);
-            }
-        }
+        // Recorded in the transaction, so the points are removed by the sweep even if the delete after commit
+        // fails or an ingestion of the item is still upserting; if it cannot be recorded, the item is not deleted
+        knowledgeVectorCleanup.register(knowledgeId);
 
         knowledge.setIsActive(false);
         knowledgeRepository.save(knowledge);
+
+        // Only once the item is inactive for good: a rolled-back delete must leave it retrievable
+        afterCommit(() -> {
+            knowledgeVectorCleanup.deleteNow(knowledgeId);
+            if (knowledge.getType() != Knowledge.KnowledgeType.WEB) {
+                try {
+                    s3Service.deleteFile(knowledge.getSource());
+                } catch (Exception e) {
+                    log.warn("Failed to delete file from S3: {}", knowledge.getSource(), e);
+                }
+            }
+            invalidateAnswerCache(projectId);
+            lexicalIndexService.removeKnowledge(projectId, knowledgeId);
+        });
         log.info("Knowledge deleted: {} from project: {}", knowledge.getName(), projectId);
     }
 
+    /**
+     * Sends an item whose points were lost back to the processing worker. The ingestion of the result replaces
+     * whatever is left of the item's points.
+     */
+    public void requestReprocessing(UUID knowledgeId) {
+        Knowledge knowledge = knowledgeRepository.findById(knowledgeId)
+                .orElseThrow(() -> new ResourceNotFoundException("Knowledge not found"));
+        boolean web = knowledge.getType() == Knowledge.KnowledgeType.WEB;
+
+        knowledge.setProcessingStatus(Knowledge.ProcessingStatus.PROCESSING);
+        knowledge.setErrorDetails(null);
+        knowledgeRepository.save(knowledge);
+
+        ContentProcessRequestEvent event = ContentProcessRequestEvent.builder()
+                .eventId(UUID.randomUUID().toString())
+                .eventType(EventType.CONTENT_PROCESS_REQUEST)
+                .timestamp(LocalDateTime.now())
+                .contentId(knowledgeId.toString())
+                .contentType(web ? EventType.CONTENT_TYPE_WEB : EventType.CONTENT_TYPE_DOCUMENT)
+                .name(knowledge.getName())
+                .s3Key(web ? null : extractS3Key(knowledge.getSource()))
+                .s3Bucket(web ? null : extractS3Bucket(knowledge.getSource()))
+                .webUrl(web ? knowledge.getSource() : null)
+                .mimeType(knowledge.getMimeType())
+                .fileSize(knowledge.getSize())
+                .projectId(knowledge.getProject().getId())
+                .userId(knowledge.getProject().getUser().getId())
+                .build();
+
+        // Sent after commit, so the worker's result never races the status update above
+        afterCommit(() -> sqsMessageService.sendContentProcessingRequest(event));
+        log.info("Knowledge {} sent back for processing", knowledgeId);
+    }
+
     @Transactional(readOnly = true)
     public Page<KnowledgeDto> searchKnowledge(UUID projectId, String searchTerm, Pageable pageable) {
         UUID currentUserId = SecurityContextUtil.getCurrentUserId();
@@ -238,7 +295,7 @@ public class KnowledgeService {
 
         Page<Knowledge> knowledgeItems = knowledgeRepository.findByProjectIdAndSearchTerm(projectId, searchTerm, pageable);
         
-        return knowledgeItems.map(knowledgeMapper::toDto);
+        return knowledgeItems.map(this::toDto);
     }
 
     private Knowledge.KnowledgeType determineKnowledgeType(String contentType) {
@@ -398,6 +455,20 @@ public class KnowledgeService {
         return "kontext-dev-bucket"; // This should match your S3 bucket configuration
     }
 
+    @Transactional(readOnly = true)
+    public boolean isKnowledgeActive(UUID knowledgeId) {
+        return knowledgeRepository.findById(knowledgeId)
+                .map(knowledge -> Boolean.TRUE.equals(knowledge.getIsActive()))
+                .orElse(false);
+    }
+
+    @Transactional(readOnly = true)
+    public UUID getKnowledgeProjectId(UUID knowledgeId) {
+        Knowledge knowledge = knowledgeRepository.findById(knowledgeId)
+                .orElseThrow(() -> new ResourceNotFoundException("Knowledge not found"));
+        return knowledge.getProject().getId();
+    }
+
     public void updateProcessingStatus(UUID knowledgeId, Knowledge.ProcessingStatus status) {
         Knowledge knowledge = knowledgeRepository.findById(knowledgeId)
                 .orElseThrow(() -> new ResourceNotFoundException("Knowledge not found"));
@@ -411,6 +482,29 @@ public class KnowledgeService {
 
     public void markProcessingSuccess(UUID knowledgeId) {
         updateProcessingStatus(knowledgeId, Knowledge.ProcessingStatus.SUCCESS);
+        // New documents are now searchable, so answers cached for the project may be outdated
+        invalidateAnswerCache(getKnowledgeProjectId(knowledgeId));
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void invalidateAnswerCache(UUID projectId) {
+        try {
+            semanticResponseCache.invalidateProject(projectId);
+        } catch (Exception e) {
+            log.warn("Failed to invalidate answer cache for project: {}", projectId, e);
+        }
     }
 
     public void markProcessingFailed(UUID knowledgeId, String errorDetails) {
@@ -492,6 +586,15 @@ public class KnowledgeService {
         });
     }
 
+    private KnowledgeDto toDto(Knowledge knowledge) {
+        KnowledgeDto dto = knowledgeMapper.toDto(knowledge);
+        if (knowledge.getProcessingStatus() == Knowledge.ProcessingStatus.PROCESSING) {
+            ingestionProgressStore.find(knowledge.getId())
+                    .ifPresent(progress -> dto.setProcessingProgress(progress.percentComplete()));
+        }
+        return dto;
+    }
+
     private Knowledge.ProcessingStatus getCurrentProcessingStatus(UUID knowledgeId, UUID projectId) {
         Knowledge knowledge = knowledgeRepository.findByIdAndProjectIdAndIsActiveTrue(knowledgeId, projectId)
                 .orElseThrow(() -> new ResourceNotFoundException("Knowledge not found"));
@@ -0,0 +1,122 @@
+package com.moksh.kontext.knowledge.service;
+
+import com.moksh.kontext.ai.service.VectorService;
+import com.moksh.kontext.knowledge.entity.Knowledge;
+import com.moksh.kontext.knowledge.repository.KnowledgeRepository;
+import com.moksh.kontext.redis.service.RedisService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes the vector store points of deleted knowledge, also when the delete fails or races with an ingestion
+ * that is still upserting the item's chunks.
+ * An item is recorded in Redis in the transaction that marks it inactive, and its points are deleted once that
+ * transaction commits. A periodic sweep deletes them again once the record is older than the grace period, which
+ * also catches points written after the first delete, and drops the record only after a delete has succeeded.
+ * A record of an item that is still active comes from a delete that rolled back; it is dropped once the item's
+ * points are confirmed present, or once a processed item without points has been sent back for processing.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class KnowledgeVectorCleanup {
+
+    private static final String PENDING_KEY = "kontext:knowledge:pending-vector-deletes";
+
+    private final RedisService redisService;
+    private final VectorService vectorService;
+    private final KnowledgeRepository knowledgeRepository;
+    // Lazily, since the knowledge service itself records deletes here
+    private final ObjectProvider<KnowledgeService> knowledgeService;
+
+    @Value("${kontext.ai.vector-cleanup.sweep-interval-seconds:60}")
+    private long sweepIntervalSeconds;
+
+    // Longer than a delete request takes to commit, so the sweep never runs against a delete still in progress
+    @Value("${kontext.ai.vector-cleanup.grace-period-seconds:120}")
+    private long gracePeriodSeconds;
+
+    private ScheduledExecutorService sweeper;
+
+    @PostConstruct
+    public void start() {
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kontext-vector-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalSeconds, sweepIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+
+    /**
+     * Records the item for deletion. Throws when the record cannot be written, so the caller does not mark the
+     * item deleted without a way to retry removing its points.
+     */
+    public void register(UUID knowledgeId) {
+        redisService.hashSet(PENDING_KEY, knowledgeId.toString(), String.valueOf(System.currentTimeMillis()));
+    }
+
+    /**
+     * Deletes the item's points now; a failure is left to the sweep.
+     */
+    public void deleteNow(UUID knowledgeId) {
+        try {
+            vectorService.deleteKnowledgeDocuments(knowledgeId);
+        } catch (Exception e) {
+            log.warn("Failed to delete vector store documents for knowledge {}, retrying later: {}",
+                    knowledgeId, e.getMessage());
+        }
+    }
+
+    void sweep() {
+        Map<String, String> pending;
+        try {
+            pending = redisService.hashEntries(PENDING_KEY);
+        } catch (Exception e) {
+            log.warn("Failed to read pending vector deletes: {}", e.getMessage());
+            return;
+        }
+
+        long cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(gracePeriodSeconds);
+        for (Map.Entry<String, String> entry : pending.entrySet()) {
+            try {
+                if (Long.parseLong(entry.getValue()) > cutoff) {
+                    continue;
+                }
+                UUID knowledgeId = UUID.fromString(entry.getKey());
+                Knowledge knowledge = knowledgeRepository.findById(knowledgeId)
+                        .filter(item -> Boolean.TRUE.equals(item.getIsActive()))
+                        .orElse(null);
+                if (knowledge == null) {
+                    vectorService.deleteKnowledgeDocuments(knowledgeId);
+                } else if (knowledge.getProcessingStatus() == Knowledge.ProcessingStatus.SUCCESS
+                        && !vectorService.hasKnowledgeDocuments(knowledgeId)) {
+                    // The delete rolled back after the points were removed
+                    log.warn("Active knowledge {} lost its vector store documents, sending it back for processing",
+                            knowledgeId);
+                    knowledgeService.getObject().requestReprocessing(knowledgeId);
+                }
+                // A pending or failed ingestion writes the item's points itself, if any
+                redisService.hashDelete(PENDING_KEY, entry.getKey());
+            } catch (Exception e) {
+                log.warn("Pending vector delete of knowledge {} failed again: {}", entry.getKey(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.moksh.kontext.knowledge_processing.config;
+
+import io.awspring.cloud.sqs.config.SqsMessageListenerContainerFactory;
+import io.awspring.cloud.sqs.listener.acknowledgement.handler.AcknowledgementMode;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+
+import java.time.Duration;
+import java.util.List;
+
+@Configuration
+public class SqsListenerConfig {
+
+    public static final String INGESTION_LISTENER_FACTORY = "ingestionSqsListenerContainerFactory";
+
+    /**
+     * Receives up to a full batch per poll and hands the messages to the listener in parallel. A message is only
+     * acknowledged once it was processed without error; acknowledgements are grouped into batch deletes.
+     */
+    @Bean(name = INGESTION_LISTENER_FACTORY)
+    public SqsMessageListenerContainerFactory<Object> ingestionSqsListenerContainerFactory(
+            SqsAsyncClient sqsAsyncClient,
+            SqsListenerProperties properties) {
+        int maxConcurrentMessages = Math.max(1, properties.getMaxConcurrentMessages());
+        return SqsMessageListenerContainerFactory.builder()
+                .sqsAsyncClient(sqsAsyncClient)
+                .configure(options -> options
+                        .maxConcurrentMessages(maxConcurrentMessages)
+                        .maxMessagesPerPoll(Math.min(properties.getMaxMessagesPerPoll(), maxConcurrentMessages))
+                        .pollTimeout(Duration.ofSeconds(properties.getPollTimeoutSeconds()))
+                        .messageVisibility(Duration.ofSeconds(properties.getVisibilityTimeoutSeconds()))
+                        .acknowledgementMode(AcknowledgementMode.ON_SUCCESS)
+                        .acknowledgementThreshold(properties.getAcknowledgementThreshold())
+                        .acknowledgementInterval(Duration.ofMillis(properties.getAcknowledgementIntervalMs()))
+                        // The sent timestamp gives the time a message waited in the queue
+                        .messageSystemAttributeNames(List.of(MessageSystemAttributeName.SENT_TIMESTAMP,
+                                MessageSystemAttributeName.APPROXIMATE_RECEIVE_COUNT)))
+                .build();
+    }
+}
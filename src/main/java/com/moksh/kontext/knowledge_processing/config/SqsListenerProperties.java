@@ -0,0 +1,47 @@
+package com.moksh.kontext.knowledge_processing.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Tuning of the listener that consumes processing results from the worker.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "kontext.ai.ingestion.listener")
+@Getter
+@Setter
+public class SqsListenerProperties {
+
+    /**
+     * Messages processed at the same time on one instance. Each one streams a chunk file and runs its own
+     * embedding pipeline, so this mostly bounds memory and embedding load.
+     */
+    private int maxConcurrentMessages = 10;
+
+    /**
+     * Messages fetched per receive call; SQS allows at most 10, and no more than {@link #maxConcurrentMessages}.
+     */
+    private int maxMessagesPerPoll = 10;
+
+    private int pollTimeoutSeconds = 20;
+
+    /**
+     * Processed messages are deleted in one call once this many are pending or the interval has passed.
+     */
+    private int acknowledgementThreshold = 10;
+
+    private long acknowledgementIntervalMs = 1000;
+
+    /**
+     * Visibility timeout a message is received with, and extended to while it is still being processed.
+     */
+    private int visibilityTimeoutSeconds = 120;
+
+    /**
+     * How often the visibility of a message still being processed is extended; well below the timeout, so a slow
+     * ingestion is never redelivered to another consumer halfway through.
+     */
+    private int visibilityExtensionIntervalSeconds = 60;
+}
@@ -0,0 +1,19 @@
+package com.moksh.kontext.knowledge_processing.dto;
+
+/**
+ * How far the ingestion of a knowledge item has got.
+ *
+ * @param totalChunks chunk count announced by the processing worker, or {@code null} when it sent none
+ */
+public record IngestionProgress(int storedChunks, Integer totalChunks) {
+
+    /**
+     * Percent of chunks stored, or {@code null} when the total is not known.
+     */
+    public Integer percentComplete() {
+        if (totalChunks == null || totalChunks <= 0) {
+            return null;
+        }
+        return Math.min(100, storedChunks * 100 / totalChunks);
+    }
+}
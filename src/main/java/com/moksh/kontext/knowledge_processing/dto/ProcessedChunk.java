@@ -0,0 +1,41 @@
+package com.moksh.kontext.knowledge_processing.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.ai.document.Document;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One entry of the chunk file the processing worker writes to S3. The shape is that of a serialized Spring AI
+ * {@link Document}, optionally extended with the chunk's embedding and the model that produced it.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ProcessedChunk {
+
+    private String id; // The worker's own id; points are stored under one derived from the chunk's position
+    private String text;
+    @Builder.Default
+    private Map<String, Object> metadata = new HashMap<>();
+    private float[] embedding; // Optional - when present, the chunk is stored without being embedded again
+    private String embeddingModel;
+
+    /**
+     * @param pointId id the chunk is stored under, in place of the worker's own {@link #id}
+     */
+    public Document toDocument(String pointId) {
+        return Document.builder()
+                .id(pointId)
+                .text(text)
+                .metadata(metadata != null ? metadata : Map.of())
+                .build();
+    }
+}
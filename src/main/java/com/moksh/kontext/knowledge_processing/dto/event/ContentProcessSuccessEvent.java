@@ -1,10 +1,10 @@
 package com.moksh.kontext.knowledge_processing.dto.event;
 
+import com.moksh.kontext.knowledge_processing.dto.ProcessedChunk;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 import lombok.experimental.SuperBuilder;
-import org.springframework.ai.document.Document;
 
 import java.util.List;
 
@@ -19,5 +19,5 @@ public class ContentProcessSuccessEvent extends ContentProcessEvent {
     private Integer chunkCount;
     private String s3BucketName;
     private String s3Key; // S3 key where the JSON of chunks is stored
-    private List<Document> documents; // Spring AI Document objects - will be populated from S3
+    private List<ProcessedChunk> documents; // Chunks, optionally with embeddings - streamed from the S3 key
 }
\ No newline at end of file
@@ -1,33 +1,182 @@
 package com.moksh.kontext.knowledge_processing.service;
 
+import com.moksh.kontext.ai.limiter.ModelCallTenant;
+import com.moksh.kontext.ai.service.EmbeddingPipeline;
+import com.moksh.kontext.ai.service.LexicalIndexService;
 import com.moksh.kontext.ai.service.VectorService;
-import com.moksh.kontext.knowledge.entity.Knowledge;
 import com.moksh.kontext.knowledge.service.KnowledgeService;
-import lombok.RequiredArgsConstructor;
+import com.moksh.kontext.knowledge_processing.dto.IngestionProgress;
+import com.moksh.kontext.knowledge_processing.dto.ProcessedChunk;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class ContentProcessingStatusService {
 
-    private final VectorService vectorService;
+    private final EmbeddingPipeline embeddingPipeline;
     private final KnowledgeService knowledgeService;
+    private final IngestionProgressStore progressStore;
+    private final LexicalIndexService lexicalIndexService;
+    private final VectorService vectorService;
+    private final Counter precomputedChunks;
+    private final Counter embeddedChunks;
+
+    @Value("${kontext.ai.ingestion.precomputed-embeddings.enabled:true}")
+    private boolean precomputedEmbeddingsEnabled;
+
+    // The model queries are embedded with; vectors from any other model are not comparable and are re-embedded
+    @Value("${spring.ai.openai.embedding.options.model:text-embedding-3-small}")
+    private String embeddingModel;
+
+    @Value("${kontext.ai.ingestion.precomputed-embeddings.dimensions:1536}")
+    private int embeddingDimensions;
+
+    public ContentProcessingStatusService(EmbeddingPipeline embeddingPipeline,
+                                          KnowledgeService knowledgeService,
+                                          IngestionProgressStore progressStore,
+                                          LexicalIndexService lexicalIndexService,
+                                          VectorService vectorService,
+                                          MeterRegistry meterRegistry) {
+        this.embeddingPipeline = embeddingPipeline;
+        this.knowledgeService = knowledgeService;
+        this.progressStore = progressStore;
+        this.lexicalIndexService = lexicalIndexService;
+        this.vectorService = vectorService;
+        this.precomputedChunks = chunkCounter(meterRegistry, "precomputed");
+        this.embeddedChunks = chunkCounter(meterRegistry, "embedded");
+    }
+
+    /**
+     * Source of a knowledge item's chunks, handed over one batch at a time so the whole item is never in memory.
+     */
+    @FunctionalInterface
+    public interface ChunkBatches {
+        void forEachBatch(Consumer<List<ProcessedChunk>> batchConsumer);
+    }
 
     public void markProcessingComplete(String contentId, String contentType, Integer chunkCount,
-                                       List<Document> documents, Long processingTimeMs) {
+                                       ChunkBatches chunks, Long processingTimeMs) {
         log.info("Marking {} content {} as processing complete. Chunks: {}, Processing time: {}ms",
                 contentType, contentId, chunkCount, processingTimeMs);
 
-        vectorService.addDocuments(documents);
-        knowledgeService.markProcessingSuccess(UUID.fromString(contentId));
+        UUID knowledgeId = UUID.fromString(contentId);
+        if (!knowledgeService.isKnowledgeActive(knowledgeId)) {
+            log.info("Knowledge {} was deleted before its chunks were stored, skipping", contentId);
+            return;
+        }
+        UUID projectId = knowledgeService.getKnowledgeProjectId(knowledgeId);
+
+        // Points of an earlier run are replaced, not overwritten: a file with fewer chunks would leave the surplus
+        // ones of the old run searchable
+        vectorService.deleteKnowledgeDocuments(knowledgeId);
+
+        // Only keep the chunks for the lexical index when this instance holds one for the project; it keeps
+        // them anyway. Otherwise the index is built from the vector store on the project's next query.
+        List<Document> lexicalDocuments = lexicalIndexService.isBuilt(projectId) ? new ArrayList<>() : null;
+        progressStore.save(knowledgeId, new IngestionProgress(0, chunkCount));
+
+        // Queue the embedding calls under the project so one large upload cannot starve other projects' ingestion
+        int stored = ModelCallTenant.callAs(projectId.toString(), () -> {
+            EmbeddingPipeline.Ingestion ingestion = embeddingPipeline.start(projectId, knowledgeId,
+                    storedChunks -> progressStore.save(knowledgeId, new IngestionProgress(storedChunks, chunkCount)));
+            AtomicInteger chunkIndex = new AtomicInteger();
+            chunks.forEachBatch(batch -> {
+                List<Document> submitted = submitBatch(ingestion, knowledgeId, batch, chunkIndex);
+                if (lexicalDocuments != null) {
+                    lexicalDocuments.addAll(submitted);
+                }
+            });
+            return ingestion.await();
+        });
+
+        // A delete that ran while the chunks were being stored may have missed some of them
+        if (!knowledgeService.isKnowledgeActive(knowledgeId)) {
+            vectorService.deleteKnowledgeDocuments(knowledgeId);
+            progressStore.clear(knowledgeId);
+            log.info("Knowledge {} was deleted while its chunks were stored, removed {} stored chunks",
+                    contentId, stored);
+            return;
+        }
+        knowledgeService.markProcessingSuccess(knowledgeId);
+        progressStore.clear(knowledgeId);
+        if (lexicalDocuments != null) {
+            lexicalIndexService.addKnowledge(projectId, knowledgeId, lexicalDocuments);
+        }
+
+        log.info("Content processing completed for {}: {} documents processed", contentId, stored);
+    }
+
+    /**
+     * Queues chunks that come with a usable embedding for storing as they are, and the rest for embedding.
+     */
+    private List<Document> submitBatch(EmbeddingPipeline.Ingestion ingestion, UUID knowledgeId,
+                                       List<ProcessedChunk> batch, AtomicInteger chunkIndex) {
+        List<Document> precomputed = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        List<Document> toEmbed = new ArrayList<>();
+        ProcessedChunk rejected = null;
+        for (ProcessedChunk chunk : batch) {
+            String pointId = pointId(knowledgeId, chunkIndex.getAndIncrement());
+            if (hasUsableEmbedding(chunk)) {
+                precomputed.add(chunk.toDocument(pointId));
+                embeddings.add(chunk.getEmbedding());
+            } else {
+                toEmbed.add(chunk.toDocument(pointId));
+                if (precomputedEmbeddingsEnabled && chunk.getEmbedding() != null) {
+                    rejected = chunk;
+                }
+            }
+        }
+        if (rejected != null) {
+            log.warn("Re-embedding chunks of knowledge {}: worker embeddings from model {} with {} dimensions, "
+                            + "expected {} with {}", knowledgeId, rejected.getEmbeddingModel(),
+                    rejected.getEmbedding().length, embeddingModel, embeddingDimensions);
+        }
+
+        List<Document> submitted = new ArrayList<>(batch.size());
+        if (!precomputed.isEmpty()) {
+            submitted.addAll(ingestion.submitEmbedded(precomputed, embeddings));
+            precomputedChunks.increment(precomputed.size());
+        }
+        if (!toEmbed.isEmpty()) {
+            submitted.addAll(ingestion.submit(toEmbed));
+            embeddedChunks.increment(toEmbed.size());
+        }
+        return submitted;
+    }
+
+    /**
+     * Id of a chunk's point, derived from its position in the chunk file. A batch that is retried within the run
+     * overwrites its points instead of adding a second copy of its chunks.
+     */
+    private static String pointId(UUID knowledgeId, int chunkIndex) {
+        return UUID.nameUUIDFromBytes((knowledgeId + ":" + chunkIndex).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private boolean hasUsableEmbedding(ProcessedChunk chunk) {
+        return precomputedEmbeddingsEnabled
+                && chunk.getEmbedding() != null
+                && chunk.getEmbedding().length == embeddingDimensions
+                && embeddingModel.equals(chunk.getEmbeddingModel());
+    }
 
-        log.info("Content processing completed for {}: {} documents processed", contentId, documents.size());
+    private static Counter chunkCounter(MeterRegistry meterRegistry, String embedding) {
+        return Counter.builder("kontext.ai.ingestion.chunks")
+                .description("Ingested knowledge chunks by where their embedding came from")
+                .tag("embedding", embedding)
+                .register(meterRegistry);
     }
 
     public void markProcessingFailed(String contentId, String contentType, String errorMessage,
@@ -35,6 +184,8 @@ public class ContentProcessingStatusService {
         log.error("Marking {} content {} as processing failed. Error: {} ({}), Failed at: {}",
                 contentType, contentId, errorMessage, errorCode, failedStep);
 
-        knowledgeService.markProcessingFailed(UUID.fromString(contentId),errorMessage);
+        UUID knowledgeId = UUID.fromString(contentId);
+        knowledgeService.markProcessingFailed(knowledgeId,errorMessage);
+        progressStore.clear(knowledgeId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package com.moksh.kontext.knowledge_processing.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moksh.kontext.knowledge_processing.dto.IngestionProgress;
+import com.moksh.kontext.redis.service.RedisService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Redis record of ingestion progress per knowledge item, so any instance can report how far an upload has got.
+ * Progress is best effort: failing to record it never fails the ingestion.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class IngestionProgressStore {
+
+    private static final String KEY_PREFIX = "kontext:ingestion-progress:";
+
+    private final RedisService redisService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${kontext.ai.ingestion.progress-ttl-minutes:60}")
+    private long ttlMinutes;
+
+    public void save(UUID knowledgeId, IngestionProgress progress) {
+        try {
+            redisService.set(KEY_PREFIX + knowledgeId, objectMapper.writeValueAsString(progress),
+                    Duration.ofMinutes(ttlMinutes));
+        } catch (Exception e) {
+            log.warn("Failed to record ingestion progress of knowledge {}: {}", knowledgeId, e.getMessage());
+        }
+    }
+
+    public Optional<IngestionProgress> find(UUID knowledgeId) {
+        try {
+            String value = redisService.get(KEY_PREFIX + knowledgeId);
+            return value == null
+                    ? Optional.empty()
+                    : Optional.of(objectMapper.readValue(value, IngestionProgress.class));
+        } catch (JsonProcessingException e) {
+            log.warn("Discarding unreadable ingestion progress of knowledge {}: {}", knowledgeId, e.getMessage());
+            return Optional.empty();
+        } catch (Exception e) {
+            log.warn("Failed to read ingestion progress of knowledge {}: {}", knowledgeId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public void clear(UUID knowledgeId) {
+        try {
+            redisService.delete(KEY_PREFIX + knowledgeId);
+        } catch (Exception e) {
+            log.warn("Failed to clear ingestion progress of knowledge {}: {}", knowledgeId, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.moksh.kontext.knowledge_processing.service;
+
+import com.moksh.kontext.redis.service.RedisService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Redis record of the processing events already handled, keyed by event id, so a redelivered SQS message is
+ * acknowledged without being processed again.
+ * An event is claimed before it is processed and marked processed afterwards. The claim is extended while the
+ * event is being processed and expires on its own if the instance handling it dies. When Redis is unavailable events are processed anyway: chunk point ids are
+ * deterministic, so processing one twice only overwrites its points.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class ProcessedEventStore {
+
+    private static final String KEY_PREFIX = "kontext:processed-event:";
+    private static final String PROCESSING = "processing";
+    private static final String PROCESSED = "processed";
+
+    public enum Claim {
+        /** This consumer processes the event. */
+        CLAIMED,
+        /** The event was processed before; the message is a duplicate. */
+        PROCESSED,
+        /** Another consumer is processing the event right now. */
+        IN_PROGRESS
+    }
+
+    private final RedisService redisService;
+
+    // Longer than the interval the claim is extended at; a claim left by a dead instance frees the event after this
+    @Value("${kontext.ai.ingestion.idempotency.claim-ttl-minutes:5}")
+    private long claimTtlMinutes;
+
+    // Longer than SQS keeps an undelivered message (at most 14 days)
+    @Value("${kontext.ai.ingestion.idempotency.processed-ttl-days:14}")
+    private long processedTtlDays;
+
+    public Claim claim(String eventId) {
+        try {
+            if (redisService.setIfAbsent(KEY_PREFIX + eventId, PROCESSING, Duration.ofMinutes(claimTtlMinutes))) {
+                return Claim.CLAIMED;
+            }
+            return PROCESSED.equals(redisService.get(KEY_PREFIX + eventId)) ? Claim.PROCESSED : Claim.IN_PROGRESS;
+        } catch (Exception e) {
+            log.warn("Processing event {} without a duplicate check: {}", eventId, e.getMessage());
+            return Claim.CLAIMED;
+        }
+    }
+
+    /**
+     * Pushes the expiry of a claim still held out to the full claim TTL again, so an ingestion that runs longer
+     * than the TTL keeps its event.
+     */
+    public void extendClaim(String eventId) {
+        try {
+            // Only a claim; a processed record keeps its own, longer TTL
+            if (PROCESSING.equals(redisService.get(KEY_PREFIX + eventId))) {
+                redisService.expire(KEY_PREFIX + eventId, Duration.ofMinutes(claimTtlMinutes));
+            }
+        } catch (Exception e) {
+            log.warn("Failed to extend the claim on event {}: {}", eventId, e.getMessage());
+        }
+    }
+
+    public void markProcessed(String eventId) {
+        try {
+            redisService.set(KEY_PREFIX + eventId, PROCESSED, Duration.ofDays(processedTtlDays));
+        } catch (Exception e) {
+            log.warn("Failed to record event {} as processed: {}", eventId, e.getMessage());
+        }
+    }
+
+    /**
+     * Gives up a claim after a failure, so the redelivered message is processed again right away.
+     */
+    public void release(String eventId) {
+        try {
+            redisService.delete(KEY_PREFIX + eventId);
+        } catch (Exception e) {
+            log.warn("Failed to release the claim on event {}: {}", eventId, e.getMessage());
+        }
+    }
+}
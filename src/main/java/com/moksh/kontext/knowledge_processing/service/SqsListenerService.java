@@ -1,14 +1,28 @@
 package com.moksh.kontext.knowledge_processing.service;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.moksh.kontext.knowledge_processing.config.KnowledgeProcessingConfig;
+import com.moksh.kontext.knowledge_processing.config.SqsListenerConfig;
+import com.moksh.kontext.knowledge_processing.config.SqsListenerProperties;
 import com.moksh.kontext.knowledge_processing.constants.EventType;
+import com.moksh.kontext.knowledge_processing.dto.ProcessedChunk;
 import com.moksh.kontext.knowledge_processing.dto.event.ContentProcessEvent;
 import com.moksh.kontext.knowledge_processing.dto.event.ContentProcessFailedEvent;
 import com.moksh.kontext.knowledge_processing.dto.event.ContentProcessSuccessEvent;
 import io.awspring.cloud.sqs.annotation.SqsListener;
-import lombok.RequiredArgsConstructor;
+import io.awspring.cloud.sqs.listener.SqsHeaders;
+import io.awspring.cloud.sqs.listener.Visibility;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
 import org.springframework.stereotype.Service;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
@@ -16,31 +30,156 @@ import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 import software.amazon.awssdk.core.ResponseInputStream;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
-import com.fasterxml.jackson.core.type.TypeReference;
-import org.springframework.ai.document.Document;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class SqsListenerService {
 
     private final S3Client s3Client;
     private final ObjectMapper objectMapper;
     private final ContentProcessingStatusService contentProcessingStatusService;
+    private final ProcessedEventStore processedEventStore;
 
-    @SqsListener(value = "${aws.sqs.processing-queue-name}", pollTimeoutSeconds = "20")
-    public void receiveMessage(String messageBody) {
+    private final SqsListenerProperties listenerProperties;
+    private final MeterRegistry meterRegistry;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Timer queueLag;
+    private final Counter duplicateMessages;
+    private final Timer succeededMessages;
+    private final Timer failedMessages;
+    private final Timer inProgressMessages;
+
+    @Value("${kontext.ai.ingestion.batch-size:64}")
+    private int ingestionBatchSize;
+
+    private ScheduledExecutorService visibilityExtender;
+
+    public SqsListenerService(S3Client s3Client,
+                              ObjectMapper objectMapper,
+                              ContentProcessingStatusService contentProcessingStatusService,
+                              ProcessedEventStore processedEventStore,
+                              SqsListenerProperties listenerProperties,
+                              MeterRegistry meterRegistry) {
+        this.s3Client = s3Client;
+        this.objectMapper = objectMapper;
+        this.contentProcessingStatusService = contentProcessingStatusService;
+        this.processedEventStore = processedEventStore;
+        this.listenerProperties = listenerProperties;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("kontext.ai.ingestion.messages.in_flight", inFlight, AtomicInteger::get)
+                .description("Processing result messages being handled on this instance")
+                .register(meterRegistry);
+        this.queueLag = Timer.builder("kontext.ai.ingestion.messages.lag")
+                .description("Time processing result messages waited in the queue before being received")
+                .register(meterRegistry);
+        this.duplicateMessages = Counter.builder("kontext.ai.ingestion.messages.duplicates")
+                .description("Redelivered processing result messages acknowledged without processing")
+                .register(meterRegistry);
+        this.succeededMessages = durationTimer(meterRegistry, "success");
+        this.failedMessages = durationTimer(meterRegistry, "failed");
+        this.inProgressMessages = durationTimer(meterRegistry, "in_progress");
+    }
+
+    private static Timer durationTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("kontext.ai.ingestion.messages.duration")
+                .description("Time to handle a processing result message, including ingesting its chunks")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        visibilityExtender = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "kontext-sqs-visibility");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        visibilityExtender.shutdownNow();
+    }
+
+    @SqsListener(value = "${aws.sqs.processing-queue-name}", factory = SqsListenerConfig.INGESTION_LISTENER_FACTORY)
+    public void receiveMessage(Message<String> message, Visibility visibility) {
+        recordQueueLag(message);
+        inFlight.incrementAndGet();
+        AtomicReference<String> claimedEventId = new AtomicReference<>();
+        ScheduledFuture<?> extension = extendVisibilityWhileProcessing(visibility, claimedEventId);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        Timer outcome = failedMessages;
         try {
-            processStatusMessage(messageBody);
+            processStatusMessage(message.getPayload(), claimedEventId);
+            outcome = succeededMessages;
+        } catch (EventInProgressException e) {
+            // Not a failure: left unacknowledged, the message comes back once its visibility timeout runs out
+            outcome = inProgressMessages;
+            log.info("{}, leaving the message for a later delivery", e.getMessage());
+            throw e;
         } catch (Exception e) {
             log.error("Failed to process status message: {}", e.getMessage(), e);
             throw new RuntimeException("Message processing failed", e);
+        } finally {
+            extension.cancel(false);
+            inFlight.decrementAndGet();
+            sample.stop(outcome);
         }
     }
 
-    private void processStatusMessage(String messageBody) throws Exception {
+    /**
+     * Keeps pushing the message's visibility timeout out while it is processed, so a large ingestion that takes
+     * longer than the timeout is not delivered to a second consumer. The event's claim is extended along with it,
+     * so a redelivery of the same event elsewhere still finds it in progress. Once processing ends the timeout is
+     * left to run out, which redelivers a failed message as before.
+     */
+    private ScheduledFuture<?> extendVisibilityWhileProcessing(Visibility visibility,
+                                                               AtomicReference<String> claimedEventId) {
+        int timeoutSeconds = listenerProperties.getVisibilityTimeoutSeconds();
+        long intervalSeconds = Math.max(1, listenerProperties.getVisibilityExtensionIntervalSeconds());
+        return visibilityExtender.scheduleAtFixedRate(() -> {
+                    visibility.changeToAsync(timeoutSeconds)
+                            .exceptionally(e -> {
+                                log.warn("Failed to extend the visibility of a status message: {}", e.getMessage());
+                                return null;
+                            });
+                    String eventId = claimedEventId.get();
+                    if (eventId != null) {
+                        processedEventStore.extendClaim(eventId);
+                    }
+                },
+                intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void recordQueueLag(Message<String> message) {
+        Object sentTimestamp = message.getHeaders().get(SqsHeaders.MessageSystemAttributes.SQS_SENT_TIMESTAMP);
+        if (sentTimestamp == null) {
+            return;
+        }
+        try {
+            long lagMs = System.currentTimeMillis() - Long.parseLong(sentTimestamp.toString());
+            queueLag.record(Duration.ofMillis(Math.max(0, lagMs)));
+        } catch (NumberFormatException e) {
+            log.debug("Ignoring unreadable sent timestamp {}", sentTimestamp);
+        }
+    }
+
+    /**
+     * @param claimedEventId set to the event's id while this consumer holds its claim
+     */
+    void processStatusMessage(String messageBody, AtomicReference<String> claimedEventId) throws Exception {
         ContentProcessEvent event = objectMapper.readValue(messageBody, ContentProcessEvent.class);
         
         // Add null safety checks
@@ -56,15 +195,47 @@ public class SqsListenerService {
             throw new IllegalArgumentException("Event type cannot be null");
         }
 
-        switch (eventType) {
-            case EventType.CONTENT_PROCESS_SUCCESS:
-                handleProcessingSuccess((ContentProcessSuccessEvent) event);
-                break;
-            case EventType.CONTENT_PROCESS_FAILED:
-                handleProcessingFailure((ContentProcessFailedEvent) event);
-                break;
-            default:
-                log.warn("Unexpected event type received on response queue: {}", eventType);
+        // SQS delivers at least once; a redelivered event is acknowledged without doing the work again
+        String eventId = event.getEventId();
+        if (eventId != null) {
+            switch (processedEventStore.claim(eventId)) {
+                case PROCESSED -> {
+                    log.info("Skipping already processed event {} for content {}", eventId, contentId);
+                    duplicateMessages.increment();
+                    return;
+                }
+                // Left unacknowledged: if the other consumer fails, this delivery picks the event up later
+                case IN_PROGRESS -> throw new EventInProgressException(eventId);
+                case CLAIMED -> claimedEventId.set(eventId);
+            }
+        }
+
+        try {
+            switch (eventType) {
+                case EventType.CONTENT_PROCESS_SUCCESS:
+                    handleProcessingSuccess((ContentProcessSuccessEvent) event);
+                    break;
+                case EventType.CONTENT_PROCESS_FAILED:
+                    handleProcessingFailure((ContentProcessFailedEvent) event);
+                    break;
+                default:
+                    log.warn("Unexpected event type received on response queue: {}", eventType);
+            }
+        } catch (Exception e) {
+            if (eventId != null) {
+                claimedEventId.set(null);
+                processedEventStore.release(eventId);
+            }
+            throw e;
+        }
+        if (eventId != null) {
+            // Stop extending the claim before it becomes the longer-lived processed record
+            claimedEventId.set(null);
+            processedEventStore.markProcessed(eventId);
+        }
+
+        if (event instanceof ContentProcessSuccessEvent successEvent) {
+            deleteChunkFile(successEvent);
         }
     }
 
@@ -73,27 +244,32 @@ public class SqsListenerService {
                 event.getContentId(), event.getContentType(), event.getChunkCount(), event.getS3Key());
         
         try {
-            // Fetch documents from S3
-            List<Document> documents = fetchDocumentsFromS3(event.getS3BucketName(), event.getS3Key());
-            event.setDocuments(documents);
-            
-            // Delete the document from S3 after successful fetch
-            deleteDocumentFromS3(event.getS3BucketName(), event.getS3Key());
-            
+            // Chunks are streamed from S3 and embedded batch by batch while the file is still being read
             contentProcessingStatusService.markProcessingComplete(
                     event.getContentId(),
                     event.getContentType(),
                     event.getChunkCount(),
-                    documents,
+                    batchConsumer -> streamDocumentsFromS3(event.getS3BucketName(), event.getS3Key(), batchConsumer),
                     event.getProcessingTimeMs()
             );
         } catch (Exception e) {
-            log.error("Failed to fetch documents from S3 - ContentId: {}, S3Key: {}, Error: {}", 
+            log.error("Failed to ingest documents from S3 - ContentId: {}, S3Key: {}, Error: {}",
                     event.getContentId(), event.getS3Key(), e.getMessage(), e);
             throw new RuntimeException("Failed to process success event due to S3 fetch error", e);
         }
     }
 
+    private void deleteChunkFile(ContentProcessSuccessEvent event) {
+        try {
+            // Only once the event is recorded as processed, so a failed ingestion can be retried from the same file
+            deleteDocumentFromS3(event.getS3BucketName(), event.getS3Key());
+        } catch (Exception e) {
+            // The knowledge is already searchable and the event recorded; nothing to retry
+            log.warn("Leaving processed chunk file in S3 - Bucket: {}, Key: {}",
+                    event.getS3BucketName(), event.getS3Key());
+        }
+    }
+
     private void handleProcessingFailure(ContentProcessFailedEvent event) {
         log.error("Content processing failed - ContentId: {}, ContentType: {}, Error: {}", 
                 event.getContentId(), event.getContentType(), event.getErrorMessage());
@@ -108,34 +284,48 @@ public class SqsListenerService {
     }
 
 
-    private List<Document> fetchDocumentsFromS3(String bucketName, String s3Key) {
-        try {
-            log.debug("Fetching documents from S3 - Bucket: {}, Key: {}", bucketName, s3Key);
-            
-            GetObjectRequest getObjectRequest = GetObjectRequest.builder()
-                    .bucket(bucketName)
-                    .key(s3Key)
-                    .build();
-            
-            try (ResponseInputStream<GetObjectResponse> s3Object = s3Client.getObject(getObjectRequest)) {
-                String jsonContent = new String(s3Object.readAllBytes());
-                
-                // Parse JSON to List<Document>
-                TypeReference<List<Document>> typeRef = new TypeReference<List<Document>>() {};
-                List<Document> documents = objectMapper.readValue(jsonContent, typeRef);
-                
-                log.info("Successfully fetched {} documents from S3 - Bucket: {}, Key: {}", 
-                        documents.size(), bucketName, s3Key);
-                
-                return documents;
+    /**
+     * Reads the chunk file, a JSON array of chunks, one chunk at a time and hands them on in batches of
+     * {@code kontext.ai.ingestion.batch-size}, so memory use is bounded by the batch size, not the file size.
+     */
+    private void streamDocumentsFromS3(String bucketName, String s3Key, Consumer<List<ProcessedChunk>> batchConsumer) {
+        log.debug("Streaming documents from S3 - Bucket: {}, Key: {}", bucketName, s3Key);
+
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(s3Key)
+                .build();
+
+        int count = 0;
+        try (ResponseInputStream<GetObjectResponse> s3Object = s3Client.getObject(getObjectRequest);
+             // Parsing the raw bytes lets Jackson detect the JSON encoding instead of using the platform charset
+             JsonParser parser = objectMapper.getFactory().createParser(s3Object)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalStateException("Expected a JSON array of documents");
+            }
+            List<ProcessedChunk> batch = new ArrayList<>(ingestionBatchSize);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                batch.add(objectMapper.readValue(parser, ProcessedChunk.class));
+                count++;
+                if (batch.size() >= ingestionBatchSize) {
+                    batchConsumer.accept(batch);
+                    batch = new ArrayList<>(ingestionBatchSize);
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_ARRAY) {
+                throw new IllegalStateException("Unexpected " + parser.currentToken() + " in the array of documents");
             }
+            if (!batch.isEmpty()) {
+                batchConsumer.accept(batch);
+            }
+            log.info("Successfully streamed {} documents from S3 - Bucket: {}, Key: {}", count, bucketName, s3Key);
         } catch (S3Exception e) {
-            log.error("S3 error while fetching documents - Bucket: {}, Key: {}, Error: {}", 
+            log.error("S3 error while fetching documents - Bucket: {}, Key: {}, Error: {}",
                     bucketName, s3Key, e.getMessage(), e);
             throw new RuntimeException("Failed to fetch documents from S3", e);
-        } catch (Exception e) {
-            log.error("Error parsing documents from S3 JSON - Bucket: {}, Key: {}, Error: {}", 
-                    bucketName, s3Key, e.getMessage(), e);
+        } catch (IOException e) {
+            log.error("Error parsing documents from S3 JSON after {} documents - Bucket: {}, Key: {}, Error: {}",
+                    count, bucketName, s3Key, e.getMessage(), e);
             throw new RuntimeException("Failed to parse documents from S3 JSON", e);
         }
     }
@@ -163,4 +353,14 @@ public class SqsListenerService {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Another consumer holds the claim on the event. The message is not acknowledged, without being treated as
+     * a failed one.
+     */
+    static class EventInProgressException extends RuntimeException {
+
+        EventInProgressException(String eventId) {
+            super("Event " + eventId + " is already being processed by another consumer");
+        }
+    }
+}
@@ -8,6 +8,8 @@ import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -38,6 +40,17 @@ public class RedisService {
         }
     }
 
+    public boolean setIfAbsent(String key, String value, Duration ttl) {
+        try {
+            Boolean set = redisTemplate.opsForValue().setIfAbsent(key, value, ttl);
+            log.debug("Set if absent key: {} with TTL: {} -> {}", key, ttl, set);
+            return Boolean.TRUE.equals(set);
+        } catch (Exception e) {
+            log.error("Error setting key if absent: {}", key, e);
+            throw new RedisOperationException("Failed to set key if absent: " + key, e);
+        }
+    }
+
     public String get(String key) {
         try {
             String value = redisTemplate.opsForValue().get(key);
@@ -190,6 +203,19 @@ public class RedisService {
         }
     }
 
+    public Map<String, String> hashEntries(String key) {
+        try {
+            Map<Object, Object> entries = redisTemplate.opsForHash().entries(key);
+            log.debug("Hash entries: {} -> {} fields", key, entries.size());
+            Map<String, String> result = new HashMap<>(entries.size());
+            entries.forEach((field, value) -> result.put(field.toString(), value.toString()));
+            return result;
+        } catch (Exception e) {
+            log.error("Error getting hash entries: {}", key, e);
+            throw new RedisOperationException("Failed to get hash entries: " + key, e);
+        }
+    }
+
     public boolean hashDelete(String key, String field) {
         try {
             Long deleted = redisTemplate.opsForHash().delete(key, field);
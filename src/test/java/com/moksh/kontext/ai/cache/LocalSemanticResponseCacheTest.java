@@ -0,0 +1,9 @@
+package com.moksh.kontext.ai.cache;
+
+class LocalSemanticResponseCacheTest extends SemanticResponseCacheTestBase {
+
+    @Override
+    protected AbstractSemanticResponseCache createCache() {
+        return new LocalSemanticResponseCache();
+    }
+}
@@ -0,0 +1,63 @@
+package com.moksh.kontext.ai.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moksh.kontext.redis.service.InMemoryRedisService;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class RedisSemanticResponseCacheTest extends SemanticResponseCacheTestBase {
+
+    private InMemoryRedisService redisService;
+
+    @Override
+    protected AbstractSemanticResponseCache createCache() {
+        redisService = new InMemoryRedisService();
+        return new RedisSemanticResponseCache(redisService, new ObjectMapper());
+    }
+
+    @Test
+    void storesVectorsApartFromEntriesWithTtl() {
+        cache.store(projectId, null, "what is the refund window?", new float[]{0.5f, -0.25f, 0f, 0f}, "30 days");
+
+        Map<String, Map<String, String>> hashes = redisService.hashes();
+        assertThat(hashes.keySet()).hasSize(3)
+                .allSatisfy(key -> assertThat(redisService.ttlOf(key)).isEqualTo(Duration.ofMinutes(TTL_MINUTES)));
+        String vectorsKey = hashes.keySet().stream().filter(key -> key.endsWith(":vectors")).findFirst().orElseThrow();
+        String entriesKey = hashes.keySet().stream().filter(key -> key.endsWith(":entries")).findFirst().orElseThrow();
+
+        String vector = hashes.get(vectorsKey).values().iterator().next();
+        assertThat(vector).startsWith(START.toEpochMilli() + ":");
+        assertThat(hashes.get(entriesKey).values().iterator().next())
+                .contains("30 days")
+                .doesNotContain(vector.substring(vector.indexOf(':') + 1));
+    }
+
+    @Test
+    void quantizedVectorKeepsCosineSimilarity() {
+        Random random = new Random(42);
+        float[] a = new float[1536];
+        float[] b = new float[1536];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = (float) random.nextGaussian();
+            b[i] = a[i] + (float) random.nextGaussian() * 0.3f;
+        }
+
+        double exact = AbstractSemanticResponseCache.cosineSimilarity(a, b);
+        double quantized = RedisSemanticResponseCache.cosineSimilarity(a, RedisSemanticResponseCache.quantize(b));
+
+        assertThat(quantized).isCloseTo(exact, within(0.005));
+        assertThat(RedisSemanticResponseCache.cosineSimilarity(a, RedisSemanticResponseCache.quantize(a)))
+                .isGreaterThan(0.999);
+    }
+
+    @Test
+    void quantizesZeroVectorWithoutDividingByZero() {
+        assertThat(RedisSemanticResponseCache.quantize(new float[]{0f, 0f})).containsExactly(0, 0);
+    }
+}
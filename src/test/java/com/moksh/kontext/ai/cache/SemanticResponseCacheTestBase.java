@@ -0,0 +1,119 @@
+package com.moksh.kontext.ai.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Behaviour both cache backends share; each backend's test supplies the instance.
+ */
+abstract class SemanticResponseCacheTestBase {
+
+    protected static final Instant START = Instant.parse("2026-01-01T00:00:00Z");
+    protected static final long TTL_MINUTES = 60;
+
+    protected final UUID projectId = UUID.randomUUID();
+    protected AbstractSemanticResponseCache cache;
+
+    protected abstract AbstractSemanticResponseCache createCache();
+
+    @BeforeEach
+    void setUpCache() {
+        cache = createCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "similarityThreshold", 0.95);
+        ReflectionTestUtils.setField(cache, "ttlMinutes", TTL_MINUTES);
+        ReflectionTestUtils.setField(cache, "maxEntriesPerProject", 2);
+        setTime(START);
+    }
+
+    protected void setTime(Instant now) {
+        ReflectionTestUtils.setField(cache, "clock", Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    @Test
+    void returnsAnswerForNearDuplicateQuestion() {
+        cache.store(projectId, "be brief", "what is the refund window?", new float[]{1f, 0.2f, 0f, 0f}, "30 days");
+
+        assertThat(cache.lookup(projectId, "be brief", new float[]{1f, 0.21f, 0.01f, 0f})).contains("30 days");
+    }
+
+    @Test
+    void missesDissimilarQuestion() {
+        cache.store(projectId, "be brief", "what is the refund window?", new float[]{1f, 0f, 0f, 0f}, "30 days");
+
+        assertThat(cache.lookup(projectId, "be brief", new float[]{0f, 1f, 0f, 0f})).isEmpty();
+    }
+
+    @Test
+    void missesOtherProjectAndOtherInstruction() {
+        float[] embedding = {1f, 0f, 0f, 0f};
+        cache.store(projectId, "be brief", "what is the refund window?", embedding, "30 days");
+
+        assertThat(cache.lookup(UUID.randomUUID(), "be brief", embedding)).isEmpty();
+        assertThat(cache.lookup(projectId, "be thorough", embedding)).isEmpty();
+    }
+
+    @Test
+    void ignoresEntriesOlderThanTtl() {
+        float[] embedding = {1f, 0f, 0f, 0f};
+        cache.store(projectId, null, "what is the refund window?", embedding, "30 days");
+
+        setTime(START.plus(Duration.ofMinutes(TTL_MINUTES - 1)));
+        assertThat(cache.lookup(projectId, null, embedding)).contains("30 days");
+
+        setTime(START.plus(Duration.ofMinutes(TTL_MINUTES + 1)));
+        assertThat(cache.lookup(projectId, null, embedding)).isEmpty();
+    }
+
+    @Test
+    void invalidationHidesAnswersCachedAgainstOldKnowledge() {
+        float[] embedding = {1f, 0f, 0f, 0f};
+        cache.store(projectId, null, "what is the refund window?", embedding, "30 days");
+        long version = cache.knowledgeVersion(projectId);
+
+        cache.invalidateProject(projectId);
+
+        assertThat(cache.knowledgeVersion(projectId)).isGreaterThan(version);
+        assertThat(cache.lookup(projectId, null, embedding)).isEmpty();
+
+        cache.store(projectId, null, "what is the refund window?", embedding, "14 days");
+        assertThat(cache.lookup(projectId, null, embedding)).contains("14 days");
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntryPastCap() {
+        float[] first = {1f, 0f, 0f, 0f};
+        float[] second = {0f, 1f, 0f, 0f};
+        float[] third = {0f, 0f, 1f, 0f};
+        cache.store(projectId, null, "first", first, "one");
+        setTime(START.plusSeconds(1));
+        cache.store(projectId, null, "second", second, "two");
+        setTime(START.plusSeconds(2));
+        assertThat(cache.lookup(projectId, null, first)).contains("one");
+
+        setTime(START.plusSeconds(3));
+        cache.store(projectId, null, "third", third, "three");
+
+        assertThat(cache.lookup(projectId, null, first)).contains("one");
+        assertThat(cache.lookup(projectId, null, second)).isEmpty();
+        assertThat(cache.lookup(projectId, null, third)).contains("three");
+    }
+
+    @Test
+    void doesNothingWhenDisabled() {
+        ReflectionTestUtils.setField(cache, "enabled", false);
+        float[] embedding = {1f, 0f, 0f, 0f};
+        cache.store(projectId, null, "what is the refund window?", embedding, "30 days");
+
+        assertThat(cache.lookup(projectId, null, embedding)).isEmpty();
+    }
+}
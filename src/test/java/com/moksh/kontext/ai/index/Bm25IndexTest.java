@@ -0,0 +1,104 @@
+package com.moksh.kontext.ai.index;
+
+import com.moksh.kontext.ai.service.VectorService;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Bm25IndexTest {
+
+    @Test
+    void tokenizeKeepsCompoundTokenAndItsParts() {
+        assertThat(Bm25Index.tokenize("Failed with ERR-4012 again"))
+                .containsExactly("failed", "with", "err-4012", "err", "4012", "again");
+    }
+
+    @Test
+    void tokenizeSplitsMixedSeparators() {
+        assertThat(Bm25Index.tokenize("upgrade to v2.1_beta/linux"))
+                .containsExactly("upgrade", "to", "v2.1_beta/linux", "v2", "1", "beta", "linux");
+    }
+
+    @Test
+    void tokenizeDropsPunctuationAndDanglingSeparators() {
+        assertThat(Bm25Index.tokenize("Hello, world! foo- -bar")).containsExactly("hello", "world", "foo", "bar");
+        assertThat(Bm25Index.tokenize(null)).isEmpty();
+        assertThat(Bm25Index.tokenize("")).isEmpty();
+    }
+
+    @Test
+    void exactCompoundMatchOutranksPartialMatch() {
+        Bm25Index index = new Bm25Index();
+        index.add(document("exact", "k1", "The upload failed with ERR-4012 during parsing"));
+        index.add(document("partial", "k1", "The upload failed with ERR-4013 during parsing"));
+        index.add(document("unrelated", "k1", "Billing runs on the first day of the month"));
+
+        List<Document> results = index.search("what does ERR-4012 mean", 10);
+
+        assertThat(results).extracting(Document::getId).containsExactly("exact", "partial");
+        assertThat(results.get(0).getScore()).isGreaterThan(results.get(1).getScore());
+    }
+
+    @Test
+    void higherTermFrequencyScoresHigherAtEqualLength() {
+        Bm25Index index = new Bm25Index();
+        index.add(document("twice", "k1", "refund refund policy"));
+        index.add(document("once", "k1", "refund shipping policy"));
+        index.add(document("none", "k1", "shipping shipping policy"));
+
+        List<Document> results = index.search("refund", 10);
+
+        assertThat(results).extracting(Document::getId).containsExactly("twice", "once");
+    }
+
+    @Test
+    void rareTermWeighsMoreThanCommonTerm() {
+        Bm25Index index = new Bm25Index();
+        index.add(document("rare", "k1", "invoice kraken"));
+        index.add(document("common", "k1", "invoice policy"));
+        index.add(document("other", "k1", "invoice terms"));
+
+        List<Document> results = index.search("invoice kraken", 10);
+
+        assertThat(results.get(0).getId()).isEqualTo("rare");
+        assertThat(results.get(0).getScore()).isGreaterThan(2 * results.get(1).getScore());
+    }
+
+    @Test
+    void searchHonoursTopKAndKnowledgeRemoval() {
+        Bm25Index index = new Bm25Index();
+        index.add(document("a", "k1", "refund policy"));
+        index.add(document("b", "k2", "refund window"));
+        index.add(document("c", "k2", "refund request"));
+
+        assertThat(index.search("refund", 2)).hasSize(2);
+
+        index.removeKnowledge("k2");
+
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.search("refund", 10)).extracting(Document::getId).containsExactly("a");
+        assertThat(index.search("window", 10)).isEmpty();
+    }
+
+    @Test
+    void readdingDocumentReplacesIt() {
+        Bm25Index index = new Bm25Index();
+        index.add(document("a", "k1", "refund policy"));
+        index.add(document("a", "k1", "shipping policy"));
+
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.search("refund", 10)).isEmpty();
+        assertThat(index.search("shipping", 10)).extracting(Document::getId).containsExactly("a");
+    }
+
+    private static Document document(String id, String knowledgeId, String text) {
+        return Document.builder()
+                .id(id)
+                .text(text)
+                .metadata(VectorService.KNOWLEDGE_ID_KEY, knowledgeId)
+                .build();
+    }
+}
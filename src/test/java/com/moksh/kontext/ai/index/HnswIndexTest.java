@@ -0,0 +1,118 @@
+package com.moksh.kontext.ai.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HnswIndexTest {
+
+    private static final int DIMENSION = 32;
+    private static final int COUNT = 2000;
+    private static final int K = 10;
+
+    private final Random random = new Random(7);
+
+    @Test
+    void graphSearchRecallsExactNeighbours() {
+        HnswIndex index = build();
+
+        assertThat(recall(index, candidate -> true)).isGreaterThanOrEqualTo(0.95);
+    }
+
+    @Test
+    void filteredGraphSearchOnlyReturnsAcceptedNodesAndRecallsExactNeighbours() {
+        HnswIndex index = build();
+        IntPredicate even = id -> id % 2 == 0;
+
+        for (int query = 0; query < 10; query++) {
+            assertThat(index.search(randomVector(), K, 100, even)).allMatch(hit -> even.test(hit.id()));
+        }
+        assertThat(recall(index, even)).isGreaterThanOrEqualTo(0.95);
+    }
+
+    @Test
+    void resultsAreOrderedBestFirst() {
+        HnswIndex index = build();
+
+        List<HnswIndex.Scored> hits = index.search(randomVector(), K, 100, id -> true);
+
+        assertThat(hits).hasSize(K);
+        assertThat(hits).isSortedAccordingTo((a, b) -> Float.compare(b.score(), a.score()));
+    }
+
+    @Test
+    void snapshotRoundTripAnswersQueriesIdentically(@TempDir Path directory) throws IOException {
+        HnswIndex index = build();
+        Path graph = directory.resolve("graph.bin");
+        Path vectors = directory.resolve("vectors.bin");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(graph)))) {
+            index.writeTo(out, vectors);
+        }
+
+        HnswIndex loaded;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(graph)))) {
+            loaded = HnswIndex.readFrom(in, vectors);
+        }
+
+        assertThat(loaded.size()).isEqualTo(index.size());
+        for (int query = 0; query < 20; query++) {
+            float[] vector = randomVector();
+            assertThat(loaded.search(vector, K, 100, id -> true)).isEqualTo(index.search(vector, K, 100, id -> true));
+        }
+        // Inserts after a reload continue the same graph
+        float[] extra = randomVector();
+        assertThat(loaded.add(extra)).isEqualTo(index.add(extra));
+        assertThat(loaded.search(extra, 1, 100, id -> true).get(0).id()).isEqualTo(COUNT);
+    }
+
+    private HnswIndex build() {
+        // Small segments, so the vectors span several of them
+        HnswIndex index = new HnswIndex(DIMENSION, 16, 200, 256);
+        for (int i = 0; i < COUNT; i++) {
+            assertThat(index.add(randomVector())).isEqualTo(i);
+        }
+        return index;
+    }
+
+    private double recall(HnswIndex index, IntPredicate accept) {
+        Set<Integer> all = IntStream.range(0, index.size()).boxed().collect(Collectors.toSet());
+        double total = 0;
+        int queries = 50;
+        for (int query = 0; query < queries; query++) {
+            float[] vector = randomVector();
+            Set<Integer> exact = ids(index.exact(vector, all, K, accept));
+            Set<Integer> approximate = ids(index.search(vector, K, 100, accept));
+            approximate.retainAll(exact);
+            total += approximate.size() / (double) exact.size();
+        }
+        return total / queries;
+    }
+
+    private static Set<Integer> ids(List<HnswIndex.Scored> hits) {
+        return hits.stream().map(HnswIndex.Scored::id).collect(Collectors.toCollection(HashSet::new));
+    }
+
+    private float[] randomVector() {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,216 @@
+package com.moksh.kontext.ai.index;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moksh.kontext.ai.service.VectorService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class HnswVectorStoreTest {
+
+    private static final int DIMENSION = 16;
+
+    private final Random random = new Random(11);
+    private final Map<String, float[]> vectors = new HashMap<>();
+
+    @Test
+    void deletedKnowledgeNeverMatchesFilteredSearch() {
+        LocalVectorStoreProperties.Local properties = properties();
+        HnswVectorStore store = store(properties);
+        addDocuments(store, 300);
+
+        store.delete(new FilterExpressionBuilder().eq(VectorService.KNOWLEDGE_ID_KEY, "k1").build());
+
+        Filter.Expression projectA = new FilterExpressionBuilder().eq(VectorService.PROJECT_ID_KEY, "A").build();
+        for (int exactSearchThreshold : new int[]{4096, 0}) {
+            // 4096 answers the project filter by scanning its posting, 0 by the filtered graph search
+            properties.setExactSearchThreshold(exactSearchThreshold);
+            int found = 0;
+            int queries = 20;
+            for (int query = 0; query < queries; query++) {
+                float[] vector = randomVector();
+                List<HnswVectorStore.Hit> hits = store.search(vector, 5, -1.0, projectA, false);
+
+                assertThat(hits).hasSize(5).allSatisfy(hit -> {
+                    assertThat(hit.document().getMetadata()).containsEntry(VectorService.PROJECT_ID_KEY, "A");
+                    assertThat(hit.document().getMetadata()).doesNotContainEntry(VectorService.KNOWLEDGE_ID_KEY, "k1");
+                });
+                List<String> exact = exactTop(store, vector, 5, projectA);
+                found += (int) ids(hits).stream().filter(exact::contains).count();
+            }
+            assertThat(found / (5.0 * queries)).isGreaterThanOrEqualTo(0.95);
+        }
+    }
+
+    @Test
+    void keepsDeletedNodesForRoutingBelowCompactionThreshold() {
+        HnswVectorStore store = store(properties());
+        List<String> ids = addDocuments(store, 100);
+
+        store.delete(ids.subList(0, 10));
+        store.compact();
+
+        assertThat(store.graphSize()).isEqualTo(100);
+        assertThat(store.search(vectors.get(ids.get(0)), 3, -1.0, null, false))
+                .extracting(hit -> hit.document().getId())
+                .doesNotContain(ids.get(0));
+    }
+
+    @Test
+    void compactionDropsDeletedNodesAndKeepsLiveDocuments() {
+        HnswVectorStore store = store(properties());
+        List<String> ids = addDocuments(store, 400);
+
+        store.delete(ids.subList(0, 200));
+        // Also scheduled in the background by the delete; whichever runs second finds nothing left to do
+        store.compact();
+
+        assertThat(store.graphSize()).isEqualTo(200);
+        for (String id : ids.subList(200, 400)) {
+            assertThat(store.search(vectors.get(id), 1, -1.0, null, false))
+                    .extracting(hit -> hit.document().getId())
+                    .containsExactly(id);
+        }
+        AtomicInteger scrolled = new AtomicInteger();
+        store.scroll(null, 64, page -> scrolled.addAndGet(page.size()));
+        assertThat(scrolled).hasValue(200);
+
+        // Freed slots are reused: new documents extend the compacted graph, not the old one
+        addDocuments(store, 10);
+        assertThat(store.graphSize()).isEqualTo(210);
+    }
+
+    @Test
+    void snapshotRoundTripRestoresDocumentsAndResults(@TempDir Path directory) throws InterruptedException {
+        LocalVectorStoreProperties.Local properties = properties();
+        properties.setSnapshotDirectory(directory.toString());
+        properties.setSnapshotIntervalSeconds(0);
+        HnswVectorStore store = store(properties);
+        store.afterPropertiesSet();
+        List<String> ids = addDocuments(store, 300);
+        store.delete(ids.subList(0, 30));
+        store.snapshot();
+
+        HnswVectorStore reloaded = store(properties);
+        reloaded.afterPropertiesSet();
+
+        Filter.Expression projectB = new FilterExpressionBuilder().eq(VectorService.PROJECT_ID_KEY, "B").build();
+        for (int query = 0; query < 10; query++) {
+            float[] vector = randomVector();
+            assertThat(results(reloaded, vector, null)).isEqualTo(results(store, vector, null));
+            assertThat(results(reloaded, vector, projectB)).isEqualTo(results(store, vector, projectB));
+        }
+        assertThat(reloaded.search(vectors.get(ids.get(0)), 300, -1.0, null, false))
+                .extracting(hit -> hit.document().getId())
+                .doesNotContainAnyElementsOf(ids.subList(0, 30));
+
+        // A compacted store snapshots only its live nodes
+        store.delete(ids.subList(30, 200));
+        store.compact();
+        Thread.sleep(5);
+        store.snapshot();
+        HnswVectorStore compacted = store(properties);
+        compacted.afterPropertiesSet();
+
+        assertThat(compacted.graphSize()).isEqualTo(100);
+        for (String id : ids.subList(200, 300)) {
+            assertThat(compacted.search(vectors.get(id), 1, -1.0, null, false))
+                    .extracting(hit -> hit.document().getId())
+                    .containsExactly(id);
+        }
+    }
+
+    private LocalVectorStoreProperties.Local properties() {
+        LocalVectorStoreProperties.Local properties = new LocalVectorStoreProperties.Local();
+        properties.setDimensions(DIMENSION);
+        properties.setM(8);
+        properties.setEfConstruction(100);
+        properties.setEfSearch(64);
+        properties.setSegmentCapacity(64);
+        properties.setCompactionDeadRatio(0.25);
+        return properties;
+    }
+
+    private HnswVectorStore store(LocalVectorStoreProperties.Local properties) {
+        return new HnswVectorStore("test", mock(EmbeddingModel.class), properties, new ObjectMapper());
+    }
+
+    /**
+     * Adds documents spread over projects A and B and knowledge items k0 to k2, returning their ids in order.
+     */
+    private List<String> addDocuments(HnswVectorStore store, int count) {
+        List<Document> documents = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String id = "doc-" + vectors.size();
+            float[] vector = randomVector();
+            vectors.put(id, vector);
+            documents.add(Document.builder()
+                    .id(id)
+                    .text("chunk " + id)
+                    .metadata(VectorService.PROJECT_ID_KEY, i % 2 == 0 ? "A" : "B")
+                    .metadata(VectorService.KNOWLEDGE_ID_KEY, "k" + (i % 3))
+                    .build());
+            embeddings.add(vector);
+        }
+        store.add(documents, embeddings);
+        return documents.stream().map(Document::getId).toList();
+    }
+
+    /**
+     * Ids of the {@code k} documents matching {@code filter} most similar to {@code vector}, by a full scan.
+     */
+    private List<String> exactTop(HnswVectorStore store, float[] vector, int k, Filter.Expression filter) {
+        List<String> matching = new ArrayList<>();
+        store.scroll(filter, 100, page -> page.forEach(document -> matching.add(document.getId())));
+        return matching.stream()
+                .sorted(Comparator.comparingDouble((String id) -> cosine(vector, vectors.get(id))).reversed())
+                .limit(k)
+                .toList();
+    }
+
+    private static List<String> results(HnswVectorStore store, float[] vector, Filter.Expression filter) {
+        return store.search(vector, 10, -1.0, filter, false).stream()
+                .map(hit -> hit.document().getId() + "@" + hit.document().getScore())
+                .toList();
+    }
+
+    private static List<String> ids(List<HnswVectorStore.Hit> hits) {
+        return hits.stream().map(hit -> hit.document().getId()).toList();
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        return dot / Math.sqrt(normA * normB);
+    }
+
+    private float[] randomVector() {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}
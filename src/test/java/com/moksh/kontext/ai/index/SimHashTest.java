@@ -0,0 +1,49 @@
+package com.moksh.kontext.ai.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SimHashTest {
+
+    private static final String POLICY = "Refunds are issued within 14 days of the return being received at our "
+            + "warehouse in Berlin. Items must be unused and in their original packaging. Shipping costs are not "
+            + "refunded unless the item arrived damaged or was sent in error. Store credit can be chosen instead of "
+            + "a refund and is issued immediately.";
+
+    @Test
+    void ignoresCaseAndPunctuation() {
+        long fingerprint = SimHash.fingerprint(POLICY);
+
+        assertThat(SimHash.fingerprint(POLICY.toUpperCase(Locale.ROOT).replace(".", " ;"))).isEqualTo(fingerprint);
+        assertThat(SimHash.similarity(fingerprint, fingerprint)).isEqualTo(1.0);
+    }
+
+    @Test
+    void placesNearDuplicatesCloserThanUnrelatedText() {
+        long fingerprint = SimHash.fingerprint(POLICY);
+        long edited = SimHash.fingerprint(POLICY.replace("immediately", "right away"));
+        long unrelated = SimHash.fingerprint(
+                "The API rate limit is 100 requests per minute per key; bursts above that receive HTTP 429 responses.");
+
+        assertThat(SimHash.distance(fingerprint, edited)).isLessThan(SimHash.distance(fingerprint, unrelated) / 2);
+        assertThat(SimHash.similarity(fingerprint, edited)).isGreaterThan(SimHash.similarity(fingerprint, unrelated));
+    }
+
+    @Test
+    void fingerprintsSingleTokensAndEmptyText() {
+        assertThat(SimHash.fingerprint("")).isZero();
+        assertThat(SimHash.fingerprint(null)).isZero();
+        assertThat(SimHash.fingerprint("invoice")).isNotZero().isEqualTo(SimHash.fingerprint("Invoice!"));
+    }
+
+    @Test
+    void similarityBottomsOutAtZero() {
+        long fingerprint = SimHash.fingerprint(POLICY);
+
+        assertThat(SimHash.distance(fingerprint, ~fingerprint)).isEqualTo(64);
+        assertThat(SimHash.similarity(fingerprint, ~fingerprint)).isZero();
+    }
+}
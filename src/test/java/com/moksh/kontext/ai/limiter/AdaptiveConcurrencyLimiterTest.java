@@ -0,0 +1,136 @@
+package com.moksh.kontext.ai.limiter;
+
+import com.moksh.kontext.common.exception.BusinessException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void grantsUpToTheLimitThenQueues() {
+        AdaptiveConcurrencyLimiter limiter = limiter(new ModelLimiterProperties.Pool(2, 1, 8, 10, 10, 30000), 0.5);
+
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> first = limiter.acquireAsync("a");
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> second = limiter.acquireAsync("a");
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> third = limiter.acquireAsync("a");
+
+        assertThat(first).isDone();
+        assertThat(second).isDone();
+        assertThat(third).isNotDone();
+        assertThat(gauge("kontext.ai.limiter.queued")).isEqualTo(1.0);
+
+        first.join().release(AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+
+        assertThat(third).isDone();
+        assertThat(gauge("kontext.ai.limiter.in_flight")).isEqualTo(2.0);
+        assertThat(gauge("kontext.ai.limiter.queued")).isEqualTo(0.0);
+    }
+
+    @Test
+    void servesTenantsRoundRobin() {
+        AdaptiveConcurrencyLimiter limiter = limiter(new ModelLimiterProperties.Pool(1, 1, 1, 10, 10, 30000), 0.5);
+        AdaptiveConcurrencyLimiter.Permit running = limiter.acquire("a");
+        List<String> served = new ArrayList<>();
+        List<AdaptiveConcurrencyLimiter.Permit> granted = new ArrayList<>();
+        for (String tenant : List.of("a", "a", "a", "b")) {
+            limiter.acquireAsync(tenant).thenAccept(permit -> {
+                served.add(tenant);
+                granted.add(permit);
+            });
+        }
+
+        // A waiter is granted on the releasing thread, so each release hands the only slot to the next in line
+        running.release(AdaptiveConcurrencyLimiter.Outcome.IGNORE);
+        for (int i = 0; i < 4; i++) {
+            granted.get(i).release(AdaptiveConcurrencyLimiter.Outcome.IGNORE);
+        }
+
+        // The second tenant is served after one call of the first, not after its whole burst
+        assertThat(served).containsExactly("a", "b", "a", "a");
+    }
+
+    @Test
+    void rejectsWhenTheTenantQueueIsFull() {
+        AdaptiveConcurrencyLimiter limiter = limiter(new ModelLimiterProperties.Pool(1, 1, 1, 10, 1, 30000), 0.5);
+        limiter.acquire("a");
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> queued = limiter.acquireAsync("a");
+
+        assertThat(queued).isNotDone();
+        assertThatThrownBy(() -> limiter.acquire("a"))
+                .isInstanceOf(BusinessException.class)
+                .hasFieldOrPropertyWithValue("httpStatus", HttpStatus.TOO_MANY_REQUESTS);
+        // Another tenant still gets a queue slot
+        assertThat(limiter.acquireAsync("b")).isNotDone();
+        assertThat(meterRegistry.get("kontext.ai.limiter.rejected").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void rejectsAndDequeuesAWaiterThatTimesOut() {
+        AdaptiveConcurrencyLimiter limiter = limiter(new ModelLimiterProperties.Pool(1, 1, 1, 10, 10, 50), 0.5);
+        limiter.acquire("a");
+
+        CompletableFuture<AdaptiveConcurrencyLimiter.Permit> waiter = limiter.acquireAsync("b");
+
+        assertThatThrownBy(waiter::join)
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(BusinessException.class);
+        assertThat(gauge("kontext.ai.limiter.queued")).isEqualTo(0.0);
+    }
+
+    @Test
+    void backsOffOnOverloadDownToTheMinimum() {
+        AdaptiveConcurrencyLimiter limiter = limiter(new ModelLimiterProperties.Pool(8, 3, 16, 10, 10, 30000), 0.5);
+
+        limiter.acquire("a").release(AdaptiveConcurrencyLimiter.Outcome.OVERLOAD);
+        assertThat(gauge("kontext.ai.limiter.limit")).isEqualTo(4.0);
+
+        limiter.acquire("a").release(AdaptiveConcurrencyLimiter.Outcome.OVERLOAD);
+        assertThat(gauge("kontext.ai.limiter.limit")).isEqualTo(3.0);
+        assertThat(meterRegistry.get("kontext.ai.limiter.overload").counter().count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void growsOnlyWhileTheLimitIsInUse() {
+        AdaptiveConcurrencyLimiter limiter = limiter(new ModelLimiterProperties.Pool(4, 1, 16, 10, 10, 30000), 0.5);
+
+        // One call in flight out of four: the limit is not in use and stays put
+        limiter.acquire("a").release(AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+        assertThat(gauge("kontext.ai.limiter.limit")).isEqualTo(4.0);
+
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire("a");
+        limiter.acquire("a");
+        first.release(AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+        assertThat(gauge("kontext.ai.limiter.limit")).isEqualTo(4.25);
+    }
+
+    @Test
+    void releasingTwiceFreesOneSlot() {
+        AdaptiveConcurrencyLimiter limiter = limiter(new ModelLimiterProperties.Pool(2, 1, 2, 10, 10, 30000), 0.5);
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire("a");
+        limiter.acquire("a");
+
+        permit.release(AdaptiveConcurrencyLimiter.Outcome.IGNORE);
+        permit.release(AdaptiveConcurrencyLimiter.Outcome.IGNORE);
+
+        assertThat(gauge("kontext.ai.limiter.in_flight")).isEqualTo(1.0);
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(ModelLimiterProperties.Pool pool, double backoffRatio) {
+        return new AdaptiveConcurrencyLimiter("test", pool, backoffRatio, meterRegistry);
+    }
+
+    private double gauge(String name) {
+        return meterRegistry.get(name).tag("pool", "test").gauge().value();
+    }
+}
@@ -0,0 +1,67 @@
+package com.moksh.kontext.ai.limiter;
+
+import com.moksh.kontext.ai.advisor.KontextChatAdvisor;
+import com.moksh.kontext.ai.service.ContextPacker;
+import com.moksh.kontext.ai.service.RagMetrics;
+import com.moksh.kontext.ai.service.RagMetricsProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LimitedChatModelTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ChatModel delegate = mock(ChatModel.class);
+    private final ModelCallLimiters limiters = mock(ModelCallLimiters.class);
+    private final AdaptiveConcurrencyLimiter limiter = spy(new AdaptiveConcurrencyLimiter("test",
+            new ModelLimiterProperties.Pool(2, 1, 4, 10, 10, 30000), 0.5, meterRegistry));
+
+    @Test
+    void queuesAStreamedTurnUnderTheSubscribersTenantAfterTheAdvisorsSwitchThreads() {
+        AtomicReference<Thread> modelThread = new AtomicReference<>();
+        when(limiters.isEnabled()).thenReturn(true);
+        when(limiters.limiter(ModelWorkload.INTERACTIVE)).thenReturn(limiter);
+        when(delegate.getDefaultOptions()).thenReturn(ChatOptions.builder().build());
+        when(delegate.stream(any(Prompt.class))).thenAnswer(invocation -> {
+            modelThread.set(Thread.currentThread());
+            return Flux.just(new ChatResponse(List.of(new Generation(new AssistantMessage("answer")))));
+        });
+        ChatClient chatClient = ChatClient.builder(new LimitedChatModel(delegate, limiters, ModelWorkload.INTERACTIVE))
+                .defaultAdvisors(new KontextChatAdvisor(new ContextPacker(meterRegistry),
+                        new RagMetrics(meterRegistry, ObservationRegistry.NOOP, new RagMetricsProperties())))
+                .build();
+        String userId = UUID.randomUUID().toString();
+
+        List<ChatResponse> responses = chatClient.prompt()
+                .user("What is the refund window?")
+                .stream()
+                .chatResponse()
+                .contextWrite(ModelCallTenant.streamAs(userId))
+                .collectList()
+                .block();
+
+        assertThat(responses).hasSize(1);
+        // The advisor published the call onto its scheduler, where no user is on the thread
+        assertThat(modelThread.get()).isNotSameAs(Thread.currentThread());
+        verify(limiter).acquireAsync(userId);
+    }
+}
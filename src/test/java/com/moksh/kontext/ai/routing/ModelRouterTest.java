@@ -0,0 +1,111 @@
+package com.moksh.kontext.ai.routing;
+
+import com.moksh.kontext.ai.dto.RetrievalResult;
+import com.moksh.kontext.ai.service.ContextPacker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ModelRouterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ModelRoutingProperties properties = new ModelRoutingProperties();
+    private final ModelRouter router = new ModelRouter(properties, new ContextPacker(meterRegistry), meterRegistry);
+    private final UUID projectId = UUID.randomUUID();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"hi", "Thanks so much!", "  ok  ", "good morning :)", "Got it."})
+    void routesSmallTalkToTheSimpleModel(String query) {
+        ModelRoute route = router.route(projectId, query, retrieval(3));
+
+        assertThat(route.tier()).isEqualTo(ModelRoute.Tier.SIMPLE);
+        assertThat(route.reason()).isEqualTo("small_talk");
+        assertThat(route.model()).isEqualTo(properties.getSimpleModel());
+        assertThat(route.maxTokens()).isEqualTo(properties.getSimpleMaxTokens());
+    }
+
+    @Test
+    void routesAShortLookupToTheSimpleModel() {
+        ModelRoute route = router.route(projectId, "What is the refund window?", retrieval(1));
+
+        assertThat(route.tier()).isEqualTo(ModelRoute.Tier.SIMPLE);
+        assertThat(route.reason()).isEqualTo("short_query");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"Why was my order cancelled?", "Compare the two plans", "Explain refunds",
+            "what are the pros and cons", "fix this ```code```"})
+    void escalatesComplexIntent(String query) {
+        ModelRoute route = router.route(projectId, query, retrieval(0));
+
+        assertThat(route).isEqualTo(ModelRoute.primary("complex_intent"));
+    }
+
+    @Test
+    void doesNotMatchMarkersInsideWords() {
+        // "show" contains "how" but is not a complexity marker
+        assertThat(router.route(projectId, "show my invoices", retrieval(0)).reason()).isEqualTo("short_query");
+    }
+
+    @Test
+    void escalatesAQueryOverTheTokenCap() {
+        properties.setSimpleMaxQueryTokens(5);
+
+        ModelRoute route = router.route(projectId, "list every invoice sent to the Berlin office last year",
+                retrieval(0));
+
+        assertThat(route).isEqualTo(ModelRoute.primary("long_query"));
+    }
+
+    @Test
+    void escalatesWhenSeveralKnowledgeChunksAreRetrieved() {
+        ModelRoute route = router.route(projectId, "What is the refund window?", retrieval(2));
+
+        assertThat(route).isEqualTo(ModelRoute.primary("knowledge_heavy"));
+    }
+
+    @Test
+    void honoursProjectPins() {
+        properties.getProjects().put(projectId.toString(), ModelRoute.Tier.PRIMARY);
+        assertThat(router.route(projectId, "hi", retrieval(0))).isEqualTo(ModelRoute.primary("project_override"));
+
+        properties.getProjects().put(projectId.toString(), ModelRoute.Tier.SIMPLE);
+        ModelRoute route = router.route(projectId, "Explain the whole architecture", retrieval(5));
+        assertThat(route.tier()).isEqualTo(ModelRoute.Tier.SIMPLE);
+        assertThat(route.reason()).isEqualTo("project_override");
+    }
+
+    @Test
+    void alwaysUsesThePrimaryModelWhenDisabled() {
+        properties.setEnabled(false);
+
+        assertThat(router.route(projectId, "hi", retrieval(0))).isEqualTo(ModelRoute.primary("disabled"));
+    }
+
+    @Test
+    void countsDecisionsByRouteAndReason() {
+        router.route(projectId, "hi", retrieval(0));
+        router.route(projectId, "hello", retrieval(0));
+
+        assertThat(meterRegistry.get("kontext.ai.routing.decisions")
+                .tag("route", "simple")
+                .tag("reason", "small_talk")
+                .counter()
+                .count()).isEqualTo(2.0);
+    }
+
+    private static RetrievalResult retrieval(int knowledgeHits) {
+        List<Document> documents = IntStream.range(0, knowledgeHits)
+                .mapToObj(i -> Document.builder().text("chunk " + i).build())
+                .toList();
+        return new RetrievalResult(null, documents, List.of(), null, List.of());
+    }
+}
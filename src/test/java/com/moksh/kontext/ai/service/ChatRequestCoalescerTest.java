@@ -0,0 +1,125 @@
+package com.moksh.kontext.ai.service;
+
+import com.moksh.kontext.ai.cache.SemanticResponseCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ChatRequestCoalescerTest {
+
+    private final SemanticResponseCache semanticResponseCache = mock(SemanticResponseCache.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final UUID projectId = UUID.randomUUID();
+    private ChatRequestCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        when(semanticResponseCache.knowledgeVersion(any())).thenReturn(0L);
+        coalescer = new ChatRequestCoalescer(semanticResponseCache, meterRegistry);
+        ReflectionTestUtils.setField(coalescer, "enabled", true);
+    }
+
+    @Test
+    void sameQuestionInDifferentChatsDoesNotShareGeneration() {
+        Sinks.Many<String> firstUserAnswer = Sinks.many().replay().all();
+        Sinks.Many<String> secondUserAnswer = Sinks.many().replay().all();
+        AtomicInteger generations = new AtomicInteger();
+
+        ChatRequestCoalescer.Attachment first = coalescer.join(projectId, UUID.randomUUID(),
+                "What did I ask yesterday?", () -> {
+                    generations.incrementAndGet();
+                    return firstUserAnswer.asFlux();
+                });
+        ChatRequestCoalescer.Attachment second = coalescer.join(projectId, UUID.randomUUID(),
+                "What did I ask yesterday?", () -> {
+                    generations.incrementAndGet();
+                    return secondUserAnswer.asFlux();
+                });
+
+        assertThat(first.leader()).isTrue();
+        assertThat(second.leader()).isTrue();
+
+        firstUserAnswer.tryEmitNext("About invoices, Alex");
+        firstUserAnswer.tryEmitComplete();
+        secondUserAnswer.tryEmitNext("About refunds, Sam");
+        secondUserAnswer.tryEmitComplete();
+
+        assertThat(first.response().collectList().block()).containsExactly("About invoices, Alex");
+        assertThat(second.response().collectList().block()).containsExactly("About refunds, Sam");
+        assertThat(generations).hasValue(2);
+        assertThat(meterRegistry.counter("kontext.ai.requests.coalesced").count()).isZero();
+    }
+
+    @Test
+    void retryInSameChatAttachesToInFlightGeneration() {
+        Sinks.Many<String> answer = Sinks.many().replay().all();
+        AtomicInteger generations = new AtomicInteger();
+        UUID chatId = UUID.randomUUID();
+
+        ChatRequestCoalescer.Attachment leader = coalescer.join(projectId, chatId, "What is the refund window?",
+                () -> {
+                    generations.incrementAndGet();
+                    return answer.asFlux();
+                });
+        // Subscribing starts the generation, which stays in flight until the answer completes
+        leader.response().subscribe();
+        ChatRequestCoalescer.Attachment retry = coalescer.join(projectId, chatId, "  what is the REFUND window ",
+                () -> {
+                    generations.incrementAndGet();
+                    return Flux.just("second generation");
+                });
+
+        answer.tryEmitNext("30 ");
+        answer.tryEmitNext("days");
+        answer.tryEmitComplete();
+
+        assertThat(retry.leader()).isFalse();
+        assertThat(retry.response().collectList().block()).containsExactly("30 ", "days");
+        assertThat(generations).hasValue(1);
+        assertThat(meterRegistry.counter("kontext.ai.requests.coalesced").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void completedGenerationIsNotReused() {
+        UUID chatId = UUID.randomUUID();
+        coalescer.join(projectId, chatId, "What is the refund window?", () -> Flux.just("30 days"))
+                .response().blockLast();
+
+        ChatRequestCoalescer.Attachment next = coalescer.join(projectId, chatId, "What is the refund window?",
+                () -> Flux.just("14 days"));
+
+        assertThat(next.leader()).isTrue();
+        assertThat(next.response().blockLast()).isEqualTo("14 days");
+    }
+
+    @Test
+    void knowledgeChangeStartsNewGeneration() {
+        UUID chatId = UUID.randomUUID();
+        ChatRequestCoalescer.Attachment before = coalescer.join(projectId, chatId, "What is the refund window?",
+                Flux::never);
+        before.response().subscribe();
+        when(semanticResponseCache.knowledgeVersion(projectId)).thenReturn(1L);
+
+        ChatRequestCoalescer.Attachment after = coalescer.join(projectId, chatId, "What is the refund window?",
+                () -> Flux.just("14 days"));
+
+        assertThat(after.leader()).isTrue();
+    }
+
+    @Test
+    void normalizesCaseWhitespaceAndTrailingPunctuation() {
+        assertThat(ChatRequestCoalescer.normalize("  What   is the\nrefund window?! "))
+                .isEqualTo("what is the refund window");
+    }
+}
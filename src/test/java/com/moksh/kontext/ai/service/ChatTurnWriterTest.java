@@ -0,0 +1,115 @@
+package com.moksh.kontext.ai.service;
+
+import com.moksh.kontext.ai.dto.ChatTurn;
+import com.moksh.kontext.chat.entity.ChatMessage;
+import com.moksh.kontext.chat.repository.ChatMessageRepository;
+import com.moksh.kontext.chat.repository.ChatRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ChatTurnWriterTest {
+
+    private final ChatMessageRepository chatMessageRepository = mock(ChatMessageRepository.class);
+    private final ChatRepository chatRepository = mock(ChatRepository.class);
+    private final ConversationSummarizer conversationSummarizer = mock(ConversationSummarizer.class);
+    private final VectorStore chatVectorStore = mock(VectorStore.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void writesOnCallerThreadWhenQueueIsFull() {
+        // The writer thread is never started, so the single queue slot stays taken
+        ChatTurnWriter writer = writer("async", 1);
+        ChatTurn queued = turn(UUID.randomUUID());
+        ChatTurn overflow = turn(UUID.randomUUID());
+
+        writer.enqueue(queued);
+        verify(chatMessageRepository, never()).save(any());
+
+        writer.enqueue(overflow);
+
+        verify(chatMessageRepository, times(2)).save(any(ChatMessage.class));
+        verify(chatVectorStore).add(anyList());
+        assertThat(meterRegistry.counter("kontext.chat.turns.caller_runs").count()).isEqualTo(1.0);
+        assertThat(writer.pendingMessages(overflow.chatId())).isEmpty();
+        assertThat(writer.pendingMessages(queued.chatId())).hasSize(2);
+    }
+
+    @Test
+    void queuedTurnsAreVisibleAsPendingNewestFirst() {
+        ChatTurnWriter writer = writer("async", 10);
+        UUID chatId = UUID.randomUUID();
+
+        writer.enqueue(new ChatTurn(chatId, UUID.randomUUID(), "first question", "first answer", 1L, null));
+        writer.enqueue(new ChatTurn(chatId, UUID.randomUUID(), "second question", "second answer", 2L, null));
+
+        assertThat(writer.pendingMessages(chatId)).extracting(Message::getText)
+                .containsExactly("second answer", "second question", "first answer", "first question");
+    }
+
+    @Test
+    void flushesQueuedTurnsOnShutdown() {
+        ChatTurnWriter writer = writer("async", 10);
+        UUID chatId = UUID.randomUUID();
+        writer.enqueue(turn(chatId));
+        writer.enqueue(turn(chatId));
+        // A writer thread that already stopped, leaving the queue for the shutdown flush
+        ReflectionTestUtils.setField(writer, "writerThread", new Thread(() -> { }));
+
+        writer.shutdown();
+
+        verify(chatMessageRepository, times(4)).save(any(ChatMessage.class));
+        verify(chatVectorStore, times(1)).add(anyList());
+        verify(conversationSummarizer).scheduleIfNeeded(List.of(chatId));
+        assertThat(writer.pendingMessages(chatId)).isEmpty();
+        assertThat(meterRegistry.counter("kontext.chat.turns.persisted").count()).isEqualTo(2.0);
+    }
+
+    @Test
+    void writerThreadDrainsEverythingBeforeShutdownReturns() {
+        ChatTurnWriter writer = writer("async", 100);
+        writer.start();
+        for (int i = 0; i < 20; i++) {
+            writer.enqueue(turn(UUID.randomUUID()));
+        }
+
+        writer.shutdown();
+
+        verify(chatMessageRepository, times(40)).save(any(ChatMessage.class));
+        assertThat(meterRegistry.counter("kontext.chat.turns.persisted").count()).isEqualTo(20.0);
+    }
+
+    @Test
+    void syncModeWritesImmediately() {
+        ChatTurnWriter writer = writer("sync", 10);
+        ChatTurn turn = turn(UUID.randomUUID());
+
+        writer.enqueue(turn);
+
+        verify(chatMessageRepository, times(2)).save(any(ChatMessage.class));
+        assertThat(writer.pendingMessages(turn.chatId())).isEmpty();
+    }
+
+    private ChatTurnWriter writer(String mode, int queueCapacity) {
+        return new ChatTurnWriter(chatMessageRepository, chatRepository, conversationSummarizer, chatVectorStore,
+                mock(PlatformTransactionManager.class), meterRegistry, mode, queueCapacity, 50, 10L, 5000L);
+    }
+
+    private static ChatTurn turn(UUID chatId) {
+        return new ChatTurn(chatId, UUID.randomUUID(), "question", "answer", System.currentTimeMillis(), null);
+    }
+}
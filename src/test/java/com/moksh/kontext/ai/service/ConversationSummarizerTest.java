@@ -0,0 +1,155 @@
+package com.moksh.kontext.ai.service;
+
+import com.moksh.kontext.chat.entity.Chat;
+import com.moksh.kontext.chat.entity.ChatMessage;
+import com.moksh.kontext.chat.repository.ChatMessageRepository;
+import com.moksh.kontext.chat.repository.ChatRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ConversationSummarizerTest {
+
+    private static final LocalDateTime START = LocalDateTime.of(2025, 1, 1, 12, 0);
+
+    private final ChatRepository chatRepository = mock(ChatRepository.class);
+    private final ChatMessageRepository chatMessageRepository = mock(ChatMessageRepository.class);
+    private final ChatClient summaryChatClient = mock(ChatClient.class, RETURNS_DEEP_STUBS);
+    private final ContextPacker contextPacker = mock(ContextPacker.class);
+    private final UUID chatId = UUID.randomUUID();
+    private final Chat chat = new Chat();
+    private ConversationSummarizer summarizer;
+
+    @BeforeEach
+    void setUp() {
+        // Summaries run on the calling thread
+        summarizer = new ConversationSummarizer(chatRepository, chatMessageRepository, summaryChatClient,
+                contextPacker, Runnable::run, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(summarizer, "enabled", true);
+        ReflectionTestUtils.setField(summarizer, "triggerTokens", 1200);
+        ReflectionTestUtils.setField(summarizer, "keepRecentMessages", 4);
+        ReflectionTestUtils.setField(summarizer, "maxInputTokens", 6000);
+
+        // Every message counts as 100 tokens
+        when(contextPacker.countTokens(anyString())).thenReturn(100);
+        when(chatRepository.findById(chatId)).thenReturn(Optional.of(chat));
+        when(chatRepository.updateSummary(any(), anyString(), any())).thenReturn(1);
+        when(summaryChatClient.prompt().user(anyString()).call().content()).thenReturn(" folded summary ");
+    }
+
+    @Test
+    void skipsChatAtTheTriggerBudget() {
+        givenUnsummarized(12);
+
+        summarizer.scheduleIfNeeded(List.of(chatId));
+
+        verify(chatRepository, never()).updateSummary(any(), anyString(), any());
+    }
+
+    @Test
+    void foldsAllButTheRecentMessagesOnceOverTheBudget() {
+        givenUnsummarized(13);
+
+        summarizer.scheduleIfNeeded(List.of(chatId));
+
+        // Messages 0..8 are folded, the last four stay verbatim
+        verify(chatRepository).updateSummary(chatId, "folded summary", START.plusMinutes(8));
+    }
+
+    @Test
+    void skipsChatWithOnlyRecentMessages() {
+        ReflectionTestUtils.setField(summarizer, "triggerTokens", 100);
+        givenUnsummarized(4);
+
+        summarizer.scheduleIfNeeded(List.of(chatId));
+
+        verify(chatRepository, never()).updateSummary(any(), anyString(), any());
+    }
+
+    @Test
+    void capsOneFoldAtTheInputBudget() {
+        ReflectionTestUtils.setField(summarizer, "maxInputTokens", 300);
+        givenUnsummarized(20);
+
+        summarizer.scheduleIfNeeded(List.of(chatId));
+
+        verify(chatRepository).updateSummary(chatId, "folded summary", START.plusMinutes(2));
+    }
+
+    @Test
+    void foldsAnOversizedMessageOnItsOwn() {
+        ReflectionTestUtils.setField(summarizer, "maxInputTokens", 50);
+        givenUnsummarized(20);
+
+        summarizer.scheduleIfNeeded(List.of(chatId));
+
+        verify(chatRepository).updateSummary(chatId, "folded summary", START);
+    }
+
+    @Test
+    void onlyReadsMessagesAfterTheExistingSummary() {
+        chat.setSummary("earlier summary");
+        chat.setSummarizedUntil(START.minusMinutes(1));
+        when(chatMessageRepository.findByChatIdAndCreatedAtAfter(chatId, START.minusMinutes(1)))
+                .thenReturn(messages(13));
+
+        summarizer.scheduleIfNeeded(List.of(chatId));
+
+        verify(chatMessageRepository, never()).findByChatIdOrderByCreatedAtAsc(any());
+        verify(chatRepository).updateSummary(eq(chatId), eq("folded summary"), eq(START.plusMinutes(8)));
+    }
+
+    @Test
+    void keepsTheStoredSummaryWhenTheModelReturnsNothing() {
+        when(summaryChatClient.prompt().user(anyString()).call().content()).thenReturn("  ");
+        givenUnsummarized(13);
+
+        summarizer.scheduleIfNeeded(List.of(chatId));
+
+        verify(chatRepository, never()).updateSummary(any(), anyString(), any());
+    }
+
+    @Test
+    void doesNothingWhenDisabled() {
+        ReflectionTestUtils.setField(summarizer, "enabled", false);
+        givenUnsummarized(13);
+
+        summarizer.scheduleIfNeeded(List.of(chatId));
+
+        verify(chatRepository, never()).findById(any());
+    }
+
+    private void givenUnsummarized(int count) {
+        when(chatMessageRepository.findByChatIdOrderByCreatedAtAsc(chatId)).thenReturn(messages(count));
+    }
+
+    private static List<ChatMessage> messages(int count) {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ChatMessage message = new ChatMessage();
+            message.setContent("message " + i);
+            message.setType(i % 2 == 0 ? MessageType.USER : MessageType.ASSISTANT);
+            message.setCreatedAt(START.plusMinutes(i));
+            messages.add(message);
+        }
+        return messages;
+    }
+}
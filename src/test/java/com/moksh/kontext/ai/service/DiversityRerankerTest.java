@@ -0,0 +1,91 @@
+package com.moksh.kontext.ai.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiversityRerankerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private DiversityReranker reranker;
+
+    @BeforeEach
+    void setUp() {
+        reranker = new DiversityReranker(meterRegistry);
+        ReflectionTestUtils.setField(reranker, "enabled", true);
+        ReflectionTestUtils.setField(reranker, "overfetchFactor", 4);
+        ReflectionTestUtils.setField(reranker, "mmrLambda", 0.5);
+        ReflectionTestUtils.setField(reranker, "duplicateMaxDistance", 3);
+    }
+
+    @Test
+    void dropsNearDuplicatesOfAMoreRelevantChunk() {
+        Document original = document("a", "Refunds are issued within 14 days of the return.", 0.9);
+        Document copy = document("b", "REFUNDS are issued within 14 days of the return!", 0.8);
+        Document other = document("c", "The API rate limit is 100 requests per minute.", 0.5);
+
+        List<Document> selected = reranker.select(List.of(original, copy, other), Map.of(), 3);
+
+        assertThat(selected).extracting(Document::getId).containsExactly("a", "c");
+        assertThat(meterRegistry.get("kontext.ai.retrieval.duplicates.suppressed").counter().count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void prefersADifferentChunkOverASlightlyMoreRelevantRedundantOne() {
+        Document top = document("a", "Refunds are issued within 14 days.", 0.9);
+        Document redundant = document("b", "Money comes back two weeks after the return arrives.", 0.85);
+        Document different = document("c", "Shipping costs are only refunded for damaged items.", 0.5);
+        Map<String, float[]> embeddings = Map.of(
+                "a", new float[]{1f, 0f},
+                "b", new float[]{0.99f, 0.1f},
+                "c", new float[]{0f, 1f});
+
+        List<Document> selected = reranker.select(List.of(top, redundant, different), embeddings, 2);
+
+        assertThat(selected).extracting(Document::getId).containsExactly("a", "c");
+    }
+
+    @Test
+    void keepsRelevanceOrderWithoutRedundancy() {
+        Document first = document("a", "Refunds are issued within 14 days.", 0.9);
+        Document second = document("b", "The API rate limit is 100 requests per minute.", 0.7);
+        Document third = document("c", "Invoices are sent on the first day of each month.", 0.4);
+        Map<String, float[]> embeddings = Map.of(
+                "a", new float[]{1f, 0f, 0f},
+                "b", new float[]{0f, 1f, 0f},
+                "c", new float[]{0f, 0f, 1f});
+
+        List<Document> selected = reranker.select(List.of(first, second, third), embeddings, 3);
+
+        assertThat(selected).extracting(Document::getId).containsExactly("a", "b", "c");
+    }
+
+    @Test
+    void onlyTruncatesWhenDisabled() {
+        ReflectionTestUtils.setField(reranker, "enabled", false);
+        Document original = document("a", "Refunds are issued within 14 days of the return.", 0.9);
+        Document copy = document("b", "Refunds are issued within 14 days of the return.", 0.8);
+        Document other = document("c", "The API rate limit is 100 requests per minute.", 0.5);
+
+        assertThat(reranker.select(List.of(original, copy, other), Map.of(), 2))
+                .extracting(Document::getId).containsExactly("a", "b");
+        assertThat(reranker.candidateCount(5)).isEqualTo(5);
+    }
+
+    @Test
+    void overfetchesCandidatesWhenEnabled() {
+        assertThat(reranker.candidateCount(5)).isEqualTo(20);
+    }
+
+    private static Document document(String id, String text, double score) {
+        return Document.builder().id(id).text(text).score(score).build();
+    }
+}
@@ -0,0 +1,167 @@
+package com.moksh.kontext.ai.service;
+
+import com.moksh.kontext.ai.limiter.ModelCallTenant;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class EmbeddingPipelineTest {
+
+    private final EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+    private final VectorService vectorService = mock(VectorService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final UUID projectId = UUID.randomUUID();
+    private final UUID knowledgeId = UUID.randomUUID();
+    private final List<Integer> progress = Collections.synchronizedList(new ArrayList<>());
+    private final List<Integer> embeddedBatchSizes = Collections.synchronizedList(new ArrayList<>());
+    private EmbeddingPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        // Batches run on the submitting thread, one after the other
+        pipeline = new EmbeddingPipeline(embeddingModel, vectorService, (TaskExecutor) Runnable::run, meterRegistry);
+        ReflectionTestUtils.setField(pipeline, "maxBatchTokens", 16000);
+        ReflectionTestUtils.setField(pipeline, "maxBatchSize", 3);
+        ReflectionTestUtils.setField(pipeline, "maxConcurrency", 2);
+        ReflectionTestUtils.setField(pipeline, "maxAttempts", 3);
+        ReflectionTestUtils.setField(pipeline, "initialBackoffMs", 0L);
+
+        when(vectorService.withScope(eq(projectId), eq(knowledgeId), anyList()))
+                .thenAnswer(invocation -> invocation.getArgument(2));
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            embeddedBatchSizes.add(texts.size());
+            return texts.stream().map(text -> new float[]{1f, 0f}).toList();
+        });
+    }
+
+    @Test
+    void cutsBatchesAtTheCountLimitAndReportsProgressInOrder() {
+        EmbeddingPipeline.Ingestion ingestion = start();
+
+        ingestion.submit(documents("chunk", 7));
+
+        assertThat(ingestion.await()).isEqualTo(7);
+        assertThat(embeddedBatchSizes).containsExactly(3, 3, 1);
+        assertThat(progress).containsExactly(3, 6, 7);
+        verify(vectorService, times(3)).upsertEmbeddedDocuments(eq(projectId), anyList(), anyList());
+    }
+
+    @Test
+    void cutsBatchesAtTheTokenLimitAndGivesAnOversizedChunkItsOwnBatch() {
+        ReflectionTestUtils.setField(pipeline, "maxBatchSize", 100);
+        ReflectionTestUtils.setField(pipeline, "maxBatchTokens", 5);
+        EmbeddingPipeline.Ingestion ingestion = start();
+        String oversized = String.join(" ", Collections.nCopies(50, "refund"));
+
+        ingestion.submit(List.of(document("one"), document("two"), document(oversized), document("three")));
+
+        assertThat(ingestion.await()).isEqualTo(4);
+        assertThat(embeddedBatchSizes).containsExactly(2, 1, 1);
+    }
+
+    @Test
+    void retriesAFailedBatchOnItsOwn() {
+        when(embeddingModel.embed(anyList()))
+                .thenThrow(new RuntimeException("rate limited"))
+                .thenAnswer(invocation -> {
+                    List<String> texts = invocation.getArgument(0);
+                    return texts.stream().map(text -> new float[]{1f, 0f}).toList();
+                });
+        EmbeddingPipeline.Ingestion ingestion = start();
+
+        ingestion.submit(documents("chunk", 2));
+
+        assertThat(ingestion.await()).isEqualTo(2);
+        verify(embeddingModel, times(2)).embed(anyList());
+        assertThat(batches("retried")).isEqualTo(1.0);
+        assertThat(batches("failed")).isZero();
+    }
+
+    @Test
+    void retriesOnlyTheUpsertWhenEmbeddingSucceeded() {
+        doThrow(new RuntimeException("qdrant unavailable"))
+                .doNothing()
+                .when(vectorService).upsertEmbeddedDocuments(eq(projectId), anyList(), anyList());
+        EmbeddingPipeline.Ingestion ingestion = start();
+
+        ingestion.submit(documents("chunk", 2));
+
+        assertThat(ingestion.await()).isEqualTo(2);
+        verify(embeddingModel, times(1)).embed(anyList());
+        verify(vectorService, times(2)).upsertEmbeddedDocuments(eq(projectId), anyList(), anyList());
+    }
+
+    @Test
+    void failsTheIngestionAndStopsSubmittingOnceABatchKeepsFailing() {
+        when(embeddingModel.embed(anyList())).thenThrow(new RuntimeException("provider down"));
+        EmbeddingPipeline.Ingestion ingestion = start();
+
+        ingestion.submit(documents("first", 3));
+        assertThatThrownBy(() -> ingestion.submit(documents("second", 3)))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessageContaining(knowledgeId.toString())
+                .hasRootCauseMessage("provider down");
+        assertThatThrownBy(ingestion::await).hasRootCauseMessage("provider down");
+
+        // Only the first batch was attempted, each time in full
+        verify(embeddingModel, times(3)).embed(anyList());
+        verify(vectorService, never()).upsertEmbeddedDocuments(any(), anyList(), anyList());
+        assertThat(batches("retried")).isEqualTo(2.0);
+        assertThat(batches("failed")).isEqualTo(1.0);
+        assertThat(progress).isEmpty();
+    }
+
+    @Test
+    void upsertsPrecomputedEmbeddingsWithoutCallingTheModel() {
+        EmbeddingPipeline.Ingestion ingestion = start();
+        List<Document> documents = documents("chunk", 4);
+        List<float[]> embeddings = IntStream.range(0, 4).mapToObj(i -> new float[]{i, 1f}).toList();
+
+        ingestion.submitEmbedded(documents, embeddings);
+
+        assertThat(ingestion.await()).isEqualTo(4);
+        verify(embeddingModel, never()).embed(anyList());
+        verify(vectorService).upsertEmbeddedDocuments(projectId, documents.subList(0, 3), embeddings.subList(0, 3));
+        verify(vectorService).upsertEmbeddedDocuments(projectId, documents.subList(3, 4), embeddings.subList(3, 4));
+    }
+
+    private EmbeddingPipeline.Ingestion start() {
+        return ModelCallTenant.callAs(knowledgeId.toString(),
+                () -> pipeline.start(projectId, knowledgeId, progress::add));
+    }
+
+    private double batches(String outcome) {
+        return meterRegistry.get("kontext.ai.ingestion.batches").tag("outcome", outcome).counter().count();
+    }
+
+    private static List<Document> documents(String prefix, int count) {
+        return IntStream.range(0, count).mapToObj(i -> document(prefix + " " + i)).toList();
+    }
+
+    private static Document document(String text) {
+        return Document.builder().id(UUID.randomUUID().toString()).text(text).build();
+    }
+}
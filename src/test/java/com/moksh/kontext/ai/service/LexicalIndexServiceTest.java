@@ -0,0 +1,102 @@
+package com.moksh.kontext.ai.service;
+
+import com.moksh.kontext.ai.cache.SemanticResponseCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LexicalIndexServiceTest {
+
+    private final VectorSearchService vectorSearchService = mock(VectorSearchService.class);
+    private final SemanticResponseCache semanticResponseCache = mock(SemanticResponseCache.class);
+    private LexicalIndexService service;
+
+    @BeforeEach
+    void setUp() {
+        // Rebuilds run on the calling thread, so the first search already sees the built index
+        service = new LexicalIndexService(vectorSearchService, semanticResponseCache,
+                new ConcurrentTaskExecutor(Runnable::run));
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "maxProjects", 2);
+        ReflectionTestUtils.setField(service, "idleEvictionMinutes", 60L);
+        when(semanticResponseCache.knowledgeVersion(any())).thenReturn(0L);
+        doAnswer(invocation -> {
+            Consumer<List<Document>> consumer = invocation.getArgument(2);
+            consumer.accept(List.of(Document.builder().id(UUID.randomUUID().toString())
+                    .text("refund policy").build()));
+            return null;
+        }).when(vectorSearchService).scrollKnowledge(any(), anyInt(), any());
+    }
+
+    @Test
+    void buildsIndexOnFirstQueryAndReusesIt() {
+        UUID project = UUID.randomUUID();
+
+        assertThat(service.search(project, "refund", 5)).hasSize(1);
+        assertThat(service.search(project, "refund", 5)).hasSize(1);
+
+        assertThat(service.isBuilt(project)).isTrue();
+        verify(vectorSearchService, times(1)).scrollKnowledge(eq(project), anyInt(), any());
+    }
+
+    @Test
+    void evictsLeastRecentlyQueriedProjectPastCap() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+
+        service.search(first, "refund", 5);
+        service.search(second, "refund", 5);
+        service.search(first, "refund", 5);
+        service.search(third, "refund", 5);
+
+        assertThat(service.isBuilt(first)).isTrue();
+        assertThat(service.isBuilt(second)).isFalse();
+        assertThat(service.isBuilt(third)).isTrue();
+
+        service.search(second, "refund", 5);
+        verify(vectorSearchService, times(2)).scrollKnowledge(eq(second), anyInt(), any());
+    }
+
+    @Test
+    void evictsIdleProjects() throws InterruptedException {
+        ReflectionTestUtils.setField(service, "idleEvictionMinutes", 0L);
+        UUID idle = UUID.randomUUID();
+        UUID active = UUID.randomUUID();
+
+        service.search(idle, "refund", 5);
+        Thread.sleep(5);
+        // Let the next query run the once-a-minute sweep right away
+        ((AtomicLong) ReflectionTestUtils.getField(service, "lastIdleSweep")).set(0);
+        service.search(active, "refund", 5);
+
+        assertThat(service.isBuilt(idle)).isFalse();
+        assertThat(service.isBuilt(active)).isTrue();
+    }
+
+    @Test
+    void ingestionDoesNotBuildIndexForUnqueriedProject() {
+        UUID project = UUID.randomUUID();
+
+        service.addKnowledge(project, UUID.randomUUID(), List.of(Document.builder().text("refund").build()));
+
+        assertThat(service.isBuilt(project)).isFalse();
+    }
+}
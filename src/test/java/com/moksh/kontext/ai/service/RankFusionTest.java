@@ -0,0 +1,56 @@
+package com.moksh.kontext.ai.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class RankFusionTest {
+
+    @Test
+    void documentRankedByBothListsComesFirst() {
+        List<Document> vector = List.of(document("a"), document("b"), document("c"));
+        List<Document> lexical = List.of(document("d"), document("b"), document("e"));
+
+        List<Document> fused = RankFusion.reciprocalRankFusion(List.of(vector, lexical), 60, 10);
+
+        assertThat(fused).extracting(Document::getId).containsExactly("b", "a", "d", "c", "e");
+        assertThat(fused.get(0).getScore()).isCloseTo(2.0 / 62, within(1e-12));
+        assertThat(fused.get(1).getScore()).isCloseTo(1.0 / 61, within(1e-12));
+    }
+
+    @Test
+    void keepsOneCopyPerDocumentAndCapsAtTopK() {
+        List<Document> first = List.of(document("a"), document("b"));
+        List<Document> second = List.of(document("b"), document("a"));
+        List<Document> third = List.of(document("c"));
+
+        List<Document> fused = RankFusion.reciprocalRankFusion(List.of(first, second, third), 60, 2);
+
+        assertThat(fused).extracting(Document::getId).containsExactlyInAnyOrder("a", "b");
+        assertThat(fused.get(0).getScore()).isEqualTo(fused.get(1).getScore());
+    }
+
+    @Test
+    void smallerKFavoursTopRanks() {
+        List<Document> vector = List.of(document("a"), document("b"));
+        List<Document> lexical = List.of(document("c"), document("d"), document("b"));
+
+        assertThat(RankFusion.reciprocalRankFusion(List.of(vector, lexical), 60, 1))
+                .extracting(Document::getId).containsExactly("b");
+        assertThat(RankFusion.reciprocalRankFusion(List.of(vector, lexical), 0, 1))
+                .extracting(Document::getId).containsExactly("a");
+    }
+
+    @Test
+    void emptyRankingsFuseToNothing() {
+        assertThat(RankFusion.reciprocalRankFusion(List.of(List.of(), List.of()), 60, 5)).isEmpty();
+    }
+
+    private static Document document(String id) {
+        return Document.builder().id(id).text("chunk " + id).build();
+    }
+}
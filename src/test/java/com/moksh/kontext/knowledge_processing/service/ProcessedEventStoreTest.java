@@ -0,0 +1,89 @@
+package com.moksh.kontext.knowledge_processing.service;
+
+import com.moksh.kontext.redis.service.InMemoryRedisService;
+import com.moksh.kontext.redis.service.RedisService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ProcessedEventStoreTest {
+
+    private static final String KEY = "kontext:processed-event:event-1";
+
+    private final InMemoryRedisService redisService = new InMemoryRedisService();
+    private ProcessedEventStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = store(redisService);
+    }
+
+    @Test
+    void claimsAnEventOnce() {
+        assertThat(store.claim("event-1")).isEqualTo(ProcessedEventStore.Claim.CLAIMED);
+        assertThat(store.claim("event-1")).isEqualTo(ProcessedEventStore.Claim.IN_PROGRESS);
+        assertThat(redisService.ttlOf(KEY)).isEqualTo(Duration.ofMinutes(5));
+    }
+
+    @Test
+    void reportsAProcessedEventAsDuplicate() {
+        store.claim("event-1");
+        store.markProcessed("event-1");
+
+        assertThat(store.claim("event-1")).isEqualTo(ProcessedEventStore.Claim.PROCESSED);
+        assertThat(redisService.ttlOf(KEY)).isEqualTo(Duration.ofDays(14));
+    }
+
+    @Test
+    void releasedEventCanBeClaimedAgain() {
+        store.claim("event-1");
+        store.release("event-1");
+
+        assertThat(store.claim("event-1")).isEqualTo(ProcessedEventStore.Claim.CLAIMED);
+    }
+
+    @Test
+    void extendsAClaimButNeverAProcessedRecord() {
+        store.claim("event-1");
+        redisService.expire(KEY, Duration.ofSeconds(10));
+
+        store.extendClaim("event-1");
+        assertThat(redisService.ttlOf(KEY)).isEqualTo(Duration.ofMinutes(5));
+
+        store.markProcessed("event-1");
+        store.extendClaim("event-1");
+        assertThat(redisService.ttlOf(KEY)).isEqualTo(Duration.ofDays(14));
+    }
+
+    @Test
+    void processesEventsWithoutADuplicateCheckWhenRedisFails() {
+        RedisService failing = mock(RedisService.class);
+        when(failing.setIfAbsent(anyString(), anyString(), any())).thenThrow(new IllegalStateException("down"));
+        when(failing.get(anyString())).thenThrow(new IllegalStateException("down"));
+        when(failing.delete(anyString())).thenThrow(new IllegalStateException("down"));
+        doThrow(new IllegalStateException("down")).when(failing).set(anyString(), anyString(), any(Duration.class));
+        ProcessedEventStore unavailable = store(failing);
+
+        assertThat(unavailable.claim("event-1")).isEqualTo(ProcessedEventStore.Claim.CLAIMED);
+        // Failures to record or extend are logged, never thrown into message handling
+        unavailable.extendClaim("event-1");
+        unavailable.markProcessed("event-1");
+        unavailable.release("event-1");
+    }
+
+    private static ProcessedEventStore store(RedisService redisService) {
+        ProcessedEventStore store = new ProcessedEventStore(redisService);
+        ReflectionTestUtils.setField(store, "claimTtlMinutes", 5L);
+        ReflectionTestUtils.setField(store, "processedTtlDays", 14L);
+        return store;
+    }
+}
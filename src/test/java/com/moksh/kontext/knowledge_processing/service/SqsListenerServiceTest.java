@@ -0,0 +1,136 @@
+package com.moksh.kontext.knowledge_processing.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.moksh.kontext.knowledge_processing.config.SqsListenerProperties;
+import com.moksh.kontext.knowledge_processing.constants.EventType;
+import com.moksh.kontext.redis.service.InMemoryRedisService;
+import io.awspring.cloud.sqs.listener.Visibility;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class SqsListenerServiceTest {
+
+    private final S3Client s3Client = mock(S3Client.class);
+    private final ContentProcessingStatusService statusService = mock(ContentProcessingStatusService.class);
+    private final InMemoryRedisService redisService = new InMemoryRedisService();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final String contentId = UUID.randomUUID().toString();
+    private ProcessedEventStore processedEventStore;
+    private SqsListenerService listener;
+
+    @BeforeEach
+    void setUp() {
+        processedEventStore = new ProcessedEventStore(redisService);
+        ReflectionTestUtils.setField(processedEventStore, "claimTtlMinutes", 5L);
+        ReflectionTestUtils.setField(processedEventStore, "processedTtlDays", 14L);
+        listener = new SqsListenerService(s3Client, new ObjectMapper(), statusService, processedEventStore,
+                new SqsListenerProperties(), meterRegistry);
+        ReflectionTestUtils.setField(listener, "ingestionBatchSize", 64);
+        listener.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        listener.shutdown();
+    }
+
+    @Test
+    void acknowledgesARedeliveredEventWithoutProcessingItAgain() {
+        String message = failedEvent("event-1");
+
+        receive(message);
+        receive(message);
+
+        verify(statusService, times(1)).markProcessingFailed(anyString(), anyString(), any(), any(), any());
+        assertThat(processedEventStore.claim("event-1")).isEqualTo(ProcessedEventStore.Claim.PROCESSED);
+        assertThat(meterRegistry.get("kontext.ai.ingestion.messages.duplicates").counter().count())
+                .isEqualTo(1.0);
+    }
+
+    @Test
+    void leavesAnEventClaimedElsewhereUnacknowledgedWithoutFailingIt() {
+        processedEventStore.claim("event-1");
+
+        assertThatThrownBy(() -> receive(failedEvent("event-1")))
+                .isInstanceOf(SqsListenerService.EventInProgressException.class);
+
+        verify(statusService, never()).markProcessingFailed(anyString(), anyString(), any(), any(), any());
+        // The other consumer's claim is untouched
+        assertThat(processedEventStore.claim("event-1")).isEqualTo(ProcessedEventStore.Claim.IN_PROGRESS);
+        assertThat(meterRegistry.get("kontext.ai.ingestion.messages.duration")
+                .tag("outcome", "in_progress").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void releasesTheClaimWhenProcessingFails() {
+        doThrow(new IllegalStateException("database down"))
+                .when(statusService).markProcessingFailed(anyString(), anyString(), any(), any(), any());
+
+        assertThatThrownBy(() -> receive(failedEvent("event-1"))).isInstanceOf(RuntimeException.class);
+
+        assertThat(processedEventStore.claim("event-1")).isEqualTo(ProcessedEventStore.Claim.CLAIMED);
+        assertThat(meterRegistry.get("kontext.ai.ingestion.messages.duration")
+                .tag("outcome", "failed").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void deletesTheChunkFileOnlyOnceTheEventIsRecorded() {
+        doThrow(new IllegalStateException("embedding failed")).doNothing()
+                .when(statusService).markProcessingComplete(anyString(), anyString(), any(), any(), any());
+        String message = successEvent("event-1");
+
+        assertThatThrownBy(() -> receive(message)).isInstanceOf(RuntimeException.class);
+        verify(s3Client, never()).deleteObject(any(DeleteObjectRequest.class));
+
+        receive(message);
+        verify(s3Client, times(1)).deleteObject(any(DeleteObjectRequest.class));
+        assertThat(processedEventStore.claim("event-1")).isEqualTo(ProcessedEventStore.Claim.PROCESSED);
+    }
+
+    @Test
+    void processesEventsWithoutAnIdEveryTime() {
+        String message = failedEvent(null);
+
+        receive(message);
+        receive(message);
+
+        verify(statusService, times(2)).markProcessingFailed(anyString(), anyString(), any(), any(), any());
+    }
+
+    private void receive(String payload) {
+        listener.receiveMessage(MessageBuilder.withPayload(payload).build(), mock(Visibility.class));
+    }
+
+    private String failedEvent(String eventId) {
+        return """
+                {"eventId": %s, "eventType": "%s", "contentId": "%s", "contentType": "document",
+                 "errorMessage": "unreadable file", "errorCode": "PARSE_ERROR", "failedStep": "extract"}
+                """.formatted(eventId == null ? "null" : "\"" + eventId + "\"", EventType.CONTENT_PROCESS_FAILED,
+                contentId);
+    }
+
+    private String successEvent(String eventId) {
+        return """
+                {"eventId": "%s", "eventType": "%s", "contentId": "%s", "contentType": "document",
+                 "chunkCount": 2, "s3BucketName": "chunks", "s3Key": "knowledge/%s.json"}
+                """.formatted(eventId, EventType.CONTENT_PROCESS_SUCCESS, contentId, contentId);
+    }
+}
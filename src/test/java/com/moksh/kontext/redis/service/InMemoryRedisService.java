@@ -0,0 +1,107 @@
+package com.moksh.kontext.redis.service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Map-backed stand-in for the string and hash operations of {@link RedisService}. TTLs are recorded, not applied.
+ */
+public class InMemoryRedisService extends RedisService {
+
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> hashes = new ConcurrentHashMap<>();
+    private final Map<String, Duration> ttls = new ConcurrentHashMap<>();
+
+    public InMemoryRedisService() {
+        super(null);
+    }
+
+    public Duration ttlOf(String key) {
+        return ttls.get(key);
+    }
+
+    public Map<String, Map<String, String>> hashes() {
+        return hashes;
+    }
+
+    @Override
+    public void set(String key, String value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public void set(String key, String value, Duration ttl) {
+        values.put(key, value);
+        ttls.put(key, ttl);
+    }
+
+    @Override
+    public boolean setIfAbsent(String key, String value, Duration ttl) {
+        if (values.putIfAbsent(key, value) != null) {
+            return false;
+        }
+        ttls.put(key, ttl);
+        return true;
+    }
+
+    @Override
+    public String get(String key) {
+        return values.get(key);
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return values.containsKey(key) || hashes.containsKey(key);
+    }
+
+    @Override
+    public boolean delete(String key) {
+        ttls.remove(key);
+        return values.remove(key) != null | hashes.remove(key) != null;
+    }
+
+    @Override
+    public boolean expire(String key, Duration timeout) {
+        if (!exists(key)) {
+            return false;
+        }
+        ttls.put(key, timeout);
+        return true;
+    }
+
+    @Override
+    public void hashSet(String key, String field, String value) {
+        hashes.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(field, value);
+    }
+
+    @Override
+    public String hashGet(String key, String field) {
+        Map<String, String> hash = hashes.get(key);
+        return hash != null ? hash.get(field) : null;
+    }
+
+    @Override
+    public Map<String, String> hashEntries(String key) {
+        Map<String, String> hash = hashes.get(key);
+        return hash != null ? new HashMap<>(hash) : new HashMap<>();
+    }
+
+    @Override
+    public boolean hashDelete(String key, String field) {
+        Map<String, String> hash = hashes.get(key);
+        return hash != null && hash.remove(field) != null;
+    }
+
+    @Override
+    public long increment(String key) {
+        return increment(key, 1);
+    }
+
+    @Override
+    public long increment(String key, long delta) {
+        return Long.parseLong(values.merge(key, String.valueOf(delta),
+                (current, added) -> String.valueOf(Long.parseLong(current) + Long.parseLong(added))));
+    }
+}